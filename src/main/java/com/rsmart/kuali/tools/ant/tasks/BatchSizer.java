@@ -0,0 +1,137 @@
+/*
+ * Copyright 2005-2007 The Kuali Foundation
+ *
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.opensource.org/licenses/ecl2.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rsmart.kuali.tools.ant.tasks;
+
+/**
+ * Batch size of one table. A tuned size starts at the number of rows that fit a byte target, then climbs
+ * toward the size with the best rows per second of executing batches: it keeps stepping in one direction
+ * while the rate improves and turns around when it doesn't. After turning around twice it settles on the
+ * best size seen.
+ *
+ * @author Leo Przybylski (przybyls@arizona.edu)
+ */
+public class BatchSizer {
+    /**
+     * Bytes of row data per batch a tuned size starts from
+     */
+    public static final long DEFAULT_TARGET_BYTES = 1024 * 1024;
+
+    /**
+     * Batches measured at each size before it is compared
+     */
+    private static final int SAMPLES = 4;
+
+    private static final double STEP = 1.5d;
+
+    private final int maximum;
+    private int size;
+    private int bestSize;
+    private double bestRate;
+    private boolean growing;
+    private int reversals;
+    private boolean settled;
+    private long rows;
+    private long nanos;
+    private int batches;
+
+    /**
+     * A size that is not tuned
+     */
+    public BatchSizer(final int size) {
+        this.maximum  = Math.max(1, size);
+        this.size     = maximum;
+        this.bestSize = maximum;
+        this.settled  = true;
+    }
+
+    /**
+     * A tuned size
+     *
+     * @param rowBytes estimated size of one row
+     * @param targetBytes bytes of row data to start from
+     * @param maximum largest size to try
+     */
+    public BatchSizer(final long rowBytes, final long targetBytes, final int maximum) {
+        this.maximum  = Math.max(1, maximum);
+        this.size     = (int) Math.max(1, Math.min(this.maximum, targetBytes / Math.max(1, rowBytes)));
+        this.bestSize = size;
+        this.growing  = true;
+    }
+
+    /**
+     * @param ceiling most rows the memory budget allows
+     * @return rows to read for the next batch
+     */
+    public synchronized int getBatchSize(final int ceiling) {
+        if (size > ceiling && ceiling > 0) {
+            // No point measuring sizes the budget will never allow
+            size    = ceiling;
+            growing = false;
+        }
+        return size;
+    }
+
+    public synchronized int getBatchSize() {
+        return settled ? bestSize : size;
+    }
+
+    public synchronized boolean isSettled() {
+        return settled;
+    }
+
+    /**
+     * Account for one executed batch
+     *
+     * @param rows rows in the batch
+     * @param nanos time spent binding and executing it
+     */
+    public synchronized void record(final int rows, final long nanos) {
+        if (settled || rows < size) {
+            // a short batch is the end of the table or was cut by the memory budget
+            return;
+        }
+        this.rows  += rows;
+        this.nanos += nanos;
+        if (++batches < SAMPLES) {
+            return;
+        }
+
+        final double rate = this.rows * 1e9d / Math.max(1, this.nanos);
+        this.rows  = 0;
+        this.nanos = 0;
+        batches    = 0;
+
+        if (rate > bestRate) {
+            bestRate = rate;
+            bestSize = size;
+        }
+        else {
+            growing = !growing;
+            if (++reversals > 1) {
+                settled = true;
+                size    = bestSize;
+                return;
+            }
+        }
+
+        final int next = (int) (growing ? Math.ceil(bestSize * STEP) : Math.floor(bestSize / STEP));
+        size = Math.max(1, Math.min(maximum, next));
+        if (size == bestSize) {
+            settled = true;
+        }
+    }
+}
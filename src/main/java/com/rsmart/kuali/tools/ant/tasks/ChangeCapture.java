@@ -0,0 +1,275 @@
+/*
+ * Copyright 2005-2007 The Kuali Foundation
+ *
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.opensource.org/licenses/ecl2.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rsmart.kuali.tools.ant.tasks;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import java.util.List;
+
+/**
+ * Capture triggers and change tables on a source database. Every insert, update or delete of a captured
+ * table adds the primary key of the row to the table's change table, numbered from one sequence shared by
+ * all change tables so changes can be applied in the order they were made.
+ *
+ * A change table <code>LBC_&lt;table&gt;</code> has the key columns of its table plus
+ * <ul>
+ *   <li><code>SEQ</code> position in the shared <code>LBC_CHANGE_SEQ</code> sequence, the primary key</li>
+ *   <li><code>OP</code> I, U or D, or X for a change that could not be applied and was skipped</li>
+ *   <li><code>CHANGED</code> when the change was made, by the source's clock</li>
+ * </ul>
+ *
+ * Only keys are captured. Whoever applies a change reads the row's current state from the source, so
+ * changes are idempotent and a key changed many times is applied once.
+ *
+ * @author Leo Przybylski (przybyls@arizona.edu)
+ */
+public abstract class ChangeCapture {
+    public static final String SEQUENCE = "LBC_CHANGE_SEQ";
+    public static final String CHANGE_PREFIX = "LBC_";
+    public static final String SKIPPED = "X";
+    private static final String TRIGGER_PREFIX = "LBT_";
+    private static final int MAX_NAME_LENGTH = 30;
+
+    /**
+     * Pick the capture dialect for a source driver
+     *
+     * @param driver JDBC driver class name
+     */
+    public static ChangeCapture getInstance(final String driver) {
+        final String name = driver.toLowerCase();
+        if (name.contains("oracle")) {
+            return new OracleCapture();
+        }
+        else if (name.contains("h2")) {
+            return new H2Capture();
+        }
+        else if (name.contains("hsql")) {
+            return new HsqldbCapture();
+        }
+        throw new IllegalArgumentException("Change capture is not supported for " + driver);
+    }
+
+    /**
+     * Name of the change table of a table, short enough for Oracle
+     */
+    public static String getChangeTableName(final String tableName) {
+        return shorten(CHANGE_PREFIX + tableName.toUpperCase(), MAX_NAME_LENGTH);
+    }
+
+    protected static String getTriggerName(final String tableName, final String suffix) {
+        return shorten(TRIGGER_PREFIX + tableName.toUpperCase(), MAX_NAME_LENGTH - suffix.length()) + suffix;
+    }
+
+    /**
+     * Cut a name down to a length. A cut name ends in a hash of the whole name, so tables sharing a long
+     * prefix still get names of their own.
+     */
+    private static String shorten(final String name, final int length) {
+        if (name.length() <= length) {
+            return name;
+        }
+        return name.substring(0, length - 7) + "_" + String.format("%06X", name.hashCode() & 0xFFFFFF);
+    }
+
+    /**
+     * Create the shared sequence if it doesn't exist yet
+     */
+    public void createSequence(final Connection connection) throws SQLException {
+        executeQuietly(connection, "CREATE SEQUENCE " + SEQUENCE);
+    }
+
+    public void dropSequence(final Connection connection) throws SQLException {
+        executeQuietly(connection, "DROP SEQUENCE " + SEQUENCE);
+    }
+
+    /**
+     * Create the change table and triggers of a table
+     *
+     * @param keys primary key columns of the table
+     */
+    public void install(final Connection connection, final String tableName, final List<String> keys) throws SQLException {
+        final String changeTable = getChangeTableName(tableName);
+        final String keyNames = join(keys, "", "");
+        final Statement st = connection.createStatement();
+        try {
+            st.execute(getCreateTableAs(changeTable, "SELECT " + keyNames + " FROM " + tableName + " WHERE 1 = 0"));
+            for (final String column : getChangeColumns()) {
+                st.execute("ALTER TABLE " + changeTable + " ADD " + column);
+            }
+            // Change rows are read in SEQ order and deleted by SEQ
+            st.execute("ALTER TABLE " + changeTable + " ADD PRIMARY KEY (SEQ)");
+            for (final String trigger : getCreateTriggers(tableName, changeTable, keys)) {
+                st.execute(trigger);
+            }
+        }
+        finally {
+            st.close();
+        }
+    }
+
+    /**
+     * Drop the triggers and change table of a table. Missing objects are ignored.
+     */
+    public void uninstall(final Connection connection, final String tableName) throws SQLException {
+        for (final String trigger : getTriggerNames(tableName)) {
+            executeQuietly(connection, "DROP TRIGGER " + trigger);
+        }
+        executeQuietly(connection, "DROP TABLE " + getChangeTableName(tableName));
+    }
+
+    protected String getCreateTableAs(final String tableName, final String query) {
+        return "CREATE TABLE " + tableName + " AS " + query;
+    }
+
+    /**
+     * Definitions of the SEQ, OP and CHANGED columns
+     */
+    protected String[] getChangeColumns() {
+        return new String[] {"SEQ BIGINT NOT NULL", "OP CHAR(1)", "CHANGED TIMESTAMP DEFAULT CURRENT_TIMESTAMP"};
+    }
+
+    protected abstract List<String> getCreateTriggers(String tableName, String changeTable, List<String> keys);
+
+    protected abstract List<String> getTriggerNames(String tableName);
+
+    /**
+     * Insert of a change row
+     *
+     * @param prefix qualifier of the key columns in the trigger, e.g. <code>:NEW.</code>
+     */
+    protected String getInsert(final String changeTable, final List<String> keys, final String op, final String nextValue, final String prefix) {
+        return "INSERT INTO " + changeTable + " (SEQ, OP, " + join(keys, "", "") + ") VALUES ("
+            + nextValue + ", '" + op + "', " + join(keys, prefix, "") + ")";
+    }
+
+    /**
+     * Condition that is true when an update changed the key
+     */
+    protected String getKeyChanged(final List<String> keys, final String oldPrefix, final String newPrefix) {
+        final StringBuilder retval = new StringBuilder();
+        for (final String key : keys) {
+            if (retval.length() > 0) {
+                retval.append(" OR ");
+            }
+            retval.append(oldPrefix).append(key).append(" <> ").append(newPrefix).append(key);
+        }
+        return retval.toString();
+    }
+
+    protected static String join(final List<String> names, final String prefix, final String suffix) {
+        final StringBuilder retval = new StringBuilder();
+        for (final String name : names) {
+            if (retval.length() > 0) {
+                retval.append(", ");
+            }
+            retval.append(prefix).append(name).append(suffix);
+        }
+        return retval.toString();
+    }
+
+    protected static void executeQuietly(final Connection connection, final String sql) {
+        try {
+            final Statement st = connection.createStatement();
+            try {
+                st.execute(sql);
+            }
+            finally {
+                st.close();
+            }
+        }
+        catch (SQLException e) {
+        }
+    }
+
+    /**
+     * One PL/SQL row trigger per table
+     */
+    static class OracleCapture extends ChangeCapture {
+        protected String[] getChangeColumns() {
+            return new String[] {"SEQ NUMBER(19) NOT NULL", "OP CHAR(1)", "CHANGED TIMESTAMP DEFAULT SYSTIMESTAMP"};
+        }
+
+        protected List<String> getCreateTriggers(final String tableName, final String changeTable, final List<String> keys) {
+            final String next = SEQUENCE + ".NEXTVAL";
+            return java.util.Collections.singletonList(
+                "CREATE OR REPLACE TRIGGER " + getTriggerName(tableName, "") + " AFTER INSERT OR UPDATE OR DELETE ON "
+                + tableName + " FOR EACH ROW\n"
+                + "BEGIN\n"
+                + "  IF DELETING THEN\n"
+                + "    " + getInsert(changeTable, keys, "D", next, ":OLD.") + ";\n"
+                + "  ELSIF INSERTING THEN\n"
+                + "    " + getInsert(changeTable, keys, "I", next, ":NEW.") + ";\n"
+                + "  ELSE\n"
+                + "    IF " + getKeyChanged(keys, ":OLD.", ":NEW.") + " THEN\n"
+                + "      " + getInsert(changeTable, keys, "U", next, ":OLD.") + ";\n"
+                + "    END IF;\n"
+                + "    " + getInsert(changeTable, keys, "U", next, ":NEW.") + ";\n"
+                + "  END IF;\n"
+                + "END;");
+        }
+
+        protected List<String> getTriggerNames(final String tableName) {
+            return java.util.Collections.singletonList(getTriggerName(tableName, ""));
+        }
+    }
+
+    /**
+     * H2 triggers are Java classes, see {@link H2ChangeTrigger}
+     */
+    static class H2Capture extends ChangeCapture {
+        protected List<String> getCreateTriggers(final String tableName, final String changeTable, final List<String> keys) {
+            return java.util.Collections.singletonList(
+                "CREATE TRIGGER " + getTriggerName(tableName, "") + " AFTER INSERT, UPDATE, DELETE ON " + tableName
+                + " FOR EACH ROW CALL \"" + H2ChangeTrigger.class.getName() + "\"");
+        }
+
+        protected List<String> getTriggerNames(final String tableName) {
+            return java.util.Collections.singletonList(getTriggerName(tableName, ""));
+        }
+    }
+
+    /**
+     * HSQLDB SQL triggers, one per event, plus one for updates that change the key
+     */
+    static class HsqldbCapture extends ChangeCapture {
+        private static final String NEXT = "NEXT VALUE FOR " + SEQUENCE;
+
+        protected String getCreateTableAs(final String tableName, final String query) {
+            return "CREATE TABLE " + tableName + " AS (" + query + ") WITH NO DATA";
+        }
+
+        protected List<String> getCreateTriggers(final String tableName, final String changeTable, final List<String> keys) {
+            return java.util.Arrays.asList(
+                "CREATE TRIGGER " + getTriggerName(tableName, "_I") + " AFTER INSERT ON " + tableName
+                + " REFERENCING NEW ROW AS N FOR EACH ROW " + getInsert(changeTable, keys, "I", NEXT, "N."),
+                "CREATE TRIGGER " + getTriggerName(tableName, "_U") + " AFTER UPDATE ON " + tableName
+                + " REFERENCING NEW ROW AS N FOR EACH ROW " + getInsert(changeTable, keys, "U", NEXT, "N."),
+                "CREATE TRIGGER " + getTriggerName(tableName, "_K") + " AFTER UPDATE ON " + tableName
+                + " REFERENCING OLD ROW AS O NEW ROW AS N FOR EACH ROW WHEN (" + getKeyChanged(keys, "O.", "N.") + ") "
+                + getInsert(changeTable, keys, "U", NEXT, "O."),
+                "CREATE TRIGGER " + getTriggerName(tableName, "_D") + " AFTER DELETE ON " + tableName
+                + " REFERENCING OLD ROW AS O FOR EACH ROW " + getInsert(changeTable, keys, "D", NEXT, "O."));
+        }
+
+        protected List<String> getTriggerNames(final String tableName) {
+            return java.util.Arrays.asList(getTriggerName(tableName, "_I"), getTriggerName(tableName, "_U"),
+                                           getTriggerName(tableName, "_K"), getTriggerName(tableName, "_D"));
+        }
+    }
+}
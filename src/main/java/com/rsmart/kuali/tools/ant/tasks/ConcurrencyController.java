@@ -0,0 +1,188 @@
+/*
+ * Copyright 2005-2007 The Kuali Foundation
+ *
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.opensource.org/licenses/ecl2.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rsmart.kuali.tools.ant.tasks;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.tools.ant.Project;
+
+/**
+ * Finds the number of parallel copies a pair of databases handles best, additive increase and multiplicative
+ * decrease. One more copy is added each interval for as long as rows per second keep improving. An
+ * increase that doesn't pay off is undone and probed again later. Connection exhaustion (ORA-12519) or a
+ * spike in batch latency halves the number of copies.
+ *
+ * Threads and both connection pools are resized together through the {@link MigrationMonitor}.
+ *
+ * @author Leo Przybylski (przybyls@arizona.edu)
+ */
+public class ConcurrencyController implements Runnable {
+    /**
+     * Milliseconds between adjustments
+     */
+    public static final long DEFAULT_INTERVAL = 10000;
+
+    /**
+     * Fraction rows per second have to improve by for an increase to be kept
+     */
+    private static final double MIN_GAIN = 0.05d;
+
+    /**
+     * Batch p99 latency, as a multiple of its usual value, that counts as a spike
+     */
+    private static final double SPIKE_FACTOR = 3d;
+
+    /**
+     * Intervals to hold after an increase was undone before probing again
+     */
+    private static final int PROBE_INTERVALS = 6;
+
+    private final MigrateData task;
+    private final MigrationMonitor monitor;
+    private final MigrationProgress progress;
+    private final int maximum;
+    private final AtomicInteger congestion;
+    private final ScheduledExecutorService scheduler;
+
+    private int limit;
+    private int peak;
+    private int decreases;
+    private boolean increased;
+    private int hold;
+    private long lastCopied;
+    private long lastNanos;
+    private double lastRate;
+    private long[] lastLatencies;
+    private double usualLatency;
+
+    public ConcurrencyController(final MigrateData task, final MigrationMonitor monitor, final MigrationProgress progress,
+                                 final int maximum) {
+        this.task          = task;
+        this.monitor       = monitor;
+        this.progress      = progress;
+        this.limit         = Math.max(1, monitor.getThreadCount());
+        this.maximum       = Math.max(limit, maximum);
+        this.peak          = limit;
+        this.congestion    = new AtomicInteger();
+        this.lastNanos     = System.nanoTime();
+        this.lastLatencies = progress.getBatchLatency().getCounts();
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                public Thread newThread(final Runnable runnable) {
+                    final Thread retval = new Thread(runnable, "Migration Concurrency");
+                    retval.setDaemon(true);
+                    return retval;
+                }
+            });
+        scheduler.scheduleWithFixedDelay(this, DEFAULT_INTERVAL, DEFAULT_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Report that a database refused a connection or a statement for lack of resources
+     */
+    public void congested() {
+        congestion.incrementAndGet();
+    }
+
+    public synchronized void run() {
+        final long now    = System.nanoTime();
+        final long copied = progress.getCopied();
+        final double rate = (copied - lastCopied) * 1e9d / Math.max(1, now - lastNanos);
+        lastCopied = copied;
+        lastNanos  = now;
+
+        final long[] latencies = progress.getBatchLatency().getCounts();
+        final long[] interval  = new long[latencies.length];
+        for (int i = 0; i < latencies.length; i++) {
+            interval[i] = latencies[i] - lastLatencies[i];
+        }
+        lastLatencies = latencies;
+        final long p99 = LatencyHistogram.getPercentileMicros(interval, 99);
+        final boolean spike = p99 > 0 && usualLatency > 0 && p99 > SPIKE_FACTOR * usualLatency;
+        if (p99 > 0 && !spike) {
+            usualLatency = usualLatency == 0 ? p99 : usualLatency + 0.2d * (p99 - usualLatency);
+        }
+
+        final int refused = congestion.getAndSet(0);
+        if (refused > 0 || spike) {
+            decreases++;
+            increased = false;
+            hold      = PROBE_INTERVALS;
+            apply(Math.max(1, limit / 2), refused > 0
+                  ? refused + " connection exhaustion errors"
+                  : "batch p99 of " + p99 + "us");
+        }
+        else if (rate <= 0) {
+            // Nothing was copied, e.g. while LOB tables are between batches. There is nothing to compare.
+        }
+        else if (increased && rate < lastRate * (1d + MIN_GAIN)) {
+            increased = false;
+            hold      = PROBE_INTERVALS;
+            apply(limit - 1, String.format("%.0f rows/s did not improve on %.0f rows/s", rate, lastRate));
+        }
+        else if (hold > 0) {
+            hold--;
+        }
+        else if (limit < maximum) {
+            increased = true;
+            apply(limit + 1, String.format("%.0f rows/s", rate));
+        }
+        else {
+            increased = false;
+        }
+
+        if (rate > 0) {
+            lastRate = rate;
+        }
+    }
+
+    /**
+     * Stop adjusting and add the concurrency settled on to the report
+     */
+    public void stop() {
+        scheduler.shutdownNow();
+        synchronized (this) {
+            task.log("Settled on " + limit + " concurrent copies (peak " + peak + ", backed off " + decreases + " times)");
+            task.getReport().getSection("concurrency")
+                .put("settled", limit)
+                .put("peak", peak)
+                .put("maximum", maximum)
+                .put("decreases", decreases);
+        }
+    }
+
+    public synchronized int getLimit() {
+        return limit;
+    }
+
+    private void apply(final int limit, final String reason) {
+        if (limit == this.limit || limit < 1) {
+            return;
+        }
+        task.log((limit > this.limit ? "Raising" : "Lowering") + " concurrent copies to " + limit + " (" + reason + ")",
+                 Project.MSG_VERBOSE);
+        this.limit = limit;
+        peak = Math.max(peak, limit);
+        monitor.setThreadCount(limit);
+        monitor.setMaxSourceConnections(limit);
+        monitor.setMaxTargetConnections(limit);
+    }
+}
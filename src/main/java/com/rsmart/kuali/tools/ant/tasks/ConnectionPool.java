@@ -0,0 +1,144 @@
+/*
+ * Copyright 2005-2007 The Kuali Foundation
+ *
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.opensource.org/licenses/ecl2.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rsmart.kuali.tools.ant.tasks;
+
+import java.sql.Connection;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded pool of connections to one database. The number of connections checked out at once is limited by a
+ * semaphore, so the pool rather than the number of threads decides how many copies run against a database.
+ * Idle connections are reused instead of being closed.
+ *
+ * @author Leo Przybylski (przybyls@arizona.edu)
+ */
+public abstract class ConnectionPool {
+    private int size;
+    private final ResizableSemaphore permits;
+    private final ConcurrentLinkedQueue<Connection> idle;
+    private final AtomicInteger active;
+
+    public ConnectionPool(final int size) {
+        this.size    = size;
+        this.permits = new ResizableSemaphore(size);
+        this.idle    = new ConcurrentLinkedQueue<Connection>();
+        this.active  = new AtomicInteger();
+    }
+
+    /**
+     * Open a new physical connection
+     */
+    protected abstract Connection open();
+
+    /**
+     * Check out a connection, blocking until one of the pool's permits is available
+     */
+    public Connection acquire() throws InterruptedException {
+        permits.acquire();
+        try {
+            Connection retval = idle.poll();
+            if (retval == null) {
+                retval = open();
+            }
+            active.incrementAndGet();
+            return retval;
+        }
+        catch (RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Return a connection for reuse
+     */
+    public void release(final Connection connection) {
+        idle.offer(connection);
+        active.decrementAndGet();
+        permits.release();
+    }
+
+    /**
+     * Close a connection that should not be reused, e.g. after it failed
+     */
+    public void discard(final Connection connection) {
+        try {
+            connection.close();
+        }
+        catch (Exception e) {
+        }
+        active.decrementAndGet();
+        permits.release();
+    }
+
+    /**
+     * Close all idle connections
+     */
+    public void close() {
+        Connection connection = null;
+        while ((connection = idle.poll()) != null) {
+            try {
+                connection.close();
+            }
+            catch (Exception e) {
+            }
+        }
+    }
+
+    public synchronized int getSize() {
+        return size;
+    }
+
+    /**
+     * Change how many connections may be checked out at once. Shrinking does not take connections away
+     * from their holders, it only keeps new ones from being handed out until enough have been returned.
+     */
+    public synchronized void resize(final int size) {
+        if (size < 1 || size == this.size) {
+            return;
+        }
+        if (size > this.size) {
+            permits.release(size - this.size);
+        }
+        else {
+            permits.reducePermits(this.size - size);
+        }
+        this.size = size;
+    }
+
+    /**
+     * @return number of connections currently checked out
+     */
+    public int getActiveCount() {
+        return active.get();
+    }
+
+    private static class ResizableSemaphore extends Semaphore {
+        private static final long serialVersionUID = 1L;
+
+        ResizableSemaphore(final int permits) {
+            super(permits, true);
+        }
+
+        protected void reducePermits(final int reduction) {
+            super.reducePermits(reduction);
+        }
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2005-2007 The Kuali Foundation
+ *
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.opensource.org/licenses/ecl2.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rsmart.kuali.tools.ant.tasks;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Java Flight Recorder events for data migrations. With these in a recording, GC pauses and I/O waits can
+ * be attributed to the table and phase they happened in. Events are only committed while a recording with
+ * them enabled is running.
+ *
+ * @author Leo Przybylski (przybyls@arizona.edu)
+ */
+public final class CopyEvents {
+    private static final String CATEGORY = "lbcopy";
+
+    private CopyEvents() {
+    }
+
+    @Name("com.rsmart.kuali.tools.ant.tasks.TableCopy")
+    @Label("Table Copy")
+    @Description("Copying, exporting or importing one table")
+    @Category({CATEGORY, "Copy"})
+    public static class TableCopy extends Event {
+        @Label("Table")
+        public String table;
+
+        @Label("Operation")
+        public String operation;
+
+        @Label("Rows")
+        public long rows;
+
+        @Label("Rejected Rows")
+        public long rejected;
+    }
+
+    @Name("com.rsmart.kuali.tools.ant.tasks.ChunkFlush")
+    @Label("Spool Chunk")
+    @Description("Writing or loading one spool file")
+    @Category({CATEGORY, "Copy"})
+    public static class ChunkFlush extends Event {
+        @Label("Table")
+        public String table;
+
+        @Label("File")
+        public String file;
+
+        @Label("Rows")
+        public long rows;
+    }
+
+    @Name("com.rsmart.kuali.tools.ant.tasks.BatchFlush")
+    @Label("Batch Flush")
+    @Description("Binding and executing one batch of rows against the target")
+    @Category({CATEGORY, "Copy"})
+    public static class BatchFlush extends Event {
+        @Label("Table")
+        public String table;
+
+        @Label("Rows")
+        public int rows;
+
+        @Label("Size")
+        @DataAmount
+        public long bytes;
+
+        @Label("Written")
+        public boolean written;
+    }
+
+    @Name("com.rsmart.kuali.tools.ant.tasks.Commit")
+    @Label("Commit")
+    @Description("Committing a table or chunk on the target")
+    @Category({CATEGORY, "Copy"})
+    public static class Commit extends Event {
+        @Label("Table")
+        public String table;
+    }
+
+    @Name("com.rsmart.kuali.tools.ant.tasks.Retry")
+    @Label("Retry")
+    @Description("A statement failed with a recoverable error and is written again")
+    @Category({CATEGORY, "Copy"})
+    public static class Retry extends Event {
+        @Label("Table")
+        public String table;
+
+        @Label("Reason")
+        public String reason;
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2005-2007 The Kuali Foundation
+ *
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.opensource.org/licenses/ecl2.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rsmart.kuali.tools.ant.tasks;
+
+import java.io.File;
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Puts the rows of one table in key order when the source can't do it cheaply. Rows are read in runs as
+ * large as the memory budget allows. A table that fits in one run is sorted in memory. Otherwise each run
+ * is sorted and spilled to a {@link SpoolFile} under the sort directory, and the runs are merged as the
+ * target is loaded.
+ *
+ * @author Leo Przybylski (przybyls@arizona.edu)
+ */
+public class ExternalSort {
+    /**
+     * Rows of each spilled run held in memory while merging
+     */
+    private static final int MERGE_ROWS = 256;
+
+    private final File directory;
+    private final String tableName;
+    private final String[] columnNames;
+    private final int[] keyColumns;
+    private final List<File> files;
+    private final List<SpoolFile.Reader> readers;
+    private final PriorityQueue<Run> runs;
+    private boolean merging;
+
+    /**
+     * @param directory where runs are spilled to
+     * @param columnNames columns of the buffered rows
+     * @param keyColumns buffer columns to sort by, most significant first
+     */
+    public ExternalSort(final File directory, final String tableName, final String[] columnNames, final int[] keyColumns) {
+        this.directory   = directory;
+        this.tableName   = tableName;
+        this.columnNames = columnNames;
+        this.keyColumns  = keyColumns;
+        this.files       = new ArrayList<File>();
+        this.readers     = new ArrayList<SpoolFile.Reader>();
+        this.runs        = new PriorityQueue<Run>(11, new Comparator<Run>() {
+                public int compare(final Run first, final Run second) {
+                    return first.buffer.compare(first.position, second.buffer, second.position, ExternalSort.this.keyColumns);
+                }
+            });
+    }
+
+    /**
+     * Add a run of rows. The last run of a table that never spilled is kept in memory, so the buffer must
+     * not be refilled until the sort is closed.
+     *
+     * @param run rows read from the source
+     * @param last whether the source has no more rows
+     */
+    public void add(final RowBuffer run, final boolean last) throws IOException {
+        run.sort(keyColumns);
+        if (last && files.isEmpty()) {
+            push(new Run(run, null));
+            return;
+        }
+
+        final SpoolFile.Writer writer = new SpoolFile.Writer(directory, tableName, files.size(), columnNames,
+                                                             run.getSqlTypes(), run.getKinds());
+        for (int row = 0; row < run.size(); row++) {
+            writer.write(run, row);
+        }
+        files.add(writer.close());
+        run.reset();
+    }
+
+    /**
+     * @return number of runs spilled to disk
+     */
+    public int getSpilled() {
+        return files.size();
+    }
+
+    /**
+     * Fill a buffer with the next rows in key order
+     *
+     * @param buffer configured with the same columns as the runs
+     * @return number of rows in the buffer. 0 when every row has been read
+     */
+    public int read(final RowBuffer buffer) throws IOException {
+        if (!merging) {
+            merging = true;
+            for (final File file : files) {
+                final SpoolFile.Reader reader = new SpoolFile.Reader(file);
+                readers.add(reader);
+                final RowBuffer runBuffer = new RowBuffer();
+                runBuffer.configure(reader.getSqlTypes(), reader.getKinds(), MERGE_ROWS);
+                reader.read(runBuffer);
+                push(new Run(runBuffer, reader));
+            }
+        }
+
+        buffer.reset();
+        while (!runs.isEmpty() && buffer.size() < buffer.getCapacity()) {
+            final Run run = runs.poll();
+            buffer.append(run.buffer, run.position);
+            if (run.advance()) {
+                runs.add(run);
+            }
+        }
+        return buffer.size();
+    }
+
+    /**
+     * Delete spilled runs
+     */
+    public void close() {
+        for (final SpoolFile.Reader reader : readers) {
+            try {
+                reader.close();
+            }
+            catch (IOException e) {
+            }
+        }
+        for (final File file : files) {
+            file.delete();
+        }
+        new File(directory, tableName).delete();
+        runs.clear();
+    }
+
+    private void push(final Run run) {
+        if (run.buffer.size() > 0) {
+            runs.add(run);
+        }
+    }
+
+    /**
+     * Next rows of one sorted run
+     */
+    private static class Run {
+        final RowBuffer buffer;
+        final SpoolFile.Reader reader;
+        int position;
+
+        Run(final RowBuffer buffer, final SpoolFile.Reader reader) {
+            this.buffer = buffer;
+            this.reader = reader;
+        }
+
+        /**
+         * Move past the current row, reading more of the run when its buffer is used up
+         *
+         * @return false when the run is exhausted
+         */
+        boolean advance() throws IOException {
+            if (++position < buffer.size()) {
+                return true;
+            }
+            if (reader == null) {
+                return false;
+            }
+            position = 0;
+            return reader.read(buffer) > 0;
+        }
+    }
+}
@@ -0,0 +1,335 @@
+/*
+ * Copyright 2005-2007 The Kuali Foundation
+ *
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.opensource.org/licenses/ecl2.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rsmart.kuali.tools.ant.tasks;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.tools.ant.Project;
+
+/**
+ * Writes the batches of one table copy to additional targets, so the source is read once however many
+ * targets there are. Every target gets its own writer thread, connection and bounded queue of batches. The
+ * reader only waits on a target whose queue is full, so a slow target holds up a copy by no more than its
+ * queue, and a target that fails loses only its own copy of the table.
+ *
+ * Queued batches are copies of the reader's buffer and count against the memory budget until written. They
+ * are charged without waiting, since the reader already holds its own batch and the copy is already made.
+ * Batches are sized so every reader's batch and all the copies queued for it fit the budget together, see
+ * {@link #getBatches(int, int)}.
+ *
+ * @author Leo Przybylski (przybyls@arizona.edu)
+ */
+public class FanOut {
+    private static final Batch END = new Batch(null, 0);
+
+    /**
+     * Milliseconds between checks that a writer whose queue is full is still running
+     */
+    private static final long POLL_INTERVAL = 100;
+
+    private final MigrateData task;
+    private final String tableName;
+    private final List<Writer> writers;
+
+    /**
+     * Start a writer on every target
+     *
+     * @param columns target columns, in the order the reader's buffer binds them
+     * @param queueBatches batches each target can fall behind by before the reader waits for it
+     */
+    public FanOut(final MigrateData task,
+                  final List<Target> targets,
+                  final ExecutorService executor,
+                  final String tableName,
+                  final Map<String, Integer> columns,
+                  final int queueBatches) {
+        this.task      = task;
+        this.tableName = tableName;
+        this.writers   = new ArrayList<Writer>();
+        for (final Target target : targets) {
+            final Writer writer = new Writer(target, columns, Math.max(1, queueBatches));
+            writer.future = executor.submit(writer);
+            writers.add(writer);
+        }
+    }
+
+    /**
+     * Queue a copy of the buffered rows for every target still writing. Waits while a target's queue is
+     * full.
+     */
+    public void write(final RowBuffer buffer) throws InterruptedException {
+        for (final Writer writer : writers) {
+            if (writer.failed) {
+                continue;
+            }
+            final RowBuffer copy = new RowBuffer();
+            copy.configure(buffer.getSqlTypes(), buffer.getKinds(), Math.max(1, buffer.size()));
+            for (int row = 0; row < buffer.size(); row++) {
+                copy.append(buffer, row);
+            }
+
+            final long started = System.nanoTime();
+            final long reserved = task.getMemoryBudget().resize(0, copy.measure());
+            if (!put(writer, new Batch(copy, reserved))) {
+                task.getMemoryBudget().release(reserved);
+            }
+            writer.target.stalled.add(System.nanoTime() - started);
+        }
+    }
+
+    /**
+     * Number of batches one reader can have in memory at once: its own, plus for every target a full queue
+     * and the batch being written
+     */
+    public static int getBatches(final int targets, final int queueBatches) {
+        return 1 + targets * (Math.max(1, queueBatches) + 1);
+    }
+
+    /**
+     * Queue a batch, waiting for room for as long as the writer is running
+     *
+     * @return false when the writer stopped
+     */
+    private boolean put(final Writer writer, final Batch batch) throws InterruptedException {
+        while (!writer.queue.offer(batch, POLL_INTERVAL, TimeUnit.MILLISECONDS)) {
+            if (writer.future.isDone()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Wait for every target to write and commit what was queued
+     */
+    public void finish() throws InterruptedException {
+        close(false);
+    }
+
+    /**
+     * Stop writing and roll back every target's copy of the table
+     */
+    public void abort() {
+        try {
+            close(true);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void close(final boolean aborted) throws InterruptedException {
+        for (final Writer writer : writers) {
+            if (aborted) {
+                writer.failed = true;
+            }
+            put(writer, END);
+        }
+        for (final Writer writer : writers) {
+            try {
+                writer.future.get();
+            }
+            catch (ExecutionException e) {
+                task.log("Writer for " + writer.target.getName() + " failed: " + e.getCause(), Project.MSG_WARN);
+            }
+        }
+    }
+
+    /**
+     * An additional target and what was written to it over the whole run
+     */
+    public static class Target {
+        private final String name;
+        private final RdbmsConfig config;
+        private final TargetProfile profile;
+        private final ConnectionPool pool;
+        private final LongAdder rows;
+        private final LongAdder failedTables;
+        private final LongAdder stalled;
+
+        public Target(final String name, final RdbmsConfig config, final TargetProfile profile, final ConnectionPool pool) {
+            this.name         = name;
+            this.config       = config;
+            this.profile      = profile;
+            this.pool         = pool;
+            this.rows         = new LongAdder();
+            this.failedTables = new LongAdder();
+            this.stalled      = new LongAdder();
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public RdbmsConfig getConfig() {
+            return config;
+        }
+
+        public TargetProfile getProfile() {
+            return profile;
+        }
+
+        public ConnectionPool getPool() {
+            return pool;
+        }
+
+        public long getRows() {
+            return rows.sum();
+        }
+
+        public long getFailedTables() {
+            return failedTables.sum();
+        }
+
+        /**
+         * @return milliseconds readers spent waiting for this target's queues
+         */
+        public long getStalledMillis() {
+            return stalled.sum() / 1000000;
+        }
+    }
+
+    private static class Batch {
+        final RowBuffer rows;
+        final long reserved;
+
+        Batch(final RowBuffer rows, final long reserved) {
+            this.rows     = rows;
+            this.reserved = reserved;
+        }
+    }
+
+    /**
+     * Drains one target's queue into its own connection until the end of the table
+     */
+    private class Writer implements Runnable {
+        final Target target;
+        final Map<String, Integer> columns;
+        final BlockingQueue<Batch> queue;
+        volatile boolean failed;
+        Future<?> future;
+
+        Writer(final Target target, final Map<String, Integer> columns, final int queueBatches) {
+            this.target  = target;
+            this.columns = columns;
+            this.queue   = new ArrayBlockingQueue<Batch>(queueBatches);
+        }
+
+        public void run() {
+            Connection connection = null;
+            PreparedStatement statement = null;
+            try {
+                connection = target.getPool().acquire();
+                statement  = task.prepareStatement(connection, tableName, columns);
+            }
+            catch (Exception e) {
+                fail(e);
+            }
+
+            long written = 0;
+            try {
+                while (true) {
+                    final Batch batch = queue.take();
+                    if (batch == END) {
+                        break;
+                    }
+                    try {
+                        if (!failed) {
+                            for (int row = 0; row < batch.rows.size(); row++) {
+                                batch.rows.bind(statement, row);
+                                statement.addBatch();
+                            }
+                            statement.executeBatch();
+                            written += batch.rows.size();
+                        }
+                    }
+                    catch (SQLException e) {
+                        fail(e);
+                    }
+                    finally {
+                        batch.rows.clear();
+                        task.getMemoryBudget().release(batch.reserved);
+                    }
+                }
+            }
+            catch (InterruptedException e) {
+                failed = true;
+                Thread.currentThread().interrupt();
+            }
+            finally {
+                close(connection, statement, written);
+            }
+        }
+
+        private void fail(final Exception cause) {
+            if (!failed) {
+                failed = true;
+                target.failedTables.increment();
+                task.log("Could not copy " + tableName + " to " + target.getName() + ": " + cause.getMessage(), Project.MSG_WARN);
+            }
+        }
+
+        private void close(final Connection connection, final PreparedStatement statement, final long written) {
+            // Batches left behind by an interrupted writer still hold memory
+            for (Batch batch; (batch = queue.poll()) != null;) {
+                if (batch != END) {
+                    task.getMemoryBudget().release(batch.reserved);
+                }
+            }
+            if (connection == null) {
+                return;
+            }
+
+            boolean reusable = false;
+            try {
+                if (statement != null) {
+                    statement.close();
+                }
+                if (failed) {
+                    connection.rollback();
+                }
+                else {
+                    connection.commit();
+                    target.rows.add(written);
+                }
+                reusable = true;
+            }
+            catch (SQLException e) {
+                fail(e);
+            }
+            if (reusable) {
+                target.getPool().release(connection);
+            }
+            else {
+                target.getPool().discard(connection);
+            }
+        }
+    }
+}
@@ -44,6 +44,8 @@ import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.Statement;
 
+import java.util.Set;
+
 import static org.apache.tools.ant.Project.MSG_DEBUG;
 
 /**
@@ -54,9 +56,36 @@ public class GenerateChangeLog extends BaseLiquibaseTask {
     private String source;
     private String target;
     private boolean stateSaved;
+    private TableSet tableSet;
+    private File reportFile;
+    private RunReport report;
 
     public GenerateChangeLog() { }
 
+    /**
+     * Sets a file to write a JSON report of the run to, with the time each diff and changelog stage took
+     * and the report of the data migration when the state is saved
+     */
+    public void setReportFile(final File reportFile) {
+        this.reportFile = reportFile;
+    }
+
+    public File getReportFile() {
+        return this.reportFile;
+    }
+
+    /**
+     * Nested <code>&lt;tableSet&gt;</code> limiting which tables are exported. Only the output is limited, the
+     * schema is still read whole when its changelog is generated.
+     */
+    public void addTableSet(final TableSet tableSet) {
+        this.tableSet = tableSet;
+    }
+
+    public TableSet getTableSet() {
+        return this.tableSet;
+    }
+
     public boolean isStateSaved() {
         return stateSaved;
     }
@@ -82,6 +111,22 @@ public class GenerateChangeLog extends BaseLiquibaseTask {
     }
     
     public void execute() {
+        report = new RunReport("generateChangeLog");
+        report.put("source", getSource()).put("target", getTarget()).put("stateSaved", isStateSaved());
+        try {
+            generate();
+            report.put("status", "success");
+        }
+        catch (RuntimeException e) {
+            report.put("status", "failed").put("error", String.valueOf(e.getMessage()));
+            throw e;
+        }
+        finally {
+            writeReport();
+        }
+    }
+
+    protected void generate() {
         final RdbmsConfig source = (RdbmsConfig) getProject().getReference(getSource());
         final RdbmsConfig target = (RdbmsConfig) getProject().getReference(getTarget());
         Database lbSource = null;
@@ -125,7 +170,20 @@ public class GenerateChangeLog extends BaseLiquibaseTask {
             migrateTask.init();
             migrateTask.setSource(getSource());
             migrateTask.setTarget("h2");
-            migrateTask.execute();
+            if (tableSet != null) {
+                migrateTask.addTableSet(tableSet);
+            }
+            report.startStage("data.migrate");
+            try {
+                migrateTask.execute();
+            }
+            finally {
+                report.endStage("data.migrate");
+                if (migrateTask.getReport() != null) {
+                    report.put("migrate", migrateTask.getReport());
+                }
+            }
+            report.startStage("data.backup");
             try {
                 Backup.execute("work/export/data.zip", "work/export", "", true);
                 
@@ -135,12 +193,14 @@ public class GenerateChangeLog extends BaseLiquibaseTask {
             catch (Exception e) {
                 throw new BuildException(e);
             }
+            report.endStage("data.backup");
         }
     }
 
     protected void exportSchema(Database source, Database target) {
         try {
             Diff diff = new Diff(source, source.getDefaultSchemaName());
+            diff.setTableNames(getTableNames(source));
             exportTables(diff, target);
             exportSequences(diff, target);
             exportViews(diff, target);
@@ -154,16 +214,45 @@ public class GenerateChangeLog extends BaseLiquibaseTask {
 
     protected void export(Diff diff, Database target, String diffTypes, String suffix) {
         diff.setDiffTypes(diffTypes);
+        final String stage = suffix.substring(1, suffix.indexOf('.'));
         
         try {
+            report.startStage(stage + ".compare");
             DiffResult results = diff.compare();
+            report.endStage(stage + ".compare");
+            report.startStage(stage + ".printChangeLog");
             results.printChangeLog(getChangeLogFile() + suffix, target);
+            report.endStage(stage + ".printChangeLog");
         } 
         catch (Exception e) {
             throw new BuildException(e);
         }
     }
 
+    private void writeReport() {
+        if (getReportFile() == null) {
+            return;
+        }
+        try {
+            report.write(getReportFile());
+            log("Wrote run report to " + getReportFile());
+        }
+        catch (Exception e) {
+            log("Could not write run report to " + getReportFile() + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return tables selected by the nested table set, or null to export every table
+     */
+    protected Set<String> getTableNames(Database source) {
+        if (tableSet == null) {
+            return null;
+        }
+        final Connection conn = ((JdbcConnection) source.getConnection()).getUnderlyingConnection();
+        return tableSet.resolve(getProject(), conn, source.getDefaultSchemaName());
+    }
+
     protected void exportConstraints(Diff diff, Database target) {
         export(diff, target, "foreignKeys", "-cst.xml");
     }
@@ -200,7 +289,9 @@ public class GenerateChangeLog extends BaseLiquibaseTask {
             h2db = factory.findCorrectDatabaseImplementation(new JdbcConnection(openConnection("h2")));
             h2db.setDefaultSchemaName(h2Config.getSchema());
             
-            export(new Diff(source, getDefaultSchemaName()), h2db, "tables", "-dat.xml");
+            final Diff dataDiff = new Diff(source, getDefaultSchemaName());
+            dataDiff.setTableNames(getTableNames(source));
+            export(dataDiff, h2db, "tables", "-dat.xml");
 
             ResourceAccessor antFO = new AntResourceAccessor(getProject(), classpath);
             ResourceAccessor fsFO = new FileSystemResourceAccessor();
@@ -210,7 +301,9 @@ public class GenerateChangeLog extends BaseLiquibaseTask {
             Liquibase liquibase = new Liquibase(changeLogFile, new CompositeResourceAccessor(antFO, fsFO), h2db);
 
             log("Loading Schema");
+            report.startStage("data.loadSchema");
             liquibase.update(getContexts());
+            report.endStage("data.loadSchema");
             log("Finished Loading the Schema");
 
         } 
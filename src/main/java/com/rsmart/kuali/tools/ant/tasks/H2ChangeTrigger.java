@@ -0,0 +1,123 @@
+/*
+ * Copyright 2005-2007 The Kuali Foundation
+ *
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.opensource.org/licenses/ecl2.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rsmart.kuali.tools.ant.tasks;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.h2.api.Trigger;
+
+/**
+ * H2 row trigger installed by {@link ChangeCapture}. H2 only supports triggers written in Java, so this class
+ * has to be on the classpath of the source database.
+ *
+ * @author Leo Przybylski (przybyls@arizona.edu)
+ */
+public class H2ChangeTrigger implements Trigger {
+    private String insert;
+    private int[] keys;
+
+    public void init(final Connection connection, final String schemaName, final String triggerName,
+                     final String tableName, final boolean before, final int type) throws SQLException {
+        final List<String> names = new ArrayList<String>();
+        final List<Integer> positions = new ArrayList<Integer>();
+        final ResultSet rs = connection.getMetaData().getPrimaryKeys(null, schemaName, tableName);
+        try {
+            while (rs.next()) {
+                names.add(rs.getString("COLUMN_NAME"));
+            }
+        }
+        finally {
+            rs.close();
+        }
+
+        for (final String name : names) {
+            final ResultSet column = connection.getMetaData().getColumns(null, schemaName, tableName, name);
+            try {
+                if (!column.next()) {
+                    throw new SQLException("No column " + name + " in " + tableName);
+                }
+                positions.add(column.getInt("ORDINAL_POSITION") - 1);
+            }
+            finally {
+                column.close();
+            }
+        }
+
+        keys = new int[positions.size()];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = positions.get(i);
+        }
+
+        final StringBuilder values = new StringBuilder();
+        for (int i = 0; i < keys.length; i++) {
+            values.append(", ?");
+        }
+        insert = "INSERT INTO " + schemaName + "." + ChangeCapture.getChangeTableName(tableName) + " (SEQ, OP, "
+            + ChangeCapture.join(names, "", "") + ") VALUES (NEXT VALUE FOR " + schemaName + "." + ChangeCapture.SEQUENCE
+            + ", ?" + values + ")";
+    }
+
+    public void fire(final Connection connection, final Object[] oldRow, final Object[] newRow) throws SQLException {
+        if (newRow == null) {
+            capture(connection, "D", oldRow);
+        }
+        else if (oldRow == null) {
+            capture(connection, "I", newRow);
+        }
+        else {
+            if (isKeyChanged(oldRow, newRow)) {
+                capture(connection, "U", oldRow);
+            }
+            capture(connection, "U", newRow);
+        }
+    }
+
+    public void close() {
+    }
+
+    public void remove() {
+    }
+
+    private boolean isKeyChanged(final Object[] oldRow, final Object[] newRow) {
+        for (final int key : keys) {
+            if (oldRow[key] == null ? newRow[key] != null : !oldRow[key].equals(newRow[key])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void capture(final Connection connection, final String op, final Object[] row) throws SQLException {
+        final PreparedStatement statement = connection.prepareStatement(insert);
+        try {
+            statement.setString(1, op);
+            for (int i = 0; i < keys.length; i++) {
+                statement.setObject(i + 2, row[keys[i]]);
+            }
+            statement.executeUpdate();
+        }
+        finally {
+            statement.close();
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2005-2007 The Kuali Foundation
+ *
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.opensource.org/licenses/ecl2.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rsmart.kuali.tools.ant.tasks;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Integer primary key range of a table that one worker is copying in key order. The worker claims keys as
+ * it reads them. The unclaimed rest of the range can be split at any time, and the worker stops at the
+ * first key past the end of what is left to it.
+ *
+ * @author Leo Przybylski (przybyls@arizona.edu)
+ */
+public class KeyRange {
+    private final String tableName;
+    private final String column;
+    private final long low;
+    private final long minimumSplit;
+    private final AtomicInteger active;
+    private long high;
+    private long claimed;
+
+    /**
+     * @param minimumSplit fewest keys split off at once, so ranges don't shrink to a handful of rows
+     */
+    public KeyRange(final String tableName, final String column, final long low, final long high, final long minimumSplit) {
+        this(tableName, column, low, high, minimumSplit, new AtomicInteger(1));
+    }
+
+    private KeyRange(final String tableName, final String column, final long low, final long high,
+                     final long minimumSplit, final AtomicInteger active) {
+        this.tableName    = tableName;
+        this.column       = column;
+        this.low          = low;
+        this.high         = high;
+        this.minimumSplit = Math.max(1, minimumSplit);
+        this.active       = active;
+        this.claimed      = low - 1;
+    }
+
+    public String getTableName() {
+        return tableName;
+    }
+
+    public String getColumn() {
+        return column;
+    }
+
+    public long getLow() {
+        return low;
+    }
+
+    public synchronized long getHigh() {
+        return high;
+    }
+
+    /**
+     * @return keys not claimed yet
+     */
+    public synchronized long getRemaining() {
+        return high - claimed;
+    }
+
+    /**
+     * Claim one key
+     *
+     * @return false when the key is past the end of the range, and the worker should stop
+     */
+    public synchronized boolean claim(final long key) {
+        if (key > high) {
+            return false;
+        }
+        claimed = Math.max(claimed, key);
+        return true;
+    }
+
+    /**
+     * Claim the keys of a batch of rows read in key order
+     *
+     * @param column buffer column holding the key
+     * @return number of leading rows in the range. Fewer than buffered means the worker should stop.
+     */
+    public synchronized int claim(final RowBuffer buffer, final int column) {
+        for (int row = 0; row < buffer.size(); row++) {
+            final long key = buffer.getLong(row, column);
+            if (key > high) {
+                return row;
+            }
+            claimed = Math.max(claimed, key);
+        }
+        return buffer.size();
+    }
+
+    /**
+     * Give the upper half of the unclaimed keys to another worker
+     *
+     * @return the new range, or null when too little is left to be worth splitting
+     */
+    public synchronized KeyRange split() {
+        final long remaining = high - claimed;
+        if (remaining < 2 * minimumSplit) {
+            return null;
+        }
+        final long middle = claimed + remaining / 2;
+        final KeyRange retval = new KeyRange(tableName, column, middle + 1, high, minimumSplit, active);
+        high = middle;
+        active.incrementAndGet();
+        return retval;
+    }
+
+    /**
+     * Called when the worker is done with its range
+     *
+     * @return true when no other range of the table is still being copied
+     */
+    public boolean release() {
+        return active.decrementAndGet() == 0;
+    }
+
+    public synchronized String toString() {
+        return tableName + "(" + column + " " + low + ".." + high + ")";
+    }
+}
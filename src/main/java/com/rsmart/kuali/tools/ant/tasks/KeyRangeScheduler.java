@@ -0,0 +1,72 @@
+/*
+ * Copyright 2005-2007 The Kuali Foundation
+ *
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.opensource.org/licenses/ecl2.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rsmart.kuali.tools.ant.tasks;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Key ranges being copied right now. A worker that runs out of tables steals half of the range with the
+ * most keys left, so a table that turned out slower than expected doesn't hold up the end of the run.
+ *
+ * @author Leo Przybylski (przybyls@arizona.edu)
+ */
+public class KeyRangeScheduler {
+    private final List<KeyRange> running = new ArrayList<KeyRange>();
+    private int splits;
+
+    public synchronized void add(final KeyRange range) {
+        running.add(range);
+    }
+
+    public synchronized void remove(final KeyRange range) {
+        running.remove(range);
+    }
+
+    /**
+     * Split the largest running range. The stolen range is already running when it is returned.
+     *
+     * @return the range to copy, or null when nothing is worth splitting
+     */
+    public synchronized KeyRange steal() {
+        final List<KeyRange> candidates = new ArrayList<KeyRange>(running);
+        while (!candidates.isEmpty()) {
+            KeyRange largest = candidates.get(0);
+            for (final KeyRange range : candidates) {
+                if (range.getRemaining() > largest.getRemaining()) {
+                    largest = range;
+                }
+            }
+
+            final KeyRange retval = largest.split();
+            if (retval != null) {
+                running.add(retval);
+                splits++;
+                return retval;
+            }
+            candidates.remove(largest);
+        }
+        return null;
+    }
+
+    /**
+     * @return number of ranges stolen so far
+     */
+    public synchronized int getSplits() {
+        return splits;
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2005-2007 The Kuali Foundation
+ *
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.opensource.org/licenses/ecl2.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rsmart.kuali.tools.ant.tasks;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram of latencies. Bucket <code>i</code> counts latencies of <code>[2^i, 2^(i+1))</code>
+ * microseconds, with everything under 2 microseconds in bucket 0.
+ *
+ * @author Leo Przybylski (przybyls@arizona.edu)
+ */
+public class LatencyHistogram {
+    private static final int BUCKETS = 32;
+
+    private final AtomicLongArray counts;
+    private final LongAdder count;
+    private final LongAdder totalMicros;
+
+    public LatencyHistogram() {
+        counts      = new AtomicLongArray(BUCKETS);
+        count       = new LongAdder();
+        totalMicros = new LongAdder();
+    }
+
+    /**
+     * Record one latency
+     *
+     * @param nanos elapsed time in nanoseconds
+     */
+    public void record(final long nanos) {
+        final long micros = Math.max(0, nanos / 1000);
+        counts.incrementAndGet(getBucket(micros));
+        count.increment();
+        totalMicros.add(micros);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getTotalMicros() {
+        return totalMicros.sum();
+    }
+
+    public double getMeanMicros() {
+        final long n = getCount();
+        return n == 0 ? 0 : (double) getTotalMicros() / n;
+    }
+
+    /**
+     * @return count per bucket
+     */
+    public long[] getCounts() {
+        final long[] retval = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            retval[i] = counts.get(i);
+        }
+        return retval;
+    }
+
+    /**
+     * Upper bound of the bucket holding a percentile
+     *
+     * @param percentile between 0 and 100
+     * @return latency in microseconds
+     */
+    public long getPercentileMicros(final double percentile) {
+        return getPercentileMicros(getCounts(), percentile);
+    }
+
+    /**
+     * Upper bound of the bucket holding a percentile of bucket counts, e.g. of the difference between two
+     * calls to {@link #getCounts()}
+     *
+     * @param percentile between 0 and 100
+     * @return latency in microseconds, or 0 when the counts are empty
+     */
+    public static long getPercentileMicros(final long[] snapshot, final double percentile) {
+        long total = 0;
+        for (final long bucket : snapshot) {
+            total += bucket;
+        }
+        if (total == 0) {
+            return 0;
+        }
+
+        final long rank = (long) Math.ceil(total * percentile / 100d);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return 1L << (i + 1);
+            }
+        }
+        return 1L << BUCKETS;
+    }
+
+    public String toString() {
+        return String.format("n=%d mean=%.0fus p50<=%dus p90<=%dus p99<=%dus",
+                             getCount(), getMeanMicros(), getPercentileMicros(50),
+                             getPercentileMicros(90), getPercentileMicros(99));
+    }
+
+    private static int getBucket(final long micros) {
+        if (micros < 2) {
+            return 0;
+        }
+        return Math.min(BUCKETS - 1, 63 - Long.numberOfLeadingZeros(micros));
+    }
+}
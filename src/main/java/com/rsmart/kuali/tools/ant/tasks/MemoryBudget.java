@@ -0,0 +1,99 @@
+/*
+ * Copyright 2005-2007 The Kuali Foundation
+ *
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.opensource.org/licenses/ecl2.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rsmart.kuali.tools.ant.tasks;
+
+/**
+ * Global limit on the heap held by rows that have been read but not yet written. Readers reserve room for a
+ * batch before filling it and block while the budget is exhausted. A reservation is trued up to the measured
+ * size once the batch is filled, and released after the batch is written.
+ *
+ * @author Leo Przybylski (przybyls@arizona.edu)
+ */
+public class MemoryBudget {
+    private final long limit;
+    private long used;
+
+    public MemoryBudget(final long limit) {
+        this.limit = Math.max(1, limit);
+    }
+
+    /**
+     * @return a quarter of the maximum heap
+     */
+    public static long getDefaultLimit() {
+        return Runtime.getRuntime().maxMemory() / 4;
+    }
+
+    /**
+     * Reserve room, waiting until enough has been released. A request larger than the whole budget only
+     * waits until nothing else is reserved, so a single very wide batch can't block forever.
+     *
+     * @return the amount reserved, to be passed to {@link #release(long)}
+     */
+    public synchronized long acquire(final long bytes) throws InterruptedException {
+        final long request = Math.max(0, Math.min(bytes, limit));
+        while (used > 0 && used + request > limit) {
+            wait();
+        }
+        used += request;
+        return request;
+    }
+
+    /**
+     * Change a reservation to the size that was actually used. Growing never blocks since the rows are
+     * already in memory.
+     *
+     * @return the amount now reserved
+     */
+    public synchronized long resize(final long reserved, final long bytes) {
+        final long request = Math.max(0, Math.min(bytes, limit));
+        used += request - reserved;
+        if (request < reserved) {
+            notifyAll();
+        }
+        return request;
+    }
+
+    public synchronized void release(final long reserved) {
+        if (reserved <= 0) {
+            return;
+        }
+        used -= reserved;
+        notifyAll();
+    }
+
+    public long getLimit() {
+        return limit;
+    }
+
+    public synchronized long getUsed() {
+        return used;
+    }
+
+    /**
+     * Number of rows a batch may hold so that every worker can have a full batch in memory at once
+     *
+     * @param rowBytes estimated heap size of one row
+     * @param maxRows configured batch size
+     * @param workers number of batches that may be in memory at once
+     */
+    public int getBatchLimit(final long rowBytes, final int maxRows, final int workers) {
+        final long share = limit / Math.max(1, workers);
+        final long rows  = share / Math.max(1, rowBytes);
+        return (int) Math.max(1, Math.min(maxRows, rows));
+    }
+}
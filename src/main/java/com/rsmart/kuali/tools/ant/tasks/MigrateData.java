@@ -16,11 +16,15 @@
  */
 package com.rsmart.kuali.tools.ant.tasks;
 
+import java.io.File;
+import java.io.IOException;
 import java.io.PrintStream;
 import java.io.Reader;
 
 import java.lang.reflect.Field;
+import java.lang.reflect.Method;
 
+import java.sql.BatchUpdateException;
 import java.sql.Blob;
 import java.sql.Clob;
 import java.sql.Connection;
@@ -34,11 +38,31 @@ import java.sql.Statement;
 import java.sql.Types;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
-import java.util.Observable;
-import java.util.Observer;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.tools.ant.BuildException;
 import org.apache.tools.ant.DirectoryScanner;
@@ -59,7 +83,9 @@ public class MigrateData extends Task {
     
     private static final String[] carr = new String[] {"|", "\\", "-", "/"};
     private static final String RECORD_COUNT_QUERY = "select count(*) as \"COUNT\" from %s";
-    private static final String SELECT_ALL_QUERY   = "select * from %s";
+    private static final String SELECT_QUERY       = "select %s from %s";
+    private static final String KEY_RANGE_CONDITION = "%s >= %d and %s <= %d order by %s";
+    private static final String KEY_BOUNDS_QUERY   = "select min(%s), max(%s) from %s";
     private static final String INSERT_STATEMENT   = "insert into %s (%s) values (%s)";
     private static final String DATE_CONVERSION    = "TO_DATE('%s', 'YYYYMMDDHH24MISS')";
     private static final String COUNT_FIELD        = "COUNT";
@@ -69,226 +95,3073 @@ public class MigrateData extends Task {
 
     private static final String HSQLDB_PUBLIC      = "PUBLIC";
     private static final int    MAX_THREADS        = 3;
+    private static final int    DEFAULT_MAX_CONCURRENCY = 16;
+    private static final int    DEFAULT_FAN_OUT_BUFFER = 4;
+    private static final int    DEFAULT_SMALL_TABLE_ROWS = 100;
+    private static final int    DEFAULT_SMALL_TABLE_GROUP = 50;
+    private static final int    DEFAULT_STATISTICS_THREADS = 2;
+    private static final int    DEFAULT_BATCH_SIZE = 500;
+    private static final int    MAX_AUTO_BATCH_SIZE = 5000;
+    private static final String THREAD_MODE_VIRTUAL = "virtual";
+    private static final String MODE_EXPORT        = "export";
+    private static final String MODE_IMPORT        = "import";
+    private static final String KEY_ORDER_SOURCE   = "source";
+    private static final String KEY_ORDER_SORT     = "sort";
+    private static final String KEY_ORDER_AUTO     = "auto";
+    private static final int    DEFAULT_SPOOL_CHUNK_ROWS = 100000;
+    private static final long   DEFAULT_PROGRESS_INTERVAL = 1000;
 
     
     private String source;
     private String target;
     private int threadCount;
+    private int batchSize;
+    private boolean foreignKeyOrdered;
+    private String threadMode;
+    private int maxSourceConnections;
+    private int maxTargetConnections;
+    private boolean consistentRead;
+    private boolean streamDiscovery;
+    private boolean splitTables;
+    private boolean adaptiveConcurrency;
+    private int maxConcurrency;
+    private boolean autoBatchSize;
+    private long batchBytes;
+    private boolean nativeTransfer = true;
+    private String keyOrder;
+    private String fanOutTargets;
+    private int fanOutBuffer;
+    private int smallTableRows;
+    private int smallTableGroup;
+    private boolean gatherStatistics;
+    private int statisticsThreads;
+    private String mode;
+    private File spoolDir;
+    private int spoolChunkRows;
+    private long progressInterval;
+    private File reportFile;
+    private long maxBufferMemory;
+    private String targetProfile;
+
+    private SourceSnapshot snapshot;
+    private TargetProfile profile;
+    private final List<TableConfig> tableConfigs = new ArrayList<TableConfig>();
+    private final List<SchemaMapping> schemaMappings = new ArrayList<SchemaMapping>();
+    private TableSet tableSet;
+    private ConnectionPool sourcePool;
+    private ConnectionPool targetPool;
+    private ExecutorService executor;
+    private final Throttle throttle = new Throttle(0);
+    private RunReport report;
+    private MemoryBudget memoryBudget;
+    private KeyRangeScheduler ranges;
+    private volatile ConcurrencyController controller;
+    private NativeBulk.Dumper nativeSource;
+    private NativeBulk nativeTarget;
+    private File nativeDir;
+    private final List<FanOut.Target> extraTargets = new ArrayList<FanOut.Target>();
+    private ExecutorService writers;
+    private final List<TableStatistics> statistics = new ArrayList<TableStatistics>();
+    private int skippedTables;
+    private int smallGroups;
+    private final ConcurrentMap<String, BatchSizer> batchSizers = new ConcurrentHashMap<String, BatchSizer>();
+
+    private final ThreadLocal<RowBuffer> rowBuffers = new ThreadLocal<RowBuffer>() {
+        protected RowBuffer initialValue() {
+            return new RowBuffer();
+        }
+    };
 
     public MigrateData() { 
-        int threadCount = 1;
+        threadCount = MAX_THREADS;
+        batchSize   = DEFAULT_BATCH_SIZE;
+        spoolChunkRows = DEFAULT_SPOOL_CHUNK_ROWS;
+        progressInterval = DEFAULT_PROGRESS_INTERVAL;
+        maxConcurrency = DEFAULT_MAX_CONCURRENCY;
+        batchBytes = BatchSizer.DEFAULT_TARGET_BYTES;
+        fanOutBuffer = DEFAULT_FAN_OUT_BUFFER;
+        smallTableRows = DEFAULT_SMALL_TABLE_ROWS;
+        smallTableGroup = DEFAULT_SMALL_TABLE_GROUP;
+        statisticsThreads = DEFAULT_STATISTICS_THREADS;
     }
 
-    
-    public void setSource(String refid) {
-        this.source = refid;
+    /**
+     * Gets the value of threadCount
+     *
+     * @return the value of threadCount
+     */
+    public int getThreadCount() {
+        return this.threadCount;
     }
-    
-    public String getSource() {
-        return this.source;
+
+    /**
+     * Sets the number of tables to copy in parallel
+     *
+     * @param threadCount Value to assign to this.threadCount
+     */
+    public void setThreadCount(final int threadCount) {
+        this.threadCount = threadCount;
     }
 
-    public void setTarget(String refid) {
-        this.target = refid;
+    /**
+     * Gets the value of threadMode
+     *
+     * @return the value of threadMode
+     */
+    public String getThreadMode() {
+        return this.threadMode;
     }
 
-    public String getTarget() {
-        return this.target;
+    /**
+     * Sets how copies are run. <code>platform</code> (the default) copies with a pool of threadCount threads.
+     * <code>virtual</code> starts a virtual thread (Java 21+) for every table and leaves the connection pools to
+     * bound how many copies actually run.
+     *
+     * @param threadMode Value to assign to this.threadMode
+     */
+    public void setThreadMode(final String threadMode) {
+        this.threadMode = threadMode;
     }
-    
-    public void execute() {
-        final RdbmsConfig source = (RdbmsConfig) getProject().getReference(getSource());
-        final RdbmsConfig target = (RdbmsConfig) getProject().getReference(getTarget());
 
-        log("Migrating data from " + source.getUrl() + " to " + target.getUrl());
+    /**
+     * Gets the value of maxSourceConnections
+     *
+     * @return the value of maxSourceConnections
+     */
+    public int getMaxSourceConnections() {
+        return this.maxSourceConnections;
+    }
+
+    /**
+     * Sets the number of source connections that may be open at once. Defaults to threadCount.
+     *
+     * @param maxSourceConnections Value to assign to this.maxSourceConnections
+     */
+    public void setMaxSourceConnections(final int maxSourceConnections) {
+        this.maxSourceConnections = maxSourceConnections;
+    }
 
-        final Incrementor recordCountIncrementor = new Incrementor();
-        final Map<String, Integer> tableData = getTableData(source, target, recordCountIncrementor);
+    /**
+     * Gets the value of maxTargetConnections
+     *
+     * @return the value of maxTargetConnections
+     */
+    public int getMaxTargetConnections() {
+        return this.maxTargetConnections;
+    }
 
-        log("Copying " + tableData.size() + " tables");
+    /**
+     * Sets the number of target connections that may be open at once. Defaults to threadCount.
+     *
+     * @param maxTargetConnections Value to assign to this.maxTargetConnections
+     */
+    public void setMaxTargetConnections(final int maxTargetConnections) {
+        this.maxTargetConnections = maxTargetConnections;
+    }
 
-        float recordVisitor = 0;
-        final ProgressObserver progressObserver = new ProgressObserver(recordCountIncrementor.getValue(),
-                                                                       48f, 48f/100,
-                                                                       "\r|%s[%s] %3d%% (%d/%d) records");
-        final ProgressObservable observable = new ProgressObservable();
-        observable.addObserver(progressObserver);
+    /**
+     * Gets the value of consistentRead
+     *
+     * @return the value of consistentRead
+     */
+    public boolean isConsistentRead() {
+        return this.consistentRead;
+    }
 
-        final ThreadGroup tgroup = new ThreadGroup("Migration Threads");
+    /**
+     * When true, every source reader sees the same point in time, so a live source can be copied in
+     * parallel without taking it offline.
+     *
+     * @param consistentRead Value to assign to this.consistentRead
+     * @see SourceSnapshot
+     */
+    public void setConsistentRead(final boolean consistentRead) {
+        this.consistentRead = consistentRead;
+    }
 
-        for (final String tableName : tableData.keySet()) {
-            debug("Migrating table " + tableName + " with " + tableData.get(tableName) + " records");
-            if (tgroup.activeCount() < MAX_THREADS) {
-                new Thread(tgroup, new Runnable() {
-                        public void run() {
-                            migrate(source, target, tableName, observable);
-                        }
-                    }).start();
-            }
-            else {
-                final Map<String,Integer> columns = new HashMap<String, Integer>();
-                migrate(source, target, tableName, observable);
-            }
-        }
+    /**
+     * Gets the value of streamDiscovery
+     *
+     * @return the value of streamDiscovery
+     */
+    public boolean isStreamDiscovery() {
+        return this.streamDiscovery;
+    }
 
-        // Wait for other threads to finish
-        try {
-            while(tgroup.activeCount() > 0) {
-                Thread.sleep(5000);
+    /**
+     * When true, each table starts copying as soon as it has been discovered and counted instead of after the
+     * whole catalog has been walked. Ignored when foreignKeyOrdered is set, since waves need every table.
+     *
+     * @param streamDiscovery Value to assign to this.streamDiscovery
+     */
+    public void setStreamDiscovery(final boolean streamDiscovery) {
+        this.streamDiscovery = streamDiscovery;
+    }
+
+    /**
+     * Gets the value of splitTables
+     *
+     * @return the value of splitTables
+     */
+    public boolean isSplitTables() {
+        return this.splitTables;
+    }
+
+    /**
+     * When true, tables with a single integer primary key are read in key order, and a thread that runs out
+     * of tables takes over half of the keys a running table has left. Only applies in copy mode.
+     *
+     * @param splitTables Value to assign to this.splitTables
+     * @see KeyRangeScheduler
+     */
+    public void setSplitTables(final boolean splitTables) {
+        this.splitTables = splitTables;
+    }
+
+    /**
+     * Gets the value of adaptiveConcurrency
+     *
+     * @return the value of adaptiveConcurrency
+     */
+    public boolean isAdaptiveConcurrency() {
+        return this.adaptiveConcurrency;
+    }
+
+    /**
+     * When true, the number of parallel copies starts at threadCount and is adjusted while the task runs:
+     * raised while rows per second improve, and halved on connection exhaustion or batch latency spikes.
+     * Threads and both connection pools follow the same number.
+     *
+     * @param adaptiveConcurrency Value to assign to this.adaptiveConcurrency
+     * @see ConcurrencyController
+     */
+    public void setAdaptiveConcurrency(final boolean adaptiveConcurrency) {
+        this.adaptiveConcurrency = adaptiveConcurrency;
+    }
+
+    /**
+     * Gets the value of maxConcurrency
+     *
+     * @return the value of maxConcurrency
+     */
+    public int getMaxConcurrency() {
+        return this.maxConcurrency;
+    }
+
+    /**
+     * Sets the most parallel copies adaptiveConcurrency may raise to
+     *
+     * @param maxConcurrency Value to assign to this.maxConcurrency
+     */
+    public void setMaxConcurrency(final int maxConcurrency) {
+        this.maxConcurrency = maxConcurrency;
+    }
+
+    /**
+     * Gets the value of nativeTransfer
+     *
+     * @return the value of nativeTransfer
+     */
+    public boolean isNativeTransfer() {
+        return this.nativeTransfer;
+    }
+
+    /**
+     * When true and the source is an embedded H2 database and the target an embedded H2, HSQLDB or Derby
+     * database, tables without LOB or binary columns are dumped to CSV and restored with the databases' own
+     * bulk facilities instead of being copied through JDBC. The engines are picked from the driver and URL,
+     * and any other pair of databases is copied through JDBC. The files go to spoolDir, or to a temporary
+     * directory when it isn't set. Not used under consistentRead, maxRowsPerSecond or fanOutTargets, which
+     * native dumps can't honor. Defaults to true.
+     *
+     * @param nativeTransfer Value to assign to this.nativeTransfer
+     * @see NativeBulk
+     */
+    public void setNativeTransfer(final boolean nativeTransfer) {
+        this.nativeTransfer = nativeTransfer;
+    }
+
+    /**
+     * Gets the value of keyOrder
+     *
+     * @return the value of keyOrder
+     */
+    public String getKeyOrder() {
+        return this.keyOrder;
+    }
+
+    /**
+     * Load each table in primary key order, so clustered and index-organized targets append to their
+     * B-trees instead of splitting pages. <code>source</code> adds an order by to the source query.
+     * <code>sort</code> sorts rows locally, spilling sorted runs to spoolDir or a temporary directory when a
+     * table doesn't fit in the memory budget. <code>auto</code> orders on embedded H2, HSQLDB and Derby
+     * sources, which store tables in key order, and sorts locally otherwise. Not set by default.
+     *
+     * @param keyOrder Value to assign to this.keyOrder
+     * @see ExternalSort
+     */
+    public void setKeyOrder(final String keyOrder) {
+        this.keyOrder = keyOrder;
+    }
+
+    /**
+     * Gets the value of fanOutTargets
+     *
+     * @return the value of fanOutTargets
+     */
+    public String getFanOutTargets() {
+        return this.fanOutTargets;
+    }
+
+    /**
+     * Comma separated references to more targets to copy to. Each batch read from the source is written to
+     * target and to every one of these, each through its own writer and connections. Only applies in copy
+     * mode, and native transfer is not used.
+     *
+     * @param fanOutTargets Value to assign to this.fanOutTargets
+     * @see FanOut
+     */
+    public void setFanOutTargets(final String fanOutTargets) {
+        this.fanOutTargets = fanOutTargets;
+    }
+
+    /**
+     * Gets the value of fanOutBuffer
+     *
+     * @return the value of fanOutBuffer
+     */
+    public int getFanOutBuffer() {
+        return this.fanOutBuffer;
+    }
+
+    /**
+     * Batches of a table a fan-out target can fall behind by before the copy waits for it. Defaults to 4.
+     *
+     * @param fanOutBuffer Value to assign to this.fanOutBuffer
+     */
+    public void setFanOutBuffer(final int fanOutBuffer) {
+        this.fanOutBuffer = fanOutBuffer;
+    }
+
+    /**
+     * Gets the value of smallTableRows
+     *
+     * @return the value of smallTableRows
+     */
+    public int getSmallTableRows() {
+        return this.smallTableRows;
+    }
+
+    /**
+     * Tables with fewer rows than this are copied in groups, back to back on one pair of connections and in
+     * one transaction, instead of each paying for its own copy. Defaults to 100. 0 copies every table on its
+     * own.
+     *
+     * @param smallTableRows Value to assign to this.smallTableRows
+     */
+    public void setSmallTableRows(final int smallTableRows) {
+        this.smallTableRows = smallTableRows;
+    }
+
+    /**
+     * Gets the value of smallTableGroup
+     *
+     * @return the value of smallTableGroup
+     */
+    public int getSmallTableGroup() {
+        return this.smallTableGroup;
+    }
+
+    /**
+     * Sets the most small tables copied and committed together. Defaults to 50. A group is committed early
+     * once its rows pass batchBytes.
+     *
+     * @param smallTableGroup Value to assign to this.smallTableGroup
+     */
+    public void setSmallTableGroup(final int smallTableGroup) {
+        this.smallTableGroup = smallTableGroup;
+    }
+
+    /**
+     * Gets the value of gatherStatistics
+     *
+     * @return the value of gatherStatistics
+     */
+    public boolean isGatherStatistics() {
+        return this.gatherStatistics;
+    }
+
+    /**
+     * Gather optimizer statistics of every loaded table on every target, starting with each table as soon as
+     * it is committed. Supported on H2, Derby and Oracle targets.
+     *
+     * @param gatherStatistics Value to assign to this.gatherStatistics
+     */
+    public void setGatherStatistics(final boolean gatherStatistics) {
+        this.gatherStatistics = gatherStatistics;
+    }
+
+    /**
+     * Gets the value of statisticsThreads
+     *
+     * @return the value of statisticsThreads
+     */
+    public int getStatisticsThreads() {
+        return this.statisticsThreads;
+    }
+
+    /**
+     * Sets how many tables of a target are analyzed at the same time. Defaults to 2.
+     *
+     * @param statisticsThreads Value to assign to this.statisticsThreads
+     */
+    public void setStatisticsThreads(final int statisticsThreads) {
+        this.statisticsThreads = statisticsThreads;
+    }
+
+    /**
+     * Gets the value of targetProfile
+     *
+     * @return the value of targetProfile
+     */
+    public String getTargetProfile() {
+        return this.targetProfile;
+    }
+
+    /**
+     * Sets the bulk-load profile of the target: <code>h2</code>, <code>hsqldb</code>, <code>derby</code> or
+     * <code>generic</code>. When not set, it is picked from the target driver.
+     *
+     * @param targetProfile Value to assign to this.targetProfile
+     * @see TargetProfile
+     */
+    public void setTargetProfile(final String targetProfile) {
+        this.targetProfile = targetProfile;
+    }
+
+    /**
+     * Gets the value of mode
+     *
+     * @return the value of mode
+     */
+    public String getMode() {
+        return this.mode;
+    }
+
+    /**
+     * Sets what the task does. <code>copy</code> (the default) copies from source to target.
+     * <code>export</code> only reads the source and writes it to spoolDir. <code>import</code> only loads
+     * spoolDir into the target. Export and import can run on different hosts at different times.
+     *
+     * @param mode Value to assign to this.mode
+     */
+    public void setMode(final String mode) {
+        this.mode = mode;
+    }
+
+    /**
+     * Gets the value of spoolDir
+     *
+     * @return the value of spoolDir
+     */
+    public File getSpoolDir() {
+        return this.spoolDir;
+    }
+
+    /**
+     * Sets the directory spooled tables are written to and read from
+     *
+     * @param spoolDir Value to assign to this.spoolDir
+     */
+    public void setSpoolDir(final File spoolDir) {
+        this.spoolDir = spoolDir;
+    }
+
+    /**
+     * Gets the value of spoolChunkRows
+     *
+     * @return the value of spoolChunkRows
+     */
+    public int getSpoolChunkRows() {
+        return this.spoolChunkRows;
+    }
+
+    /**
+     * Sets the maximum number of rows in one spool file. Chunks of the same table are imported in parallel.
+     *
+     * @param spoolChunkRows Value to assign to this.spoolChunkRows
+     */
+    public void setSpoolChunkRows(final int spoolChunkRows) {
+        this.spoolChunkRows = spoolChunkRows;
+    }
+
+    /**
+     * Gets the value of progressInterval
+     *
+     * @return the value of progressInterval
+     */
+    public long getProgressInterval() {
+        return this.progressInterval;
+    }
+
+    /**
+     * Sets how often, in milliseconds, progress is printed
+     *
+     * @param progressInterval Value to assign to this.progressInterval
+     */
+    public void setProgressInterval(final long progressInterval) {
+        this.progressInterval = progressInterval;
+    }
+
+    /**
+     * Gets the value of reportFile
+     *
+     * @return the value of reportFile
+     */
+    public File getReportFile() {
+        return this.reportFile;
+    }
+
+    /**
+     * Sets a file to write a JSON report of the run to, with per-table row counts and the time spent
+     * counting, reading metadata, fetching, executing and committing, and the time of the final checkpoint
+     *
+     * @param reportFile Value to assign to this.reportFile
+     */
+    public void setReportFile(final File reportFile) {
+        this.reportFile = reportFile;
+    }
+
+    /**
+     * @return report of the last run, whether or not it was written to a file
+     */
+    public RunReport getReport() {
+        return this.report;
+    }
+
+    /**
+     * Gets the value of maxBufferMemory
+     *
+     * @return the value of maxBufferMemory
+     */
+    public long getMaxBufferMemory() {
+        return this.maxBufferMemory;
+    }
+
+    /**
+     * Sets the most megabytes of row data that may be read but not yet written, across all tables. Readers
+     * wait while it is used up, and batches of wide rows are shrunk to fit. Defaults to a quarter of the
+     * maximum heap.
+     *
+     * @param maxBufferMemory Value to assign to this.maxBufferMemory
+     */
+    public void setMaxBufferMemory(final long maxBufferMemory) {
+        this.maxBufferMemory = maxBufferMemory;
+    }
+
+    MemoryBudget getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * Gets the value of maxRowsPerSecond
+     *
+     * @return the value of maxRowsPerSecond
+     */
+    public long getMaxRowsPerSecond() {
+        return throttle.getRowsPerSecond();
+    }
+
+    /**
+     * Sets the most rows per second written to the target across all tables. 0, the default, is unlimited.
+     * Can also be changed over JMX while tables are copied.
+     *
+     * @param maxRowsPerSecond Value to assign to this.maxRowsPerSecond
+     */
+    public void setMaxRowsPerSecond(final long maxRowsPerSecond) {
+        throttle.setRowsPerSecond(maxRowsPerSecond);
+    }
+
+    /**
+     * Gets the value of batchSize
+     *
+     * @return the value of batchSize
+     */
+    public int getBatchSize() {
+        return this.batchSize;
+    }
+
+    /**
+     * Sets the number of rows buffered and sent to the target in one batch
+     *
+     * @param batchSize Value to assign to this.batchSize
+     */
+    public void setBatchSize(final int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Gets the value of autoBatchSize
+     *
+     * @return the value of autoBatchSize
+     */
+    public boolean isAutoBatchSize() {
+        return this.autoBatchSize;
+    }
+
+    /**
+     * When true, each table's batch size starts at the rows that fit batchBytes and is tuned toward the best
+     * rows per second while the table is written, up to 5000 rows. A batchSize set on a nested table is
+     * used as is.
+     *
+     * @param autoBatchSize Value to assign to this.autoBatchSize
+     * @see BatchSizer
+     */
+    public void setAutoBatchSize(final boolean autoBatchSize) {
+        this.autoBatchSize = autoBatchSize;
+    }
+
+    /**
+     * Gets the value of batchBytes
+     *
+     * @return the value of batchBytes
+     */
+    public long getBatchBytes() {
+        return this.batchBytes;
+    }
+
+    /**
+     * Sets the bytes of row data per batch autoBatchSize starts from
+     *
+     * @param batchBytes Value to assign to this.batchBytes
+     */
+    public void setBatchBytes(final long batchBytes) {
+        this.batchBytes = batchBytes;
+    }
+
+    /**
+     * Gets the value of foreignKeyOrdered
+     *
+     * @return the value of foreignKeyOrdered
+     */
+    public boolean isForeignKeyOrdered() {
+        return this.foreignKeyOrdered;
+    }
+
+    /**
+     * When true, tables are copied in foreign key dependency order so that data can be loaded into a target
+     * with constraints already enabled.
+     *
+     * @param foreignKeyOrdered Value to assign to this.foreignKeyOrdered
+     */
+    public void setForeignKeyOrdered(final boolean foreignKeyOrdered) {
+        this.foreignKeyOrdered = foreignKeyOrdered;
+    }
+
+    
+    /**
+     * Nested <code>&lt;table&gt;</code> element with a column projection and/or where clause for one table
+     */
+    public TableConfig createTable() {
+        final TableConfig retval = new TableConfig();
+        tableConfigs.add(retval);
+        return retval;
+    }
+
+    /**
+     * Nested <code>&lt;schema&gt;</code> element mapping a source schema to a target schema. Tables of every
+     * mapped schema share one run, one set of connection pools and one report.
+     */
+    public SchemaMapping createSchema() {
+        final SchemaMapping retval = new SchemaMapping();
+        schemaMappings.add(retval);
+        return retval;
+    }
+
+    /**
+     * Nested <code>&lt;tableSet&gt;</code> limiting which tables are copied
+     */
+    public void addTableSet(final TableSet tableSet) {
+        this.tableSet = tableSet;
+    }
+
+    public TableSet getTableSet() {
+        return this.tableSet;
+    }
+
+    ExecutorService getExecutor() {
+        return executor;
+    }
+
+    ConnectionPool getSourcePool() {
+        return sourcePool;
+    }
+
+    ConnectionPool getTargetPool() {
+        return targetPool;
+    }
+
+    Throttle getThrottle() {
+        return throttle;
+    }
+
+    /**
+     * @return settings for a table, or null when it is copied whole
+     */
+    protected TableConfig getTableConfig(final String tableName) {
+        for (final TableConfig config : tableConfigs) {
+            if (tableName.equalsIgnoreCase(config.getName())) {
+                return config;
+            }
+        }
+        if (isQualified(tableName)) {
+            // Settings by table name alone apply in every schema
+            for (final TableConfig config : tableConfigs) {
+                if (getBaseName(tableName).equalsIgnoreCase(config.getName())) {
+                    return config;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Whether a table is named <code>SCHEMA.TABLE</code> because schemas are mapped
+     */
+    private boolean isQualified(final String tableName) {
+        return !schemaMappings.isEmpty() && tableName.indexOf('.') > 0;
+    }
+
+    /**
+     * @return the table name without its schema
+     */
+    private String getBaseName(final String tableName) {
+        return isQualified(tableName) ? tableName.substring(tableName.indexOf('.') + 1) : tableName;
+    }
+
+    /**
+     * @return the schema a table is read from
+     */
+    private String getSourceSchema(final RdbmsConfig source, final String tableName) {
+        return isQualified(tableName) ? tableName.substring(0, tableName.indexOf('.')) : source.getSchema();
+    }
+
+    /**
+     * @return the schema a table is written to
+     */
+    private String getTargetSchema(final RdbmsConfig target, final String tableName) {
+        final SchemaMapping mapping = getSchemaMapping(tableName);
+        return mapping == null ? target.getSchema() : mapping.getTarget();
+    }
+
+    /**
+     * Name of a table on the target, qualified with its target schema when schemas are mapped
+     */
+    protected String getTargetTableName(final String tableName) {
+        final SchemaMapping mapping = getSchemaMapping(tableName);
+        return mapping == null ? tableName : mapping.getTarget() + "." + getBaseName(tableName);
+    }
+
+    private SchemaMapping getSchemaMapping(final String tableName) {
+        if (!isQualified(tableName)) {
+            return null;
+        }
+        final String schema = tableName.substring(0, tableName.indexOf('.'));
+        for (final SchemaMapping mapping : schemaMappings) {
+            if (schema.equalsIgnoreCase(mapping.getSource())) {
+                return mapping;
+            }
+        }
+        return null;
+    }
+
+    public void setSource(String refid) {
+        this.source = refid;
+    }
+    
+    public String getSource() {
+        return this.source;
+    }
+
+    public void setTarget(String refid) {
+        this.target = refid;
+    }
+
+    public String getTarget() {
+        return this.target;
+    }
+    
+    public void execute() {
+        if (getKeyOrder() != null
+            && !Arrays.asList(KEY_ORDER_SOURCE, KEY_ORDER_SORT, KEY_ORDER_AUTO).contains(getKeyOrder().toLowerCase())) {
+            throw new BuildException("keyOrder must be one of source, sort or auto");
+        }
+        report = new RunReport("migrateData");
+        batchSizers.clear();
+        memoryBudget = new MemoryBudget(getMaxBufferMemory() > 0 ? getMaxBufferMemory() * 1024 * 1024 : MemoryBudget.getDefaultLimit());
+        report.put("source", getSource())
+            .put("target", getTarget())
+            .put("mode", getMode() == null ? "copy" : getMode().toLowerCase());
+        if (!schemaMappings.isEmpty()) {
+            final StringBuilder schemas = new StringBuilder();
+            for (final SchemaMapping mapping : schemaMappings) {
+                schemas.append(schemas.length() > 0 ? ", " : "").append(mapping.getSource()).append(" -> ").append(mapping.getTarget());
+            }
+            log("Migrating schemas " + schemas);
+            report.put("schemas", schemas.toString());
+        }
+
+        try {
+            if (MODE_EXPORT.equalsIgnoreCase(getMode())) {
+                exportTables((RdbmsConfig) getProject().getReference(getSource()));
+            }
+            else if (MODE_IMPORT.equalsIgnoreCase(getMode())) {
+                importTables((RdbmsConfig) getProject().getReference(getTarget()));
+            }
+            else {
+                copyTables((RdbmsConfig) getProject().getReference(getSource()),
+                           (RdbmsConfig) getProject().getReference(getTarget()));
+            }
+            report.put("status", "success");
+        }
+        catch (RuntimeException e) {
+            report.put("status", "failed").put("error", String.valueOf(e.getMessage()));
+            throw e;
+        }
+        finally {
+            writeReport();
+        }
+    }
+
+    /**
+     * Copy every table straight from source to target
+     */
+    protected void copyTables(final RdbmsConfig source, final RdbmsConfig target) {
+        log("Migrating data from " + source.getUrl() + " to " + target.getUrl());
+
+        final MigrationProgress progress = new MigrationProgress();
+        final boolean streaming = isStreaming();
+        Map<String, Long> tableData = null;
+        List<List<String>> waves = null;
+        if (!streaming) {
+            report.startStage("discovery");
+            tableData = getTableData(source, target, progress);
+            report.endStage("discovery");
+
+            log("Copying " + tableData.size() + " tables");
+            waves = getWaves(source, tableData.keySet());
+        }
+
+        final ProgressRenderer renderer = new ProgressRenderer(progress);
+        final MigrationMonitor monitor = new MigrationMonitor(this, progress);
+        monitor.register();
+
+        snapshot   = null;
+        sourcePool = null;
+        profile    = null;
+        targetPool = null;
+        executor   = null;
+        ranges     = new KeyRangeScheduler();
+        extraTargets.clear();
+
+        boolean completed = false;
+        skippedTables = 0;
+        smallGroups   = 0;
+        report.startStage("copy");
+        try {
+            // Set up inside the try so a failure part way still restores whatever target was already begun
+            snapshot   = openSnapshot(source);
+            sourcePool = createSourcePool(source);
+            profile    = beginLoad(target);
+            targetPool = createTargetPool(target);
+            executor   = createExecutor();
+            openFanOut();
+            openNative(source, target);
+            openStatistics(target);
+            startController(progress, monitor);
+
+            if (streaming) {
+                final List<Future<?>> futures = new ArrayList<Future<?>>();
+                final List<String> small = new ArrayList<String>();
+                streamTables(source, target, progress, futures, new TableHandler() {
+                        public void found(final String tableName, final long rowCount) {
+                            if (isSkipped(tableName, rowCount, progress)) {
+                                return;
+                            }
+                            if (isSmallTable(rowCount)) {
+                                small.add(tableName);
+                                if (small.size() >= getSmallTableGroup()) {
+                                    futures.add(executor.submit(createSmallCopy(source, new ArrayList<String>(small), progress)));
+                                    small.clear();
+                                }
+                                return;
+                            }
+                            debug("Migrating table " + tableName + " with " + rowCount + " records");
+                            futures.add(executor.submit(createCopy(source, target, tableName, progress)));
+                        }
+                    });
+                if (!small.isEmpty()) {
+                    futures.add(executor.submit(createSmallCopy(source, small, progress)));
+                }
+                awaitAll(futures);
+            }
+            else {
+                for (final List<String> wave : waves) {
+                    final List<Runnable> copies = new ArrayList<Runnable>();
+                    final List<String> small = new ArrayList<String>();
+                    for (final String tableName : wave) {
+                        final long rowCount = tableData.get(tableName);
+                        if (isSkipped(tableName, rowCount, progress)) {
+                            continue;
+                        }
+                        if (isSmallTable(rowCount)) {
+                            small.add(tableName);
+                            continue;
+                        }
+                        debug("Migrating table " + tableName + " with " + rowCount + " records");
+                        copies.add(createCopy(source, target, tableName, progress));
+                    }
+
+                    // Large tables go first, small groups fill in behind them
+                    final int group = Math.max(1, getSmallTableGroup());
+                    for (int i = 0; i < small.size(); i += group) {
+                        copies.add(createSmallCopy(source, small.subList(i, Math.min(small.size(), i + group)), progress));
+                    }
+
+                    // A wave has to be fully loaded before the tables depending on it are started
+                    runAll(executor, copies);
+                }
+            }
+            completed = true;
+        }
+        finally {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+            renderer.stop();
+            monitor.unregister();
+            stopController();
+            if (sourcePool != null) {
+                sourcePool.close();
+            }
+            if (targetPool != null) {
+                targetPool.close();
+            }
+            closeFanOut();
+            if (snapshot != null) {
+                snapshot.close();
+                snapshot = null;
+            }
+            report.endStage("copy");
+            if (ranges.getSplits() > 0) {
+                log("Split " + ranges.getSplits() + " key ranges off running tables");
+            }
+            report.put("keyRangeSplits", ranges.getSplits());
+            if (skippedTables > 0 || smallGroups > 0) {
+                log("Skipped " + skippedTables + " empty tables, copied small tables in " + smallGroups + " groups");
+            }
+            report.getSection("smallTables")
+                .put("emptySkipped", skippedTables)
+                .put("groups", smallGroups);
+            closeNative();
+            try {
+                closeStatistics(completed);
+                summarize(progress);
+            }
+            finally {
+                finishLoad(target, completed);
+            }
+        }
+    }
+
+    /**
+     * Export half of a spooled copy. Every table is read from the source and written to chunked spool files
+     * in parallel.
+     */
+    protected void exportTables(final RdbmsConfig source) {
+        final File spoolDir = getRequiredSpoolDir();
+        log("Spooling data from " + source.getUrl() + " to " + spoolDir);
+
+        final MigrationProgress progress = new MigrationProgress();
+        final boolean streaming = isStreaming();
+        Map<String, Long> tableData = null;
+        if (!streaming) {
+            report.startStage("discovery");
+            tableData = getTableData(source, null, progress);
+            report.endStage("discovery");
+
+            log("Exporting " + tableData.size() + " tables");
+        }
+
+        final ProgressRenderer renderer = new ProgressRenderer(progress);
+        final MigrationMonitor monitor = new MigrationMonitor(this, progress);
+        monitor.register();
+        snapshot   = openSnapshot(source);
+        sourcePool = createSourcePool(source);
+        executor   = createExecutor();
+
+        startController(progress, monitor);
+        report.startStage("export");
+        try {
+            if (streaming) {
+                final List<Future<?>> futures = new ArrayList<Future<?>>();
+                streamTables(source, null, progress, futures, new TableHandler() {
+                        public void found(final String tableName, final long rowCount) {
+                            futures.add(executor.submit(new Runnable() {
+                                    public void run() {
+                                        export(spoolDir, tableName, progress);
+                                    }
+                                }));
+                        }
+                    });
+                awaitAll(futures);
+                return;
+            }
+
+            final List<Runnable> exports = new ArrayList<Runnable>();
+            for (final String tableName : tableData.keySet()) {
+                exports.add(new Runnable() {
+                        public void run() {
+                            export(spoolDir, tableName, progress);
+                        }
+                    });
+            }
+            runAll(executor, exports);
+        }
+        finally {
+            executor.shutdownNow();
+            renderer.stop();
+            monitor.unregister();
+            stopController();
+            sourcePool.close();
+            if (snapshot != null) {
+                snapshot.close();
+                snapshot = null;
+            }
+            report.endStage("export");
+            summarize(progress);
+        }
+    }
+
+    /**
+     * Import half of a spooled copy. Every chunk in spoolDir is loaded into the target in parallel. Nothing is
+     * loaded unless every table's export completed.
+     */
+    protected void importTables(final RdbmsConfig target) {
+        final File spoolDir = getRequiredSpoolDir();
+        log("Loading spooled data from " + spoolDir + " to " + target.getUrl());
+
+        final MigrationProgress progress = new MigrationProgress();
+        report.startStage("discovery");
+        final SpoolFile[] spooled;
+        try {
+            spooled = SpoolFile.list(spoolDir);
+        }
+        catch (IOException e) {
+            throw new BuildException("Cannot import from " + spoolDir + ": " + e.getMessage(), e);
+        }
+
+        final Map<String, List<SpoolFile>> chunks = new LinkedHashMap<String, List<SpoolFile>>();
+        for (final SpoolFile chunk : spooled) {
+            if (!chunks.containsKey(chunk.getTableName())) {
+                chunks.put(chunk.getTableName(), new ArrayList<SpoolFile>());
+            }
+            chunks.get(chunk.getTableName()).add(chunk);
+            progress.expect(chunk.getTableName(), chunk.getRowCount());
+        }
+
+        report.endStage("discovery");
+        log("Importing " + chunks.size() + " tables");
+
+        final ProgressRenderer renderer = new ProgressRenderer(progress);
+        final MigrationMonitor monitor = new MigrationMonitor(this, progress);
+        monitor.register();
+        profile    = null;
+        targetPool = null;
+        executor   = null;
+        extraTargets.clear();
+
+        boolean completed = false;
+        report.startStage("import");
+        try {
+            final List<List<String>> waves = getTargetWaves(target, chunks.keySet());
+            profile    = beginLoad(target);
+            targetPool = createTargetPool(target);
+            executor   = createExecutor();
+            openStatistics(target);
+            startController(progress, monitor);
+
+            for (final List<String> wave : waves) {
+                final List<Runnable> imports = new ArrayList<Runnable>();
+                for (final String tableName : wave) {
+                    for (final SpoolFile chunk : chunks.get(tableName)) {
+                        imports.add(new Runnable() {
+                                public void run() {
+                                    importChunk(chunk, progress);
+                                }
+                            });
+                    }
+                }
+                runAll(executor, imports);
+            }
+            completed = true;
+        }
+        finally {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+            renderer.stop();
+            monitor.unregister();
+            stopController();
+            if (targetPool != null) {
+                targetPool.close();
+            }
+            report.endStage("import");
+            try {
+                closeStatistics(completed);
+                summarize(progress);
+            }
+            finally {
+                finishLoad(target, completed);
+            }
+        }
+    }
+
+    /**
+     * Add totals and per-table counters and phase timings to the report
+     */
+    protected void summarize(final MigrationProgress progress) {
+        report.put("rowsExpected", progress.getExpected())
+            .put("rows", progress.getCopied())
+            .put("bytes", progress.getBytes())
+            .put("rejected", progress.getRejected())
+            .put("errors", progress.getErrors())
+            .put("retries", progress.getRetries())
+            .put("rowsPerSecond", progress.getRowsPerSecond())
+            .put("smoothedRowsPerSecond", progress.getThroughput().getRowsPerSecond())
+            .put("smoothedBytesPerSecond", progress.getThroughput().getBytesPerSecond())
+            .put("remainingSeconds", progress.getRemainingSeconds());
+        report.getSection("batchLatencyMicros")
+            .put("count", progress.getBatchLatency().getCount())
+            .put("mean", progress.getBatchLatency().getMeanMicros())
+            .put("p50", progress.getBatchLatency().getPercentileMicros(50))
+            .put("p99", progress.getBatchLatency().getPercentileMicros(99));
+        report.getSection("commitLatencyMicros")
+            .put("count", progress.getCommitLatency().getCount())
+            .put("mean", progress.getCommitLatency().getMeanMicros())
+            .put("p50", progress.getCommitLatency().getPercentileMicros(50))
+            .put("p99", progress.getCommitLatency().getPercentileMicros(99));
+
+        final List<MigrationProgress.TableProgress> tables = new ArrayList<MigrationProgress.TableProgress>(progress.getTables());
+        Collections.sort(tables, new Comparator<MigrationProgress.TableProgress>() {
+                public int compare(final MigrationProgress.TableProgress a, final MigrationProgress.TableProgress b) {
+                    return a.getTableName().compareTo(b.getTableName());
+                }
+            });
+        for (final MigrationProgress.TableProgress table : tables) {
+            final RunReport item = report.addItem("tables")
+                .put("name", table.getTableName())
+                .put("state", table.getState())
+                .put("rowsExpected", table.getExpected())
+                .put("rows", table.getCopied())
+                .put("bytes", table.getBytes())
+                .put("rejected", table.getRejected())
+                .put("errors", table.getErrors())
+                .put("retries", table.getRetries())
+                .put("elapsedMillis", table.getElapsed())
+                .put("smoothedRowsPerSecond", table.getThroughput().getRowsPerSecond())
+                .put("smoothedBytesPerSecond", table.getThroughput().getBytesPerSecond())
+                .put("remainingSeconds", table.getRemainingSeconds());
+            final BatchSizer sizer = batchSizers.get(table.getTableName());
+            if (sizer != null) {
+                item.put("batchSize", sizer.getBatchSize());
+            }
+            final RunReport phases = item.getSection("phaseMillis");
+            for (int phase = 0; phase < MigrationProgress.PHASES.length; phase++) {
+                phases.put(MigrationProgress.PHASES[phase], table.getTime(phase));
+            }
+        }
+
+        if (!batchSizers.isEmpty()) {
+            log("Tuned batch sizes, which can be pinned with nested tables:");
+            for (final String tableName : new TreeSet<String>(batchSizers.keySet())) {
+                final BatchSizer sizer = batchSizers.get(tableName);
+                log(String.format("    <table name=\"%s\" batchSize=\"%d\"/>%s", tableName, sizer.getBatchSize(),
+                                  sizer.isSettled() ? "" : " <!-- still tuning -->"));
+            }
+        }
+    }
+
+    private void writeReport() {
+        if (getReportFile() == null) {
+            return;
+        }
+        try {
+            report.write(getReportFile());
+            log("Wrote run report to " + getReportFile());
+        }
+        catch (Exception e) {
+            log("Could not write run report to " + getReportFile() + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Run tasks in parallel and wait for all of them to finish
+     */
+    protected void runAll(final ExecutorService executor, final List<Runnable> tasks) {
+        final List<Future<?>> futures = new ArrayList<Future<?>>();
+        for (final Runnable task : tasks) {
+            futures.add(executor.submit(task));
+        }
+        awaitAll(futures);
+    }
+
+    /**
+     * Wait for tasks that were already submitted. The first failure is rethrown.
+     */
+    protected void awaitAll(final List<Future<?>> futures) {
+        try {
+            for (final Future<?> future : futures) {
+                future.get();
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new BuildException(e);
+        }
+        catch (ExecutionException e) {
+            throw new BuildException(e.getCause());
+        }
+    }
+
+    /**
+     * @return true when tables should be copied while discovery is still running
+     */
+    private boolean isStreaming() {
+        if (!isStreamDiscovery()) {
+            return false;
+        }
+        if (isForeignKeyOrdered()) {
+            log("streamDiscovery is ignored because foreignKeyOrdered needs every table before copying starts");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Discover tables on the calling thread and hand each one to the handler as soon as it is counted. A
+     * failed copy stops discovery early instead of after the whole catalog has been walked.
+     */
+    private void streamTables(final RdbmsConfig source, final RdbmsConfig target, final MigrationProgress progress,
+                              final List<Future<?>> futures, final TableHandler handler) {
+        report.startStage("discovery");
+        progress.setDiscovering(true);
+        final int[] count = new int[1];
+        try {
+            discoverTables(source, target, progress, new TableHandler() {
+                    public void found(final String tableName, final long rowCount) {
+                        for (final Future<?> future : futures) {
+                            if (future.isDone()) {
+                                awaitAll(Collections.<Future<?>>singletonList(future));
+                            }
+                        }
+                        handler.found(tableName, rowCount);
+                        count[0]++;
+                    }
+                });
+        }
+        finally {
+            progress.setDiscovering(false);
+            report.endStage("discovery");
+        }
+        log("Discovered " + count[0] + " tables");
+    }
+
+    private File getRequiredSpoolDir() {
+        if (getSpoolDir() == null) {
+            throw new BuildException("spoolDir is required in " + getMode() + " mode");
+        }
+        return getSpoolDir();
+    }
+
+    private void startController(final MigrationProgress progress, final MigrationMonitor monitor) {
+        if (isAdaptiveConcurrency()) {
+            controller = new ConcurrencyController(this, monitor, progress, getMaxConcurrency());
+        }
+    }
+
+    private void stopController() {
+        if (controller != null) {
+            controller.stop();
+            controller = null;
+        }
+    }
+
+    /**
+     * Pick the target profile and apply its database wide bulk-load settings
+     */
+    protected TargetProfile beginLoad(final RdbmsConfig target) {
+        final TargetProfile retval = TargetProfile.getInstance(getTargetProfile() != null ? getTargetProfile() : target.getDriver());
+        log("Loading target with " + retval.describe());
+        final Connection conn = openConnection(target);
+        try {
+            retval.begin(conn);
+            conn.commit();
+        }
+        catch (Exception e) {
+            throw new BuildException(e);
+        }
+        finally {
+            try {
+                conn.close();
+            }
+            catch (Exception e) {
+            }
+        }
+        return retval;
+    }
+
+    /**
+     * Start a statistics gatherer for the target and each fan-out target
+     */
+    private void openStatistics(final RdbmsConfig target) {
+        statistics.clear();
+        if (!isGatherStatistics()) {
+            return;
+        }
+        statistics.add(new TableStatistics(this, getTarget(), target, profile, getStatisticsThreads()));
+        for (final FanOut.Target extra : extraTargets) {
+            statistics.add(new TableStatistics(this, extra.getName(), extra.getConfig(), extra.getProfile(),
+                                               getStatisticsThreads()));
+        }
+    }
+
+    /**
+     * Start gathering statistics of a table once it is loaded and committed
+     */
+    private void analyze(final String tableName) {
+        for (final TableStatistics gatherer : statistics) {
+            gatherer.analyze(getTargetTableName(tableName));
+        }
+    }
+
+    /**
+     * Wait for the statistics still being gathered. Statistics are gathered before the checkpoint so it
+     * persists them.
+     */
+    private void closeStatistics(final boolean completed) {
+        if (statistics.isEmpty()) {
+            return;
+        }
+        report.startStage("statistics");
+        try {
+            for (final TableStatistics gatherer : statistics) {
+                gatherer.finish(completed);
+            }
+        }
+        finally {
+            statistics.clear();
+            report.endStage("statistics");
+        }
+    }
+
+    /**
+     * Restore durable settings and checkpoint the target once every target connection is closed. This also
+     * runs after a failed load so the target isn't left without its log, but then a failure here is only
+     * logged so it doesn't hide the original one.
+     */
+    protected void finishLoad(final RdbmsConfig target, final boolean completed) {
+        report.startStage("checkpoint");
+        try {
+            if (profile != null) {
+                finishLoad(target, profile, completed);
+            }
+            for (final FanOut.Target extra : extraTargets) {
+                finishLoad(extra.getConfig(), extra.getProfile(), completed);
+            }
+        }
+        finally {
+            report.endStage("checkpoint");
+        }
+    }
+
+    private void finishLoad(final RdbmsConfig target, final TargetProfile targetProfile, final boolean completed) {
+        Connection conn = null;
+        try {
+            conn = openConnection(target);
+            targetProfile.finish(conn);
+            conn.commit();
+        }
+        catch (Exception e) {
+            if (completed) {
+                throw new BuildException(e);
+            }
+            log("Could not restore target settings: " + e.getMessage());
+        }
+        finally {
+            if (conn != null) {
+                try {
+                    conn.close();
+                }
+                catch (Exception e) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Create the executor tables are copied on. Virtual threads are looked up reflectively so the task still
+     * runs on JVMs older than Java 21.
+     */
+    protected ExecutorService createExecutor() {
+        if (THREAD_MODE_VIRTUAL.equalsIgnoreCase(getThreadMode())) {
+            try {
+                final Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+                debug("Copying tables on virtual threads");
+                return (ExecutorService) factory.invoke(null);
+            }
+            catch (NoSuchMethodException e) {
+                log("Virtual threads require Java 21. Using " + getThreadCount() + " platform threads instead");
+            }
+            catch (Exception e) {
+                throw new BuildException(e);
+            }
+        }
+        return Executors.newFixedThreadPool(Math.max(1, getThreadCount()));
+    }
+
+    /**
+     * Pin the point in time source readers will see when consistentRead is set
+     *
+     * @return the snapshot or null when reads don't need to be consistent
+     */
+    protected SourceSnapshot openSnapshot(final RdbmsConfig source) {
+        if (!isConsistentRead()) {
+            return null;
+        }
+
+        final SourceSnapshot retval = SourceSnapshot.getInstance(source.getDriver());
+        try {
+            retval.open(openConnection(source));
+        }
+        catch (Exception e) {
+            throw new BuildException(e);
+        }
+        log("Reading source as of " + retval.describe());
+        return retval;
+    }
+
+    /**
+     * Pool of source connections. A snapshot that has to be read through a single connection gets a pool
+     * of exactly that connection.
+     */
+    protected ConnectionPool createSourcePool(final RdbmsConfig source) {
+        if (snapshot == null || snapshot.getSharedConnection() == null) {
+            return createConnectionPool(source, getMaxSourceConnections());
+        }
+
+        log("Source reads are serialized through " + snapshot.describe());
+        return new ConnectionPool(1) {
+            protected Connection open() {
+                return snapshot.getSharedConnection();
+            }
+
+            public void resize(final int size) {
+                // there is only the one connection
+            }
+        };
+    }
+
+    /**
+     * Pool of target connections with the profile's session settings applied once when each is opened
+     */
+    protected ConnectionPool createTargetPool(final RdbmsConfig target) {
+        return createTargetPool(target, profile);
+    }
+
+    /**
+     * Connections to a target, each prepared for bulk loading by the target's profile
+     */
+    protected ConnectionPool createTargetPool(final RdbmsConfig target, final TargetProfile targetProfile) {
+        final int size = getMaxTargetConnections();
+        return new ConnectionPool(size > 0 ? size : Math.max(1, getThreadCount())) {
+            protected Connection open() {
+                final Connection retval = openConnection(target);
+                try {
+                    targetProfile.prepare(retval);
+                }
+                catch (SQLException e) {
+                    throw new BuildException(e);
+                }
+                return retval;
+            }
+        };
+    }
+
+    protected ConnectionPool createConnectionPool(final RdbmsConfig config, final int size) {
+        return new ConnectionPool(size > 0 ? size : Math.max(1, getThreadCount())) {
+            protected Connection open() {
+                return openConnection(config);
+            }
+        };
+    }
+
+    /**
+     * Partition tables into waves that are copied one after the other. Without foreign key ordering, all tables
+     * are copied in a single wave.
+     */
+    protected List<List<String>> getWaves(final RdbmsConfig config, final Set<String> tableNames) {
+        final List<List<String>> retval = new ArrayList<List<String>>();
+        if (!isForeignKeyOrdered()) {
+            retval.add(new ArrayList<String>(tableNames));
+            return retval;
+        }
+
+        debug("Reading foreign keys");
+        final TableDependencyGraph graph = new TableDependencyGraph(tableNames);
+        Connection conn = openConnection(config);
+        try {
+            if (schemaMappings.isEmpty()) {
+                graph.load(conn.getMetaData(), conn.getCatalog(), config.getSchema());
+            }
+            else {
+                graph.load(conn.getMetaData(), conn.getCatalog());
+            }
+        }
+        catch (Exception e) {
+            throw new BuildException(e);
+        }
+        finally {
+            try {
+                conn.close();
+            }
+            catch (Exception e) {
+            }
+        }
+
+        for (final Set<String> cycle : graph.getCycles()) {
+            log("Foreign key cycle between " + cycle + ". These constraints must be deferred on the target");
+        }
+        
+        retval.addAll(graph.getWaves());
+        log("Copying tables in " + retval.size() + " foreign key ordered waves");
+        return retval;
+    }
+
+    /**
+     * Waves of source tables ordered by the foreign keys between their target tables, for loading a target
+     * the source can't be read from
+     */
+    protected List<List<String>> getTargetWaves(final RdbmsConfig target, final Set<String> tableNames) {
+        final Map<String, String> sourceNames = new LinkedHashMap<String, String>();
+        for (final String tableName : tableNames) {
+            sourceNames.put(getTargetTableName(tableName), tableName);
+        }
+
+        final List<List<String>> retval = new ArrayList<List<String>>();
+        for (final List<String> wave : getWaves(target, sourceNames.keySet())) {
+            final List<String> sourceWave = new ArrayList<String>();
+            for (final String tableName : wave) {
+                sourceWave.add(sourceNames.get(tableName));
+            }
+            retval.add(sourceWave);
+        }
+        return retval;
+    }
+
+    /**
+     * Copy a table, then keep stealing key ranges from running tables for as long as no other table is
+     * waiting for a thread
+     */
+    private Runnable createCopy(final RdbmsConfig source, final RdbmsConfig target, final String tableName, final MigrationProgress progress) {
+        return new Runnable() {
+            public void run() {
+                migrate(source, target, tableName, progress);
+
+                KeyRange range;
+                while (isIdle() && (range = ranges.steal()) != null) {
+                    debug("Taking over " + range);
+                    migrate(source, target, range.getTableName(), range, progress);
+                }
+            }
+        };
+    }
+
+    /**
+     * Whether a table can be left out because it has no rows. Under a snapshot the count was taken before the
+     * snapshot, so an empty table is still read.
+     */
+    private boolean isSkipped(final String tableName, final long rowCount, final MigrationProgress progress) {
+        if (rowCount > 0 || snapshot != null) {
+            return false;
+        }
+        debug("Skipping empty table " + tableName);
+        progress.getTable(tableName).finish();
+        skippedTables++;
+        return true;
+    }
+
+    private boolean isSmallTable(final long rowCount) {
+        return rowCount < getSmallTableRows();
+    }
+
+    private Runnable createSmallCopy(final RdbmsConfig source, final List<String> tableNames, final MigrationProgress progress) {
+        debug("Migrating small tables " + tableNames);
+        smallGroups++;
+        return new Runnable() {
+            public void run() {
+                migrateSmall(source, tableNames, progress);
+            }
+        };
+    }
+
+    /**
+     * @return true when no task is waiting for a thread
+     */
+    private boolean isIdle() {
+        return !(executor instanceof ThreadPoolExecutor) || ((ThreadPoolExecutor) executor).getQueue().isEmpty();
+    }
+
+    protected void migrate(final RdbmsConfig source, 
+                           final RdbmsConfig target, 
+                           final String tableName, 
+                           final MigrationProgress progress) {
+        if (!nativeCopy(source, tableName, progress)) {
+            migrate(source, target, tableName, null, progress);
+        }
+    }
+
+    /**
+     * Prepare every fan-out target for loading
+     */
+    private void openFanOut() {
+        extraTargets.clear();
+        if (getFanOutTargets() == null) {
+            return;
+        }
+        for (final String name : getFanOutTargets().split(",")) {
+            if (name.trim().length() < 1) {
+                continue;
+            }
+            final RdbmsConfig config = (RdbmsConfig) getProject().getReference(name.trim());
+            if (config == null) {
+                throw new BuildException("No target database " + name.trim());
+            }
+            final TargetProfile targetProfile = beginLoad(config);
+            final ConnectionPool pool;
+            try {
+                pool = createTargetPool(config, targetProfile);
+            }
+            catch (RuntimeException e) {
+                finishLoad(config, targetProfile, false);
+                throw e;
+            }
+            extraTargets.add(new FanOut.Target(name.trim(), config, targetProfile, pool));
+            log("Also copying to " + config.getUrl());
+        }
+        if (!extraTargets.isEmpty()) {
+            writers = Executors.newCachedThreadPool(new ThreadFactory() {
+                    public Thread newThread(final Runnable runnable) {
+                        final Thread retval = new Thread(runnable, "Migration Writer");
+                        retval.setDaemon(true);
+                        return retval;
+                    }
+                });
+        }
+    }
+
+    /**
+     * Close the fan-out connections and add what each target received to the report
+     */
+    private void closeFanOut() {
+        if (writers != null) {
+            writers.shutdownNow();
+            writers = null;
+        }
+        for (final FanOut.Target extra : extraTargets) {
+            extra.getPool().close();
+            log(String.format("%s: %d rows, %d tables failed, waited %dms", extra.getName(), extra.getRows(),
+                              extra.getFailedTables(), extra.getStalledMillis()));
+            report.getSection("fanOut").getSection(extra.getName())
+                .put("rows", extra.getRows())
+                .put("failedTables", extra.getFailedTables())
+                .put("stalledMillis", extra.getStalledMillis());
+        }
+    }
+
+    /**
+     * Use native dump and restore when both ends support it. Fan-out targets need the rows themselves, and a
+     * dump is neither read through the snapshot nor throttled.
+     */
+    private void openNative(final RdbmsConfig source, final RdbmsConfig target) {
+        if (!isNativeTransfer() || !extraTargets.isEmpty()) {
+            return;
+        }
+        if (snapshot != null || getMaxRowsPerSecond() > 0) {
+            debug("nativeTransfer is not used under consistentRead or maxRowsPerSecond");
+            return;
+        }
+        nativeSource = NativeBulk.getDumper(source);
+        nativeTarget = NativeBulk.getInstance(target);
+        if (nativeSource == null || nativeTarget == null) {
+            nativeSource = null;
+            nativeTarget = null;
+            return;
+        }
+
+        try {
+            if (getSpoolDir() != null) {
+                nativeDir = new File(getSpoolDir(), SpoolFile.WORK_PREFIX + "native");
+            }
+            else {
+                nativeDir = File.createTempFile("lbcopy", "");
+                nativeDir.delete();
+            }
+            nativeDir.mkdirs();
+        }
+        catch (Exception e) {
+            throw new BuildException(e);
+        }
+        log("Copying tables with " + nativeSource.describe() + " and " + nativeTarget.describe() + " through " + nativeDir);
+    }
+
+    private void closeNative() {
+        if (nativeDir != null) {
+            nativeDir.delete();
+            nativeDir = null;
+        }
+        nativeSource = null;
+        nativeTarget = null;
+    }
+
+    /**
+     * Copy a table by dumping it to a file with the source's own bulk facility and restoring it with the
+     * target's
+     *
+     * @return false when the table has to be copied through JDBC instead
+     */
+    protected boolean nativeCopy(final RdbmsConfig source, final String tableName, final MigrationProgress progress) {
+        if (nativeSource == null || nativeTarget == null) {
+            return false;
+        }
+
+        final MigrationProgress.TableProgress tableProgress = progress.getTable(tableName);
+        final long metadataStarted = System.nanoTime();
+        final Map<String, Integer> columns;
+        final Connection targetDb = acquire(targetPool);
+        try {
+            columns = getColumnMap(targetDb, tableName);
+            applyProjection(tableName, columns);
+        }
+        catch (RuntimeException e) {
+            targetPool.discard(targetDb);
+            throw e;
+        }
+        if (columns.size() < 1 || !NativeBulk.isSupported(columns.values())) {
+            targetPool.release(targetDb);
+            return false;
+        }
+
+        final Connection sourceDb;
+        try {
+            sourceDb = acquire(sourcePool);
+        }
+        catch (RuntimeException e) {
+            targetPool.release(targetDb);
+            throw e;
+        }
+
+        tableProgress.start();
+        tableProgress.time(MigrationProgress.PHASE_METADATA, System.nanoTime() - metadataStarted);
+        final CopyEvents.TableCopy event = new CopyEvents.TableCopy();
+        event.begin();
+        final File file = new File(nativeDir, tableName + ".csv");
+        boolean completed = false;
+        try {
+            file.delete();
+
+            // Embedded sources store tables in key order, so ordering the dump is cheap
+            final List<String> orderKeys = getKeyOrder() != null ? getOrderKeys(sourceDb, source, tableName, columns) : null;
+            final long dumpStarted = System.nanoTime();
+            final long dumped = nativeSource.dump(sourceDb, getSelectQuery(tableName, tableName, columns.keySet(), null, orderKeys),
+                                                  columns.keySet(), file);
+            tableProgress.time(MigrationProgress.PHASE_FETCH, System.nanoTime() - dumpStarted);
+
+            final long restoreStarted = System.nanoTime();
+            final long restored = nativeTarget.restore(targetDb, getTargetTableName(tableName), columns.keySet(), file);
+            tableProgress.recordBatch(System.nanoTime() - restoreStarted);
+            tableProgress.time(MigrationProgress.PHASE_EXECUTE, System.nanoTime() - restoreStarted);
+            commit(targetDb, tableName, tableProgress);
+
+            tableProgress.add(restored, file.length());
+            if (restored < dumped) {
+                tableProgress.reject(dumped - restored);
+            }
+            tableProgress.finish();
+            analyze(tableName);
+            completed = true;
+        }
+        catch (Exception e) {
+            tableProgress.fail();
+            throw new BuildException(e);
+        }
+        finally {
+            file.delete();
+            sourcePool.release(sourceDb);
+            if (completed) {
+                targetPool.release(targetDb);
+            }
+            else {
+                targetPool.discard(targetDb);
+            }
+
+            event.end();
+            if (event.shouldCommit()) {
+                event.table     = tableName;
+                event.operation = "native copy";
+                event.rows      = tableProgress.getCopied();
+                event.rejected  = tableProgress.getRejected();
+                event.commit();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Copy a table, or only a key range of it
+     *
+     * @param range keys to copy, or null for the whole table. When null and splitTables is set, the table is
+     *        copied as a single range other threads can split.
+     */
+    protected void migrate(final RdbmsConfig source, 
+                           final RdbmsConfig target, 
+                           final String tableName, 
+                           KeyRange range,
+                           final MigrationProgress progress) {
+        final MigrationProgress.TableProgress tableProgress = progress.getTable(tableName);
+        final Connection sourceDb = acquire(sourcePool);
+        final Connection targetDb;
+        final Map<String, Integer> columns;
+        try {
+            targetDb = acquire(targetPool);
+        }
+        catch (RuntimeException e) {
+            sourcePool.release(sourceDb);
+            throw e;
+        }
+
+        final long metadataStarted = System.nanoTime();
+        try {
+            columns = getColumnMap(targetDb, tableName);
+            applyProjection(tableName, columns);
+        }
+        catch (RuntimeException e) {
+            sourcePool.release(sourceDb);
+            targetPool.discard(targetDb);
+            throw e;
+        }
+
+        if (columns.size() < 1) {
+            log("Columns are empty for " + tableName);
+            sourcePool.release(sourceDb);
+            targetPool.release(targetDb);
+            tableProgress.finish();
+            return;
+        }
+
+        tableProgress.start();
+        final CopyEvents.TableCopy event = new CopyEvents.TableCopy();
+        event.begin();
+
+        PreparedStatement toStatement = prepareStatement(targetDb, tableName, columns);
+        Statement fromStatement = null;
+        tableProgress.time(MigrationProgress.PHASE_METADATA, System.nanoTime() - metadataStarted);
+
+        final boolean hasClob = columns.values().contains(Types.CLOB);
+        int recordsLost = 0;
+        FanOut fanOut = null;
+        boolean copied = false;
+        
+        try {
+            if (range == null && isSplitTables() && ranges != null) {
+                range = openKeyRange(sourceDb, source, tableName, columns, tableProgress);
+            }
+
+            // Fan-out copies batches, so LOBs are buffered too
+            final boolean buffered = !extraTargets.isEmpty() || RowBuffer.isBufferable(getColumnTypes(columns));
+
+            // Key ranges are read in key order already
+            List<String> orderKeys = null;
+            boolean sorted = false;
+            if (range == null && getKeyOrder() != null) {
+                orderKeys = getOrderKeys(sourceDb, source, tableName, columns);
+                sorted = orderKeys != null && !isSourceOrdered(source) && buffered;
+            }
+
+            if (!extraTargets.isEmpty()) {
+                fanOut = new FanOut(this, extraTargets, writers, tableName, columns, getFanOutBuffer());
+            }
+
+            fromStatement = sourceDb.createStatement();
+            fromStatement.setFetchSize(Math.max(1, getBatchSize()));
+
+            final long selectStarted = System.nanoTime();
+            final ResultSet results = executeSelect(sourceDb, fromStatement, tableName, columns.keySet(), range,
+                                                    sorted ? null : orderKeys);
+            tableProgress.time(MigrationProgress.PHASE_FETCH, System.nanoTime() - selectStarted);
+            if (sorted) {
+                recordsLost += sortedTransfer(results, toStatement, tableName, columns, orderKeys, fanOut, tableProgress);
+            }
+            else if (buffered) {
+                recordsLost += transfer(results, toStatement, tableName, columns, range, fanOut, tableProgress);
+            }
+            else {
+                long fetchStarted = System.nanoTime();
+                while (results.next()) {
+                    if (range != null && !range.claim(results.getLong(range.getColumn()))) {
+                        break;
+                    }
+                    long rowBytes = 0;
+                    try {
+                        toStatement.clearParameters();
+                    
+                        int i = 1;
+                        for (String columnName : columns.keySet()) {
+                            final Object value = results.getObject(columnName);
+                            rowBytes += RowBuffer.sizeOf(value);
+                        
+                            if (value != null) {
+                                try {
+                                    handleLob(toStatement, value, i);
+                                }
+                                catch (Exception e) {
+                                    System.err.println(String.format("Error processing %s.%s %s", tableName, columnName, columns.get(columnName)));
+                                    if (Clob.class.isAssignableFrom(value.getClass())) {
+                                        System.err.println("Got exception trying to insert CLOB with length" + ((Clob) value).length());
+                                    }
+                                    e.printStackTrace();
+                                }
+                            }
+                            else {
+                                toStatement.setObject(i,value);
+                            } 
+                            i++;
+                        }
+                    
+                        tableProgress.time(MigrationProgress.PHASE_FETCH, System.nanoTime() - fetchStarted);
+                        throttle.acquire(1);
+                        boolean retry = true;
+                        int retry_count = 0;
+                        while(retry) {
+                            final long started = System.nanoTime();
+                            try {
+                                toStatement.execute();
+                                tableProgress.recordBatch(System.nanoTime() - started);
+                                tableProgress.time(MigrationProgress.PHASE_EXECUTE, System.nanoTime() - started);
+                                retry = false;
+                            }
+                            catch (SQLException sqle) {
+                                retry = false;
+                                if (sqle.getMessage().contains("ORA-00942")) {
+                                    log("Couldn't find " + tableName);
+                                    log("Tried insert statement " + getStatementBuffer(tableName, columns));
+                                    // sqle.printStackTrace();
+                                }
+                                else if (sqle.getMessage().contains("ORA-12519")) {
+                                    retry = true;
+                                    log("Tried insert statement " + getStatementBuffer(tableName, columns));
+                                    sqle.printStackTrace();
+                                }
+                                else if (sqle.getMessage().contains("IN or OUT")) {
+                                    log("Column count was " + columns.keySet().size());
+                                }
+                                else if (sqle.getMessage().contains("Error reading")) {
+                                    if (retry_count > 5) {
+                                        log("Tried insert statement " + getStatementBuffer(tableName, columns));
+                                        retry = false;
+                                    }
+                                    retry_count++;
+                                }
+                                else {
+                                    sqle.printStackTrace();
+                                }
+
+                                tableProgress.time(MigrationProgress.PHASE_EXECUTE, System.nanoTime() - started);
+                                if (retry) {
+                                    retried(tableName, tableProgress, sqle);
+                                }
+                                else {
+                                    tableProgress.error();
+                                    tableProgress.reject(1);
+                                }
+                            }
+                        }
+                    }
+                    catch (Exception e) {
+                        recordsLost++;
+                        tableProgress.reject(1);
+                        throw e;
+                    }
+                    finally {
+                        tableProgress.add(1, rowBytes);
+                        fetchStarted = System.nanoTime();
+                    }
+                }
+            }
+            results.close();
+            if (fanOut != null) {
+                fanOut.finish();
+            }
+            if (range != null) {
+                ranges.remove(range);
+            }
+            copied = true;
+        }
+        catch (Exception e) {
+            if (fanOut != null) {
+                fanOut.abort();
+            }
+            if (range != null) {
+                ranges.remove(range);
+            }
+            tableProgress.fail();
+            throw new BuildException(e);
+        }
+        finally {
+            if (sourceDb != null) {
+                try {
+                    fromStatement.close();
+                }
+                catch (Exception e) {
+                }
+                sourcePool.release(sourceDb);
+            }
+
+            if (targetDb != null) {
+                try {
+                    commit(targetDb, tableName, tableProgress);
+                    // A split table is done once its last range is committed
+                    if (copied && (range == null || range.release())) {
+                        tableProgress.finish();
+                        analyze(tableName);
+                    }
+                    copied = false;
+                    toStatement.close();
+                    targetPool.release(targetDb);
+                }
+                catch (Exception e) {
+                    if (copied) {
+                        tableProgress.fail();
+                    }
+                    log("Error closing database connection");
+                    e.printStackTrace();
+                    targetPool.discard(targetDb);
+                }
+            }
+            debug("Lost " +recordsLost + " records");
+            columns.clear();
+
+            event.end();
+            if (event.shouldCommit()) {
+                event.table     = tableName;
+                event.operation = range == null ? "copy" : "copy " + range;
+                event.rows      = tableProgress.getCopied();
+                event.rejected  = recordsLost;
+                event.commit();
+            }
+        }
+    }
+
+    /**
+     * Copy a group of small tables back to back on one source and one target connection, committing them
+     * together. The group is committed early whenever its uncommitted rows pass batchBytes. Tables only count
+     * as done once they are committed, and a failure rolls back every table that isn't. Rollback is turned
+     * back on for the group's connection when the target profile turned it off.
+     */
+    protected void migrateSmall(final RdbmsConfig source, final List<String> tableNames, final MigrationProgress progress) {
+        final Connection sourceDb = acquire(sourcePool);
+        final Connection targetDb;
+        try {
+            targetDb = acquire(targetPool);
+        }
+        catch (RuntimeException e) {
+            sourcePool.release(sourceDb);
+            throw e;
+        }
+
+        final List<MigrationProgress.TableProgress> uncommitted = new ArrayList<MigrationProgress.TableProgress>();
+        long uncommittedBytes = 0;
+        boolean completed = false;
+        try {
+            // Bulk-load profiles may turn rollback off, which a group relies on
+            profile.setRollback(targetDb, true);
+            for (final String tableName : tableNames) {
+                final MigrationProgress.TableProgress tableProgress = progress.getTable(tableName);
+                uncommitted.add(tableProgress);
+                migrateSmall(sourceDb, targetDb, source, tableName, tableProgress);
+                uncommittedBytes += tableProgress.getBytes();
+                if (uncommittedBytes >= getBatchBytes()) {
+                    commit(targetDb, uncommitted);
+                    uncommittedBytes = 0;
+                }
+            }
+            commit(targetDb, uncommitted);
+            profile.setRollback(targetDb, false);
+            completed = true;
+        }
+        catch (Exception e) {
+            try {
+                targetDb.rollback();
+            }
+            catch (Exception re) {
+            }
+            for (final MigrationProgress.TableProgress tableProgress : uncommitted) {
+                tableProgress.fail();
+            }
+            if (e instanceof BuildException) {
+                throw (BuildException) e;
+            }
+            throw new BuildException(e);
+        }
+        finally {
+            sourcePool.release(sourceDb);
+            if (completed) {
+                targetPool.release(targetDb);
+            }
+            else {
+                targetPool.discard(targetDb);
+            }
+        }
+    }
+
+    /**
+     * Copy one table of a small group without committing it
+     */
+    private void migrateSmall(final Connection sourceDb,
+                              final Connection targetDb,
+                              final RdbmsConfig source,
+                              final String tableName,
+                              final MigrationProgress.TableProgress tableProgress) throws Exception {
+        final long metadataStarted = System.nanoTime();
+        final Map<String, Integer> columns = getColumnMap(targetDb, tableName);
+        applyProjection(tableName, columns);
+        if (columns.size() < 1) {
+            log("Columns are empty for " + tableName);
+            return;
+        }
+
+        tableProgress.start();
+        final CopyEvents.TableCopy event = new CopyEvents.TableCopy();
+        event.begin();
+
+        final PreparedStatement toStatement = prepareStatement(targetDb, tableName, columns);
+        Statement fromStatement = null;
+        FanOut fanOut = null;
+        int recordsLost = 0;
+        try {
+            // Too few rows to be worth a local sort, the source orders them
+            final List<String> orderKeys = getKeyOrder() != null ? getOrderKeys(sourceDb, source, tableName, columns) : null;
+            if (!extraTargets.isEmpty()) {
+                fanOut = new FanOut(this, extraTargets, writers, tableName, columns, getFanOutBuffer());
+            }
+            tableProgress.time(MigrationProgress.PHASE_METADATA, System.nanoTime() - metadataStarted);
+
+            fromStatement = sourceDb.createStatement();
+            fromStatement.setFetchSize(Math.max(1, getBatchSize()));
+            final long selectStarted = System.nanoTime();
+            final ResultSet results = executeSelect(sourceDb, fromStatement, tableName, columns.keySet(), null, orderKeys);
+            tableProgress.time(MigrationProgress.PHASE_FETCH, System.nanoTime() - selectStarted);
+            recordsLost = transfer(results, toStatement, tableName, columns, null, fanOut, tableProgress);
+            results.close();
+            if (fanOut != null) {
+                fanOut.finish();
+            }
+        }
+        catch (Exception e) {
+            if (fanOut != null) {
+                fanOut.abort();
+            }
+            throw e;
+        }
+        finally {
+            for (final Statement statement : new Statement[] { fromStatement, toStatement }) {
+                if (statement != null) {
+                    try {
+                        statement.close();
+                    }
+                    catch (Exception e) {
+                    }
+                }
+            }
+            debug("Lost " + recordsLost + " records");
+
+            event.end();
+            if (event.shouldCommit()) {
+                event.table     = tableName;
+                event.operation = "small copy";
+                event.rows      = tableProgress.getCopied();
+                event.rejected  = recordsLost;
+                event.commit();
+            }
+        }
+    }
+
+    /**
+     * Commit the tables of a small group copied so far and mark them done
+     */
+    private void commit(final Connection targetDb, final List<MigrationProgress.TableProgress> tables) throws SQLException {
+        if (tables.isEmpty()) {
+            return;
+        }
+        final MigrationProgress.TableProgress last = tables.get(tables.size() - 1);
+        commit(targetDb, last.getTableName(), last);
+        for (final MigrationProgress.TableProgress tableProgress : tables) {
+            tableProgress.finish();
+            analyze(tableProgress.getTableName());
+        }
+        tables.clear();
+    }
+
+    /**
+     * Read a table from the source, as of the snapshot when consistentRead is set
+     */
+    private ResultSet executeSelect(final Connection sourceDb, 
+                                    final Statement fromStatement, 
+                                    final String tableName,
+                                    final Collection<String> columns,
+                                    final KeyRange range,
+                                    final List<String> orderBy) throws SQLException {
+        String tableReference = tableName;
+        if (snapshot != null) {
+            snapshot.prepare(sourceDb);
+            tableReference = snapshot.getTableReference(tableName);
+        }
+        return fromStatement.executeQuery(getSelectQuery(tableName, tableReference, columns, range, orderBy));
+    }
+
+    /**
+     * Source query for a table. Only the given columns are selected and any where clause configured for
+     * the table is pushed down.
+     *
+     * @param columns columns to select, or null to select the configured projection or every column
+     */
+    protected String getSelectQuery(final String tableName, final String tableReference, final Collection<String> columns) {
+        return getSelectQuery(tableName, tableReference, columns, null, null);
+    }
+
+    /**
+     * Source query for a table, or for a key range of it in key order
+     *
+     * @param range keys to read, or null for the whole table
+     * @param orderBy columns to order a whole table by, or null to read it in whatever order the source likes
+     */
+    protected String getSelectQuery(final String tableName, final String tableReference, final Collection<String> columns,
+                                    final KeyRange range, final List<String> orderBy) {
+        final TableConfig config = getTableConfig(tableName);
+        String projection = "*";
+        if (columns != null && columns.size() > 0) {
+            final StringBuilder names = new StringBuilder();
+            for (final String column : columns) {
+                names.append(column).append(",");
+            }
+            names.setLength(names.length() - 1);
+            projection = names.toString();
+        }
+        else if (config != null && config.getColumnNames().size() > 0) {
+            projection = config.getColumns();
+        }
+
+        String retval = String.format(SELECT_QUERY, projection, tableReference);
+        if (config != null && config.hasWhere()) {
+            retval += " where (" + config.getWhere() + ")";
+        }
+        if (range != null) {
+            retval += (config != null && config.hasWhere() ? " and " : " where ")
+                + String.format(KEY_RANGE_CONDITION, range.getColumn(), range.getLow(), range.getColumn(), range.getHigh(), range.getColumn());
+        }
+        else if (orderBy != null && orderBy.size() > 0) {
+            final StringBuilder names = new StringBuilder();
+            for (final String column : orderBy) {
+                names.append(names.length() > 0 ? "," : "").append(column);
+            }
+            retval += " order by " + names;
+        }
+        return retval;
+    }
+
+    /**
+     * Primary key columns of a source table, most significant first
+     */
+    private List<String> getPrimaryKeys(final Connection sourceDb, final RdbmsConfig source, final String tableName) throws SQLException {
+        final Map<Integer, String> ordered = new TreeMap<Integer, String>();
+        final ResultSet keys = sourceDb.getMetaData().getPrimaryKeys(sourceDb.getCatalog(), getSourceSchema(source, tableName),
+                                                                     getBaseName(tableName));
+        while (keys.next()) {
+            ordered.put(keys.getInt("KEY_SEQ"), keys.getString("COLUMN_NAME"));
+        }
+        keys.close();
+        return new ArrayList<String>(ordered.values());
+    }
+
+    /**
+     * Columns to load a table in the order of, named as they are in the column map
+     *
+     * @return the primary key columns, or null when the table has no primary key or not all of it is copied
+     */
+    private List<String> getOrderKeys(final Connection sourceDb,
+                                      final RdbmsConfig source,
+                                      final String tableName,
+                                      final Map<String, Integer> columns) throws SQLException {
+        final List<String> keys = getPrimaryKeys(sourceDb, source, tableName);
+        if (keys.isEmpty()) {
+            return null;
+        }
+
+        final List<String> retval = new ArrayList<String>();
+        for (final String key : keys) {
+            String match = null;
+            for (final String column : columns.keySet()) {
+                if (column.equalsIgnoreCase(key)) {
+                    match = column;
+                }
+            }
+            if (match == null) {
+                return null;
+            }
+            retval.add(match);
+        }
+        return retval;
+    }
+
+    /**
+     * Whether to order a table by its key in the source query rather than by sorting it locally
+     */
+    private boolean isSourceOrdered(final RdbmsConfig source) {
+        if (KEY_ORDER_SOURCE.equalsIgnoreCase(getKeyOrder())) {
+            return true;
+        }
+        if (KEY_ORDER_SORT.equalsIgnoreCase(getKeyOrder())) {
+            return false;
+        }
+        final String driver = source.getDriver().toLowerCase();
+        return driver.contains("h2") || driver.contains("hsql") || driver.contains("derby");
+    }
+
+    /**
+     * Set up a table to be copied as a key range when it has a single integer primary key that is copied
+     *
+     * @return the range, already available to idle threads, or null when the table can't be split
+     */
+    private KeyRange openKeyRange(final Connection sourceDb,
+                                  final RdbmsConfig source,
+                                  final String tableName,
+                                  final Map<String, Integer> columns,
+                                  final MigrationProgress.TableProgress tableProgress) throws SQLException {
+        final DatabaseMetaData metadata = sourceDb.getMetaData();
+        final List<String> keys = getPrimaryKeys(sourceDb, source, tableName);
+        if (keys.size() != 1 || !columns.containsKey(keys.get(0))) {
+            return null;
+        }
+        final String column = keys.get(0);
+
+        final ResultSet keyColumn = metadata.getColumns(sourceDb.getCatalog(), getSourceSchema(source, tableName),
+                                                        getBaseName(tableName), column);
+        try {
+            if (!keyColumn.next() || !isIntegerKey(keyColumn.getInt("DATA_TYPE"), keyColumn.getInt("DECIMAL_DIGITS"))) {
+                return null;
+            }
+        }
+        finally {
+            keyColumn.close();
+        }
+
+        final String tableReference = snapshot != null ? snapshot.getTableReference(tableName) : tableName;
+        final TableConfig config = getTableConfig(tableName);
+        String query = String.format(KEY_BOUNDS_QUERY, column, column, tableReference);
+        if (config != null && config.hasWhere()) {
+            query += " where " + config.getWhere();
+        }
+        if (snapshot != null) {
+            snapshot.prepare(sourceDb);
+        }
+
+        final Statement statement = sourceDb.createStatement();
+        try {
+            final ResultSet bounds = statement.executeQuery(query);
+            bounds.next();
+            final long low  = bounds.getLong(1);
+            final boolean empty = bounds.wasNull();
+            final long high = bounds.getLong(2);
+            bounds.close();
+            if (empty) {
+                return null;
+            }
+
+            // Split no finer than a batch worth of keys, going by how densely the keys are used
+            final long keysPerRow = Math.max(1, (high - low + 1) / Math.max(1, tableProgress.getExpected()));
+            final KeyRange retval = new KeyRange(tableName, column, low, high, Math.max(1, getBatchSize()) * keysPerRow);
+            ranges.add(retval);
+            return retval;
+        }
+        finally {
+            statement.close();
+        }
+    }
+
+    private static boolean isIntegerKey(final int sqlType, final int scale) {
+        switch (sqlType) {
+        case Types.TINYINT:
+        case Types.SMALLINT:
+        case Types.INTEGER:
+        case Types.BIGINT:
+            return true;
+        case Types.NUMERIC:
+        case Types.DECIMAL:
+            return scale == 0;
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * Drop the columns a table's projection leaves out
+     */
+    private void applyProjection(final String tableName, final Map<String, Integer> columns) {
+        final TableConfig config = getTableConfig(tableName);
+        if (config == null || config.getColumnNames().size() < 1) {
+            return;
+        }
+
+        final Collection<String> projected = new ArrayList<String>();
+        for (final String column : config.getColumnNames()) {
+            projected.add(column.toUpperCase());
+        }
+        for (final Iterator<String> it = columns.keySet().iterator(); it.hasNext();) {
+            if (!projected.contains(it.next().toUpperCase())) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Write one table to spool files of at most spoolChunkRows rows each
+     */
+    protected void export(final File spoolDir, final String tableName, final MigrationProgress progress) {
+        final MigrationProgress.TableProgress tableProgress = progress.getTable(tableName);
+        final Connection sourceDb = acquire(sourcePool);
+        final RowBuffer buffer = rowBuffers.get();
+        Statement fromStatement = null;
+        SpoolFile.Writer writer = null;
+
+        final File[] stale = new File(spoolDir, tableName).listFiles();
+        if (stale != null) {
+            for (final File file : stale) {
+                file.delete();
+            }
+        }
+
+        tableProgress.start();
+        final CopyEvents.TableCopy event = new CopyEvents.TableCopy();
+        CopyEvents.ChunkFlush chunkEvent = null;
+        event.begin();
+        try {
+            fromStatement = sourceDb.createStatement();
+            fromStatement.setFetchSize(Math.max(1, getBatchSize()));
+
+            final long selectStarted = System.nanoTime();
+            final ResultSet results = executeSelect(sourceDb, fromStatement, tableName, null, null, null);
+            tableProgress.time(MigrationProgress.PHASE_FETCH, System.nanoTime() - selectStarted);
+            final ResultSetMetaData metadata = results.getMetaData();
+            final String[] columnNames = new String[metadata.getColumnCount()];
+            final int[] columnTypes = new int[columnNames.length];
+            for (int i = 0; i < columnNames.length; i++) {
+                columnNames[i] = metadata.getColumnName(i + 1);
+                columnTypes[i] = metadata.getColumnType(i + 1);
+            }
+            buffer.configure(results, columnNames, columnTypes, Math.max(1, getBatchSize()));
+            final BatchSizer sizer = new BatchSizer(Math.max(1, getBatchSize()));
+
+            int sequence = 0;
+            long spooled = 0;
+            while (true) {
+                long reserved = reserve(buffer, sizer);
+                try {
+                    final long fetchStarted = System.nanoTime();
+                    final int count = buffer.fill(results);
+                    if (count < 1) {
+                        break;
+                    }
+                    reserved = memoryBudget.resize(reserved, buffer.measure());
+                    final long writeStarted = System.nanoTime();
+                    tableProgress.time(MigrationProgress.PHASE_FETCH, writeStarted - fetchStarted);
+                    for (int row = 0; row < count; row++) {
+                        if (writer == null) {
+                            chunkEvent = new CopyEvents.ChunkFlush();
+                            chunkEvent.begin();
+                            writer = new SpoolFile.Writer(spoolDir, tableName, sequence++, columnNames, 
+                                                          buffer.getSqlTypes(), buffer.getKinds());
+                        }
+                        writer.write(buffer, row);
+                        if (writer.getRowCount() >= getSpoolChunkRows()) {
+                            commit(chunkEvent, tableName, writer.close(), writer.getRowCount());
+                            spooled += writer.getRowCount();
+                            writer = null;
+                        }
+                    }
+                    tableProgress.add(count, buffer.getByteCount());
+                    tableProgress.time(MigrationProgress.PHASE_EXECUTE, System.nanoTime() - writeStarted);
+                }
+                finally {
+                    memoryBudget.release(reserved);
+                }
+            }
+            if (writer != null) {
+                commit(chunkEvent, tableName, writer.close(), writer.getRowCount());
+                spooled += writer.getRowCount();
+            }
+            results.close();
+            SpoolFile.complete(spoolDir, tableName, spooled);
+            tableProgress.finish();
+        }
+        catch (Exception e) {
+            tableProgress.fail();
+            throw new BuildException(e);
+        }
+        finally {
+            buffer.clear();
+            try {
+                if (fromStatement != null) {
+                    fromStatement.close();
+                }
+            }
+            catch (Exception e) {
+            }
+            sourcePool.release(sourceDb);
+
+            event.end();
+            if (event.shouldCommit()) {
+                event.table     = tableName;
+                event.operation = "export";
+                event.rows      = tableProgress.getCopied();
+                event.commit();
+            }
+        }
+    }
+
+    /**
+     * Load one spool file into the target. Spooled columns are matched to the target's regardless of case,
+     * and columns that no longer exist on the target are skipped.
+     */
+    protected void importChunk(final SpoolFile chunk, final MigrationProgress progress) {
+        final String tableName = chunk.getTableName();
+        final MigrationProgress.TableProgress tableProgress = progress.getTable(tableName);
+        final Connection targetDb = acquire(targetPool);
+        final RowBuffer buffer = rowBuffers.get();
+        SpoolFile.Reader reader = null;
+        PreparedStatement toStatement = null;
+        boolean completed = false;
+        int recordsLost = 0;
+
+        tableProgress.start();
+        final CopyEvents.ChunkFlush event = new CopyEvents.ChunkFlush();
+        event.begin();
+        try {
+            final long metadataStarted = System.nanoTime();
+            reader = chunk.open();
+            final Map<String, Integer> targetColumns = getColumnMap(targetDb, tableName);
+            final Map<String, String> targetNames = new HashMap<String, String>();
+            for (final String targetColumn : targetColumns.keySet()) {
+                targetNames.put(targetColumn.toUpperCase(), targetColumn);
+            }
+            final Map<String, Integer> columns = new LinkedHashMap<String, Integer>();
+            final String[] columnNames = reader.getColumnNames();
+            buffer.configure(reader.getSqlTypes(), reader.getKinds(), getBatchCapacity(tableName));
+            final BatchSizer sizer = getBatchSizer(tableName, buffer.getRowBytes());
+            for (int c = 0; c < columnNames.length; c++) {
+                final String targetColumn = targetNames.get(columnNames[c].toUpperCase());
+                if (targetColumn != null && !columns.containsKey(targetColumn)) {
+                    columns.put(targetColumn, targetColumns.get(targetColumn));
+                    buffer.setParameterIndex(c, columns.size());
+                }
+                else {
+                    buffer.setParameterIndex(c, 0);
+                }
+            }
+            if (columns.isEmpty()) {
+                throw new BuildException("No spooled column of " + tableName + " exists on the target");
+            }
+            
+            toStatement = prepareStatement(targetDb, tableName, columns);
+            tableProgress.time(MigrationProgress.PHASE_METADATA, System.nanoTime() - metadataStarted);
+            while (true) {
+                long reserved = reserve(buffer, sizer);
+                try {
+                    final long fetchStarted = System.nanoTime();
+                    final int count = reader.read(buffer);
+                    if (count < 1) {
+                        break;
+                    }
+                    reserved = memoryBudget.resize(reserved, buffer.measure());
+                    tableProgress.time(MigrationProgress.PHASE_FETCH, System.nanoTime() - fetchStarted);
+                    throttle.acquire(count);
+                    final long flushStarted = System.nanoTime();
+                    final int lost = flush(buffer, toStatement, tableName, columns, tableProgress);
+                    if (lost > 0) {
+                        recordsLost += lost;
+                        tableProgress.reject(lost);
+                    }
+                    sizer.record(count, System.nanoTime() - flushStarted);
+                    tableProgress.add(count, buffer.getByteCount());
+                }
+                finally {
+                    memoryBudget.release(reserved);
+                }
+            }
+            commit(targetDb, tableName, tableProgress);
+            completed = true;
+            if (tableProgress.getCopied() >= tableProgress.getExpected()) {
+                tableProgress.finish();
+                analyze(tableName);
+            }
+        }
+        catch (Exception e) {
+            tableProgress.fail();
+            throw new BuildException(e);
+        }
+        finally {
+            buffer.clear();
+            try {
+                if (reader != null) {
+                    reader.close();
+                }
+                if (toStatement != null) {
+                    toStatement.close();
+                }
+            }
+            catch (Exception e) {
+            }
+
+            if (completed) {
+                targetPool.release(targetDb);
+            }
+            else {
+                targetPool.discard(targetDb);
             }
+            debug("Lost " + recordsLost + " records from " + chunk.getFile());
+            commit(event, tableName, chunk.getFile(), chunk.getRowCount() - recordsLost);
         }
-        catch (InterruptedException e) {
-        }
+    }
+
+    /**
+     * Copy rows through a reusable per-worker {@link RowBuffer}, sending them to the target in batches.
+     *
+     * @return number of records lost
+     */
+    protected int transfer(final ResultSet results,
+                           final PreparedStatement toStatement,
+                           final String tableName,
+                           final Map<String, Integer> columns,
+                           final KeyRange range,
+                           final FanOut fanOut,
+                           final MigrationProgress.TableProgress tableProgress) throws SQLException, InterruptedException {
+        final String[] columnNames = columns.keySet().toArray(new String[columns.size()]);
+        final RowBuffer buffer = rowBuffers.get();
+        buffer.configure(results, columnNames, getColumnTypes(columns), getBatchCapacity(tableName));
+        final BatchSizer sizer = getBatchSizer(tableName, buffer.getRowBytes());
+        final int keyColumn = range == null ? -1 : Arrays.asList(columnNames).indexOf(range.getColumn());
 
+        int recordsLost = 0;
         try {
-            final Connection targetDb = openConnection(target);
-            if (targetDb.getMetaData().getDriverName().toLowerCase().contains("hsqldb")) {
-                Statement st = targetDb.createStatement();
-                st.execute("CHECKPOINT"); 
-                st.close();
+            while (true) {
+                long reserved = reserve(buffer, sizer);
+                try {
+                    final long fetchStarted = System.nanoTime();
+                    final int filled = buffer.fill(results);
+                    if (filled < 1) {
+                        break;
+                    }
+
+                    // Rows past the end of the range belong to whoever split it off
+                    final int count = range == null ? filled : range.claim(buffer, keyColumn);
+                    if (count < 1) {
+                        break;
+                    }
+                    buffer.truncate(count);
+                    reserved = memoryBudget.resize(reserved, buffer.measure());
+                    tableProgress.time(MigrationProgress.PHASE_FETCH, System.nanoTime() - fetchStarted);
+                    throttle.acquire(count);
+                    if (fanOut != null) {
+                        fanOut.write(buffer);
+                    }
+                    final long flushStarted = System.nanoTime();
+                    final int lost = flush(buffer, toStatement, tableName, columns, tableProgress);
+                    if (lost > 0) {
+                        recordsLost += lost;
+                        tableProgress.reject(lost);
+                    }
+                    sizer.record(count, System.nanoTime() - flushStarted);
+                    tableProgress.add(count, buffer.getByteCount());
+                    if (count < filled) {
+                        break;
+                    }
+                }
+                finally {
+                    memoryBudget.release(reserved);
+                }
             }
-            targetDb.close();
         }
-        catch (Exception e) {
-            throw new BuildException(e);
+        finally {
+            buffer.clear();
         }
+        return recordsLost;
     }
 
-    protected void migrate(final RdbmsConfig source, 
-                           final RdbmsConfig target, 
-                           final String tableName, 
-                           final ProgressObservable observable) {
-        final Connection sourceDb = openConnection(source);
-        final Connection targetDb = openConnection(target);
-        source.setConnection(sourceDb);
-        target.setConnection(targetDb);
-        final Map<String, Integer> columns = getColumnMap(source, target, tableName);
-
-        if (columns.size() < 1) {
-            log("Columns are empty for " + tableName);
-            return;
+    /**
+     * Copy rows in key order by sorting them locally. Runs are as large as a worker's share of the memory
+     * budget, so a table that doesn't fit is spilled to sorted runs that are merged while the target is
+     * loaded. A table that never spills keeps its run reserved and is loaded without reserving more, since
+     * a sorter must never wait on the budget while it holds part of it.
+     *
+     * @param keys columns to sort by
+     * @return number of records lost
+     */
+    protected int sortedTransfer(final ResultSet results,
+                                 final PreparedStatement toStatement,
+                                 final String tableName,
+                                 final Map<String, Integer> columns,
+                                 final List<String> keys,
+                                 final FanOut fanOut,
+                                 final MigrationProgress.TableProgress tableProgress) throws SQLException, InterruptedException, IOException {
+        final String[] columnNames = columns.keySet().toArray(new String[columns.size()]);
+        final int[] keyColumns = new int[keys.size()];
+        for (int k = 0; k < keyColumns.length; k++) {
+            keyColumns[k] = Arrays.asList(columnNames).indexOf(keys.get(k));
         }
 
-        PreparedStatement toStatement = prepareStatement(targetDb, tableName, columns);
-        Statement fromStatement = null;
+        final RowBuffer run = new RowBuffer();
+        run.configure(results, columnNames, getColumnTypes(columns), 1);
+        final long rowLimit = Math.max(1, tableProgress.getExpected() + 1);
+        final int runRows = memoryBudget.getBatchLimit(run.getRowBytes(), (int) Math.min(Integer.MAX_VALUE, rowLimit), getWorkerCount());
+        run.configure(results, columnNames, getColumnTypes(columns), runRows);
 
-        final boolean hasClob = columns.values().contains(Types.CLOB);
+        final File directory = getSortDir();
+        final ExternalSort sort = new ExternalSort(directory, tableName, columnNames, keyColumns);
+        final RowBuffer buffer = rowBuffers.get();
+        long runReserved = memoryBudget.acquire(runRows * run.getRowBytes());
         int recordsLost = 0;
-        
         try {
-            fromStatement = sourceDb.createStatement();
+            final long fetchStarted = System.nanoTime();
+            while (true) {
+                final int filled = run.fill(results);
+                final boolean last = filled < run.getCapacity();
+                if (filled > 0) {
+                    sort.add(run, last);
+                }
+                if (last) {
+                    break;
+                }
+            }
+            if (sort.getSpilled() > 0) {
+                // Runs are on disk, only the merge buffers are left in memory
+                memoryBudget.release(runReserved);
+                runReserved = 0;
+                debug("Spilled " + tableName + " to " + sort.getSpilled() + " sorted runs");
+            }
+            tableProgress.time(MigrationProgress.PHASE_FETCH, System.nanoTime() - fetchStarted);
 
-            final ResultSet results = fromStatement.executeQuery(String.format(SELECT_ALL_QUERY, tableName));
-            while (results.next()) {
+            buffer.configure(run.getSqlTypes(), run.getKinds(), getBatchCapacity(tableName));
+            final BatchSizer sizer = getBatchSizer(tableName, run.getRowBytes());
+            while (true) {
+                long reserved = 0;
+                if (runReserved > 0) {
+                    // Rows are copied from the run, which is already charged. Waiting on the budget while
+                    // holding it could wait on this task's own reservation.
+                    limit(buffer, sizer);
+                }
+                else {
+                    reserved = reserve(buffer, sizer);
+                }
                 try {
-                    toStatement.clearParameters();
-                    
-                    int i = 1;
-                    for (String columnName : columns.keySet()) {
-                        final Object value = results.getObject(columnName);
-                        
-                        if (value != null) {
-                            try {
-                                handleLob(toStatement, value, i);
-                            }
-                            catch (Exception e) {
-                                System.err.println(String.format("Error processing %s.%s %s", tableName, columnName, columns.get(columnName)));
-                                if (Clob.class.isAssignableFrom(value.getClass())) {
-                                    System.err.println("Got exception trying to insert CLOB with length" + ((Clob) value).length());
-                                }
-                                e.printStackTrace();
-                            }
-                        }
-                        else {
-                            toStatement.setObject(i,value);
-                        } 
-                        i++;
+                    final int count = sort.read(buffer);
+                    if (count < 1) {
+                        break;
                     }
-                    
-                    boolean retry = true;
-                    int retry_count = 0;
-                    while(retry) {
-                        try {
-                            toStatement.execute();
-                            retry = false;
-                        }
-                        catch (SQLException sqle) {
-                            retry = false;
-                            if (sqle.getMessage().contains("ORA-00942")) {
-                                log("Couldn't find " + tableName);
-                                log("Tried insert statement " + getStatementBuffer(tableName, columns));
-                                // sqle.printStackTrace();
-                            }
-                            else if (sqle.getMessage().contains("ORA-12519")) {
-                                retry = true;
-                                log("Tried insert statement " + getStatementBuffer(tableName, columns));
-                                sqle.printStackTrace();
-                            }
-                            else if (sqle.getMessage().contains("IN or OUT")) {
-                                log("Column count was " + columns.keySet().size());
-                            }
-                            else if (sqle.getMessage().contains("Error reading")) {
-                                if (retry_count > 5) {
-                                    log("Tried insert statement " + getStatementBuffer(tableName, columns));
-                                    retry = false;
-                                }
-                                retry_count++;
-                            }
-                            else {
-                                sqle.printStackTrace();
-                            }
-                        }
+                    reserved = memoryBudget.resize(reserved, buffer.measure());
+                    throttle.acquire(count);
+                    if (fanOut != null) {
+                        fanOut.write(buffer);
                     }
-                }
-                catch (Exception e) {
-                    recordsLost++;
-                    throw e;
+                    final long flushStarted = System.nanoTime();
+                    final int lost = flush(buffer, toStatement, tableName, columns, tableProgress);
+                    if (lost > 0) {
+                        recordsLost += lost;
+                        tableProgress.reject(lost);
+                    }
+                    sizer.record(count, System.nanoTime() - flushStarted);
+                    tableProgress.add(count, buffer.getByteCount());
                 }
                 finally {
-                    observable.incrementRecord();
+                    memoryBudget.release(reserved);
                 }
             }
-            results.close();
-        }
-        catch (Exception e) {
-            throw new BuildException(e);
         }
         finally {
-            if (sourceDb != null) {
-                try {
-                    if (sourceDb.getMetaData().getDriverName().toLowerCase().contains("hsqldb")) {
-                        Statement st = sourceDb.createStatement();
-                        st.execute("CHECKPOINT"); 
-                        st.close();
+            sort.close();
+            directory.delete();
+            run.clear();
+            buffer.clear();
+            memoryBudget.release(runReserved);
+        }
+        return recordsLost;
+    }
+
+    /**
+     * Directory sorted runs are spilled to: spoolDir/.sort, or a new temporary directory
+     */
+    private File getSortDir() throws IOException {
+        if (getSpoolDir() != null) {
+            return new File(getSpoolDir(), SpoolFile.WORK_PREFIX + "sort");
+        }
+        final File retval = File.createTempFile("lbcopy-sort", "");
+        retval.delete();
+        return retval;
+    }
+
+    /**
+     * Reserve room in the memory budget for the next batch. The batch is shrunk first when rows are too
+     * wide for every worker to hold a full batch at once.
+     *
+     * @return the amount reserved
+     */
+    private long reserve(final RowBuffer buffer, final BatchSizer sizer) throws InterruptedException {
+        limit(buffer, sizer);
+        return memoryBudget.acquire(buffer.getCapacity() * buffer.getRowBytes());
+    }
+
+    /**
+     * Shrink the next batch so every worker can hold a full batch at once, without reserving it
+     */
+    private void limit(final RowBuffer buffer, final BatchSizer sizer) {
+        buffer.setLimit(sizer.getBatchSize(memoryBudget.getBatchLimit(buffer.getRowBytes(), Integer.MAX_VALUE, getWorkerCount())));
+    }
+
+    /**
+     * @return the most rows a batch of a table can hold
+     */
+    private int getBatchCapacity(final String tableName) {
+        final TableConfig config = getTableConfig(tableName);
+        if (config != null && config.getBatchSize() > 0) {
+            return config.getBatchSize();
+        }
+        return isAutoBatchSize() ? Math.max(MAX_AUTO_BATCH_SIZE, getBatchSize()) : Math.max(1, getBatchSize());
+    }
+
+    /**
+     * Batch size of a table. A tuned size is shared by every thread writing the table.
+     *
+     * @param rowBytes estimated size of one row, to start a tuned size from
+     */
+    private BatchSizer getBatchSizer(final String tableName, final long rowBytes) {
+        final TableConfig config = getTableConfig(tableName);
+        if (config != null && config.getBatchSize() > 0) {
+            return new BatchSizer(config.getBatchSize());
+        }
+        if (!isAutoBatchSize()) {
+            return new BatchSizer(Math.max(1, getBatchSize()));
+        }
+
+        final BatchSizer created = new BatchSizer(rowBytes, getBatchBytes(), getBatchCapacity(tableName));
+        final BatchSizer retval  = batchSizers.putIfAbsent(tableName, created);
+        return retval == null ? created : retval;
+    }
+
+    /**
+     * @return the most batches that can be in memory at once
+     */
+    private int getWorkerCount() {
+        int retval = Math.max(1, getThreadCount());
+        if (sourcePool != null) {
+            retval = Math.max(retval, sourcePool.getSize());
+        }
+        if (targetPool != null) {
+            retval = Math.max(retval, targetPool.getSize());
+        }
+        return retval * FanOut.getBatches(extraTargets.size(), getFanOutBuffer());
+    }
+
+    /**
+     * Send buffered rows to the target as a single batch. When the batch fails, the update counts tell which
+     * rows the driver already applied. A transient failure resends only the rows after those. Any other
+     * failure inserts the remaining rows one at a time, so only rows that fail themselves are lost.
+     *
+     * @return number of rows that could not be written
+     */
+    private int flush(final RowBuffer buffer,
+                      final PreparedStatement toStatement,
+                      final String tableName,
+                      final Map<String, Integer> columns,
+                      final MigrationProgress.TableProgress tableProgress) throws SQLException {
+        int retry_count = 0;
+        int first = 0;
+        while (true) {
+            final CopyEvents.BatchFlush event = new CopyEvents.BatchFlush();
+            event.begin();
+            final long bindStarted = System.nanoTime();
+            for (int row = first; row < buffer.size(); row++) {
+                buffer.bind(toStatement, row);
+                toStatement.addBatch();
+            }
+
+            final long started = System.nanoTime();
+            try {
+                toStatement.executeBatch();
+                final long finished = System.nanoTime();
+                tableProgress.recordBatch(finished - started);
+                tableProgress.time(MigrationProgress.PHASE_EXECUTE, finished - bindStarted);
+                commit(event, tableName, buffer, true);
+                return 0;
+            }
+            catch (SQLException sqle) {
+                toStatement.clearBatch();
+                tableProgress.time(MigrationProgress.PHASE_EXECUTE, System.nanoTime() - bindStarted);
+                commit(event, tableName, buffer, false);
+
+                final int[] counts = sqle instanceof BatchUpdateException ? ((BatchUpdateException) sqle).getUpdateCounts() : null;
+                if (counts != null && counts.length >= buffer.size() - first) {
+                    // The driver went on past the failure, so only rows marked failed are left
+                    final List<Integer> failed = new ArrayList<Integer>();
+                    for (int i = 0; i < counts.length; i++) {
+                        if (counts[i] == Statement.EXECUTE_FAILED) {
+                            failed.add(first + i);
+                        }
                     }
-                    fromStatement.close();
-                    sourceDb.close();
+                    return flushRows(buffer, failed, toStatement, tableName, columns, tableProgress);
                 }
-                catch (Exception e) {
+                if (counts != null) {
+                    // The driver stopped at the failing row. The rows before it are applied.
+                    first += counts.length;
+                }
+
+                if (sqle.getMessage().contains("ORA-12519")
+                    || (sqle.getMessage().contains("Error reading") && retry_count < 5)) {
+                    retry_count++;
+                    retried(tableName, tableProgress, sqle);
+                    continue;
                 }
+
+                log("Batch insert into " + tableName + " failed, inserting its rows one at a time: " + sqle.getMessage());
+                final List<Integer> remaining = new ArrayList<Integer>();
+                for (int row = first; row < buffer.size(); row++) {
+                    remaining.add(row);
+                }
+                return flushRows(buffer, remaining, toStatement, tableName, columns, tableProgress);
             }
+        }
+    }
 
-            if (targetDb != null) {
+    /**
+     * Insert buffered rows one at a time
+     *
+     * @return number of rows that could not be written
+     */
+    private int flushRows(final RowBuffer buffer,
+                          final List<Integer> rows,
+                          final PreparedStatement toStatement,
+                          final String tableName,
+                          final Map<String, Integer> columns,
+                          final MigrationProgress.TableProgress tableProgress) throws SQLException {
+        int retval = 0;
+        for (final int row : rows) {
+            int retry_count = 0;
+            while (true) {
+                final long started = System.nanoTime();
                 try {
-                    targetDb.commit();
-                    if (targetDb.getMetaData().getDriverName().toLowerCase().contains("hsql")) {
-                        Statement st = targetDb.createStatement();
-                        st.execute("CHECKPOINT"); 
-                        st.close();
-                    }
-                    toStatement.close();
-                    targetDb.close();
+                    toStatement.clearParameters();
+                    buffer.bind(toStatement, row);
+                    toStatement.executeUpdate();
+                    tableProgress.time(MigrationProgress.PHASE_EXECUTE, System.nanoTime() - started);
+                    break;
                 }
-                catch (Exception e) {
-                    log("Error closing database connection");
-                    e.printStackTrace();
+                catch (SQLException sqle) {
+                    tableProgress.time(MigrationProgress.PHASE_EXECUTE, System.nanoTime() - started);
+                    if (sqle.getMessage().contains("ORA-12519")
+                        || (sqle.getMessage().contains("Error reading") && retry_count < 5)) {
+                        retry_count++;
+                        retried(tableName, tableProgress, sqle);
+                        continue;
+                    }
+                    log("Tried insert statement " + getStatementBuffer(tableName, columns));
+                    log("Could not insert row " + row + " of a batch into " + tableName + ": " + sqle.getMessage());
+                    tableProgress.error();
+                    retval++;
+                    break;
                 }
             }
-            debug("Lost " +recordsLost + " records");
-            columns.clear();
+        }
+        return retval;
+    }
+
+    /**
+     * Commit a table's rows on the target, timing the commit
+     */
+    private void commit(final Connection targetDb,
+                        final String tableName,
+                        final MigrationProgress.TableProgress tableProgress) throws SQLException {
+        final CopyEvents.Commit event = new CopyEvents.Commit();
+        event.begin();
+        final long started = System.nanoTime();
+        targetDb.commit();
+        tableProgress.recordCommit(System.nanoTime() - started);
+        event.end();
+        if (event.shouldCommit()) {
+            event.table = tableName;
+            event.commit();
+        }
+    }
+
+    private void commit(final CopyEvents.BatchFlush event, final String tableName, final RowBuffer buffer, final boolean written) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.table   = tableName;
+            event.rows    = buffer.size();
+            event.bytes   = buffer.getByteCount();
+            event.written = written;
+            event.commit();
+        }
+    }
+
+    private void commit(final CopyEvents.ChunkFlush event, final String tableName, final File file, final long rows) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.table = tableName;
+            event.file  = file.getPath();
+            event.rows  = rows;
+            event.commit();
         }
     }
 
+    private void retried(final String tableName, final MigrationProgress.TableProgress tableProgress, final SQLException cause) {
+        tableProgress.retry();
+        if (cause.getMessage().contains("ORA-12519")) {
+            congested();
+        }
+        final CopyEvents.Retry event = new CopyEvents.Retry();
+        if (event.shouldCommit()) {
+            event.table  = tableName;
+            event.reason = cause.getMessage();
+            event.commit();
+        }
+    }
+
+    private int[] getColumnTypes(final Map<String, Integer> columns) {
+        final int[] retval = new int[columns.size()];
+        int i = 0;
+        for (final Integer type : columns.values()) {
+            retval[i++] = type;
+        }
+        return retval;
+    }
+
     protected void handleLob(final PreparedStatement toStatement, final Object value, final int i) throws SQLException {
         if (Clob.class.isAssignableFrom(value.getClass())) {
             toStatement.setAsciiStream(i, ((Clob) value).getAsciiStream(), ((Clob) value).length());
@@ -324,20 +3197,21 @@ public class MigrateData extends Task {
 
         names.setLength(names.length() - 1);
         values.setLength(values.length() - 1);
-        retval = String.format(INSERT_STATEMENT, tableName, names, values);
+        retval = String.format(INSERT_STATEMENT, getTargetTableName(tableName), names, values);
         
 
         return retval;
     }
 
     protected boolean isValidTable(final DatabaseMetaData metadata, final String tableName) {
-        return !(tableName.startsWith("BIN$") || tableName.toUpperCase().startsWith(LIQUIBASE_TABLE) || isSequence(metadata, tableName));
+        final String baseName = getBaseName(tableName);
+        return !(baseName.startsWith("BIN$") || baseName.toUpperCase().startsWith(LIQUIBASE_TABLE) || isSequence(metadata, tableName));
     }
 
     protected boolean isSequence(final DatabaseMetaData metadata, final String tableName) {
         final RdbmsConfig source = (RdbmsConfig) getProject().getReference(getSource());
         try {
-            final ResultSet rs = metadata.getColumns(null, source.getSchema(), tableName, null);
+            final ResultSet rs = metadata.getColumns(null, getSourceSchema(source, tableName), getBaseName(tableName), null);
             int columnCount = 0;
             boolean hasId = false;
             while (rs.next()) {
@@ -355,88 +3229,150 @@ public class MigrateData extends Task {
     }
 
     /**
-     * Get a list of table names available mapped to row counts
+     * Names of the source tables to consider copying. These come from the nested table set when there is one.
+     * With schema mappings, the tables of every mapped source schema are named <code>SCHEMA.TABLE</code>.
+     */
+    protected Collection<String> getTableNames(final Connection sourceConn, final RdbmsConfig source) throws SQLException {
+        if (schemaMappings.isEmpty()) {
+            return getTableNames(sourceConn, source.getSchema());
+        }
+
+        final Collection<String> retval = new ArrayList<String>();
+        for (final SchemaMapping mapping : schemaMappings) {
+            for (final String tableName : getTableNames(sourceConn, mapping.getSource())) {
+                retval.add(mapping.getSource() + "." + tableName);
+            }
+        }
+        return retval;
+    }
+
+    private Collection<String> getTableNames(final Connection sourceConn, final String schema) throws SQLException {
+        if (tableSet != null) {
+            return tableSet.resolve(getProject(), sourceConn, schema);
+        }
+
+        final Collection<String> retval = new ArrayList<String>();
+        final ResultSet tableResults = sourceConn.getMetaData().getTables(sourceConn.getCatalog(), schema, null, new String[] { "TABLE" });
+        while (tableResults.next()) {
+            retval.add(tableResults.getString("TABLE_NAME"));
+        }
+        tableResults.close();
+        return retval;
+    }
+
+    /**
+     * Get a list of table names available mapped to row counts. Tables missing from the target are left out
+     * unless target is null.
+     */
+    protected Map<String, Long> getTableData(RdbmsConfig source, RdbmsConfig target, MigrationProgress progress) {
+        final Map<String, Long> retval = new HashMap<String, Long>();
+        discoverTables(source, target, progress, new TableHandler() {
+                public void found(final String tableName, final long rowCount) {
+                    retval.put(tableName, rowCount);
+                }
+            });
+        return retval;
+    }
+
+    /**
+     * Receives tables from {@link #discoverTables} as they are found
+     */
+    protected interface TableHandler {
+        void found(String tableName, long rowCount);
+    }
+
+    /**
+     * Walk the source catalog and count every valid table. Each table is added to the progress totals and
+     * handed over as soon as it has been counted, so callers can start on it while the rest are still being
+     * discovered. Tables missing from the target are left out unless target is null.
      */
-    protected Map<String, Integer> getTableData(RdbmsConfig source, RdbmsConfig target, Incrementor incrementor) {
+    protected void discoverTables(final RdbmsConfig source, final RdbmsConfig target, final MigrationProgress progress, final TableHandler handler) {
         Connection sourceConn = openConnection(source);
-        Connection targetConn = openConnection(target);
-        final Map<String, Integer> retval = new HashMap<String, Integer>();
-        final Collection<String> toRemove = new ArrayList<String>();
+        Connection targetConn = target == null ? null : openConnection(target);
 
         debug("Looking up table names");
         try {
             final DatabaseMetaData metadata = sourceConn.getMetaData();
-            final ResultSet tableResults = metadata.getTables(sourceConn.getCatalog(), source.getSchema(), null, new String[] { "TABLE" });
+            final Map<String, Set<String>> targetTables = new HashMap<String, Set<String>>();
             
-            while (tableResults.next()) {
-                final String tableName = tableResults.getString("TABLE_NAME");
+            for (final String tableName : getTableNames(sourceConn, source)) {
                 if (!isValidTable(metadata, tableName)) {
                     continue;
                 }
-                if (tableName.toUpperCase().startsWith(LIQUIBASE_TABLE)) continue;
-                final int rowCount = getTableRecordCount(sourceConn, tableName);
-                if (rowCount < 1) { // no point in going through tables with no data
-                    
+                if (getBaseName(tableName).toUpperCase().startsWith(LIQUIBASE_TABLE)) continue;
+                if (targetConn != null && !isTargetTable(targetConn, target, tableName, targetTables)) {
+                    log("Removing " + tableName);
+                    continue;
                 }
-                incrementor.increment(rowCount);
+                final long started = System.nanoTime();
+                final long rowCount = getTableRecordCount(sourceConn, tableName);
+                final long countTime = System.nanoTime() - started;
                 debug("Adding table " + tableName);
-                retval.put(tableName, rowCount);
+                progress.expect(tableName, rowCount);
+                progress.getTable(tableName).time(MigrationProgress.PHASE_COUNT, countTime);
+                handler.found(tableName, rowCount);
             }
-            tableResults.close();
+        }
+        catch (BuildException e) {
+            throw e;
         }
         catch (Exception e) {
             throw new BuildException(e);
         }
         finally {
-            if (sourceConn != null) {
-                try {
-                    sourceConn.close();
-                    sourceConn = null;
-                }
-                catch (Exception e) {
+            for (final Connection conn : new Connection[] { sourceConn, targetConn }) {
+                if (conn != null) {
+                    try {
+                        conn.close();
+                    }
+                    catch (Exception e) {
+                    }
                 }
             }
         }
+    }
 
-        try {
-            for (String tableName : retval.keySet()) {
-                final ResultSet tableResults = targetConn.getMetaData().getTables(targetConn.getCatalog(), target.getSchema(), null, new String[] { "TABLE" });
-                if (!tableResults.next()) {
-                    log("Removing " + tableName);
-                    toRemove.add(tableName);
-                }
-                tableResults.close();
-            }
+    /**
+     * Whether the target has a table, ignoring case since the target may fold identifiers differently than
+     * the source. The tables of each target schema are listed once.
+     *
+     * @param targetTables upper case table names of the target schemas listed so far
+     */
+    private boolean isTargetTable(final Connection targetConn, final RdbmsConfig target, final String tableName,
+                                  final Map<String, Set<String>> targetTables) throws SQLException {
+        final DatabaseMetaData metadata = targetConn.getMetaData();
+        String schema = getTargetSchema(target, tableName);
+        if (schema != null && metadata.storesLowerCaseIdentifiers()) {
+            schema = schema.toLowerCase();
         }
-        catch (Exception e) {
-            throw new BuildException(e);
+        else if (schema != null && metadata.storesUpperCaseIdentifiers()) {
+            schema = schema.toUpperCase();
         }
-        finally {
-            if (targetConn != null) {
-                try {
-                    targetConn.close();
-                    targetConn = null;
-                }
-                catch (Exception e) {
+
+        Set<String> names = targetTables.get(schema);
+        if (names == null) {
+            names = new HashSet<String>();
+            final ResultSet tableResults = metadata.getTables(targetConn.getCatalog(), schema, null, new String[] { "TABLE" });
+            try {
+                while (tableResults.next()) {
+                    names.add(tableResults.getString("TABLE_NAME").toUpperCase());
                 }
             }
+            finally {
+                tableResults.close();
+            }
+            targetTables.put(schema, names);
         }
-
-        for (String tableName : toRemove) {
-            retval.remove(tableName);
-        }
-        
-        return retval;
+        return names.contains(getBaseName(tableName).toUpperCase());
     }
 
-    private Map<String, Integer> getColumnMap(final RdbmsConfig source, final RdbmsConfig target, String tableName) {
-        final Connection targetDb = target.getConnection();
-        final Connection sourceDb = source.getConnection();
+    private Map<String, Integer> getColumnMap(final Connection targetDb, String tableName) {
+        final String targetTable = getTargetTableName(tableName);
         final Map<String,Integer> retval = new HashMap<String,Integer>();
         final Collection<String> toRemove = new ArrayList<String>();
         try {
             final Statement state = targetDb.createStatement();                
-            final ResultSet altResults = state.executeQuery("select * from " + tableName + " where 1 = 0");
+            final ResultSet altResults = state.executeQuery("select * from " + targetTable + " where 1 = 0");
             final ResultSetMetaData metadata = altResults.getMetaData();
             
             for (int i = 1; i <= metadata.getColumnCount(); i++) {
@@ -453,7 +3389,7 @@ public class MigrateData extends Task {
         for (final String column : retval.keySet()) {
             try {
                 final Statement state = targetDb.createStatement();                
-                final ResultSet altResults = state.executeQuery("select * from " + tableName + " where 1 = 0");
+                final ResultSet altResults = state.executeQuery("select * from " + targetTable + " where 1 = 0");
                 final ResultSetMetaData metadata = altResults.getMetaData();
 
                 for (int i = 1; i <= metadata.getColumnCount(); i++) {
@@ -475,14 +3411,18 @@ public class MigrateData extends Task {
         return retval;
     }
 
-    private int getTableRecordCount(Connection conn, String tableName) {
-        final String query = String.format(RECORD_COUNT_QUERY, tableName);
+    private long getTableRecordCount(Connection conn, String tableName) {
+        final TableConfig config = getTableConfig(tableName);
+        String query = String.format(RECORD_COUNT_QUERY, tableName);
+        if (config != null && config.hasWhere()) {
+            query += " where " + config.getWhere();
+        }
         Statement statement = null;
         try {
             statement = conn.createStatement();
             final ResultSet results = statement.executeQuery(query);
             results.next();
-            final int retval = results.getInt(COUNT_FIELD);
+            final long retval = results.getLong(COUNT_FIELD);
             results.close();
             return retval;
         }
@@ -506,6 +3446,26 @@ public class MigrateData extends Task {
         }
     }
 
+    private Connection acquire(final ConnectionPool pool) {
+        try {
+            return pool.acquire();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new BuildException(e);
+        }
+    }
+
+    /**
+     * Tell the concurrency controller a database ran out of connections or processes
+     */
+    private void congested() {
+        final ConcurrencyController controller = this.controller;
+        if (controller != null) {
+            controller.congested();
+        }
+    }
+
     private void debug(String msg) {
         log(msg, MSG_DEBUG);
     }
@@ -533,19 +3493,12 @@ public class MigrateData extends Task {
 
                 retval = DriverManager.getConnection(config.getUrl(), config.getUsername(), config.getPassword());
                 retval.setAutoCommit(false);
-
-
-                // If this is an HSQLDB database, then we probably want to turn off logging for permformance
-                if (config.getDriver().indexOf("hsqldb") > -1) {
-                    debug("Disabling hsqldb log");
-                    final Statement st = retval.createStatement();
-                    st.execute("SET FILES LOG FALSE");
-                    st.close();
-                }
-                
             }
             catch (Exception e) {
                 // throw new BuildException(e);
+                if (e.getMessage() != null && e.getMessage().contains("ORA-12519")) {
+                    congested();
+                }
             }
         }
         
@@ -553,59 +3506,28 @@ public class MigrateData extends Task {
     }
 
     /**
-     * Helper class for incrementing values
+     * Prints progress on a fixed schedule from its own thread, so copy threads never wait on the console
      */
-    private class Incrementor {
-        private int value;
-        
-        public Incrementor() {
-            value = 0;
-        }
-        
-        public int getValue() {
-            return value;
-        }
-
-        public void increment() {
-            value++;
-        }
-
-        public void increment(int by) {
-            value += by;
-        }
-    }
+    private class ProgressRenderer implements Runnable {
+        private static final float LENGTH = 48f;
+        private static final String TEMPLATE = "\r|%s[%s] %3d%% (%d/%d) records %.0f/s ETA %s";
 
-    private class ProgressObservable extends Observable {
-        public void incrementRecord() {
-            setChanged();
-            notifyObservers();
-            clearChanged();
-        }
-    }
-
-    /**
-     * Observer for handling progress
-     * 
-     */
-    private class ProgressObserver implements Observer {
+        /**
+         * Longest time between lines written to a log rather than a terminal
+         */
+        private static final long LOG_INTERVAL = 60000;
 
-        private float total;
-        private float progress;
-        private float length;
-        private float ratio;
-        private String template;
-        private float count;
+        private final MigrationProgress progress;
+        private final ScheduledExecutorService scheduler;
+        private final StringBuilder progressBuffer;
         private PrintStream out;
+        private int roll;
+        private int loggedPercent = -1;
+        private long loggedAt;
         
-        public ProgressObserver(final float total,
-                                final float length,
-                                final float ratio,
-                                final String template) {
-            this.total    = total;
-            this.template = template;
-            this.ratio    = ratio;
-            this.length   = length;
-            this.count    = 0;
+        public ProgressRenderer(final MigrationProgress progress) {
+            this.progress       = progress;
+            this.progressBuffer = new StringBuilder();
             
             try {
                 final Field field = Main.class.getDeclaredField("out");
@@ -615,30 +3537,77 @@ public class MigrateData extends Task {
             catch (Exception e) {
                 e.printStackTrace();
             }
+
+            scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                    public Thread newThread(final Runnable runnable) {
+                        final Thread retval = new Thread(runnable, "Migration Progress");
+                        retval.setDaemon(true);
+                        return retval;
+                    }
+                });
+            final long interval = Math.max(1, getProgressInterval());
+            scheduler.scheduleAtFixedRate(this, interval, interval, TimeUnit.MILLISECONDS);
+        }
+
+        /**
+         * Stop rendering and print the final state
+         */
+        public void stop() {
+            scheduler.shutdownNow();
+            try {
+                scheduler.awaitTermination(getProgressInterval(), TimeUnit.MILLISECONDS);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            render(true);
+            if (getProject().getProperty("run_from_ant") == null && out != null) {
+                out.println();
+            }
         }
 
-        public synchronized void update(Observable o, Object arg) {
-            count++;
+        public void run() {
+            render(false);
+        }
 
-            final int percent = (int) ((count / total) * 100f);
-            final int progress = (int) ((count / total) * (100f * ratio));
-            final StringBuilder progressBuffer = new StringBuilder();
-                
+        /**
+         * Redraw the progress bar on a terminal. A log only gets a line when another percent is done, at
+         * least every {@link #LOG_INTERVAL}, so long runs don't flood it.
+         *
+         * @param last whether this is the final state, which is always written
+         */
+        private synchronized void render(final boolean last) {
+            progress.sample();
+            if (out == null) {
+                return;
+            }
+
+            final long count = progress.getCopied();
+            final long total = Math.max(1, progress.getExpected());
+            final int percent  = (int) (count * 100 / total);
+            final int progress = (int) Math.min(LENGTH, count * LENGTH / total);
+
+            progressBuffer.setLength(0);
             for (int x = 0; x < progress; x++) {
                 progressBuffer.append('=');
             }
-            
-            for (int x = progress; x < length; x++) {
+            for (int x = progress; x < LENGTH; x++) {
                 progressBuffer.append(' ');
             }
-            int roll = (int) (count / (total / 1000));
 
+            final double rate = this.progress.getThroughput().getRowsPerSecond();
+            final String eta  = Throughput.format(this.progress.getRemainingSeconds());
             if (getProject().getProperty("run_from_ant") == null) {
-                out.print(String.format(template, progressBuffer, carr[roll % carr.length], percent, (int) count, (int) total));
+                out.print(String.format(Locale.ROOT, TEMPLATE, progressBuffer, carr[roll++ % carr.length], percent, count, total, rate, eta));
+                return;
             }
-            else if ((count % 5000) == 0 || count == total) {
-                out.println(String.format("(%s)%% %s of %s records", (int) ((count / total) * 100), (int) count, (int) total));
+
+            final long now = System.currentTimeMillis();
+            if (last || percent > loggedPercent || now - loggedAt >= LOG_INTERVAL) {
+                loggedPercent = percent;
+                loggedAt      = now;
+                out.println(String.format(Locale.ROOT, "(%s)%% %s of %s records, %.0f records/s, ETA %s", percent, count, total, rate, eta));
             }
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,247 @@
+/*
+ * Copyright 2005-2007 The Kuali Foundation
+ *
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.opensource.org/licenses/ecl2.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rsmart.kuali.tools.ant.tasks;
+
+import java.lang.management.ManagementFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.tools.ant.Project;
+
+/**
+ * Exposes a running {@link MigrateData} over JMX under
+ * <code>com.rsmart.kuali.tools.lbcopy:type=MigrateData,name=&lt;source&gt;-&lt;target&gt;</code>. Besides the
+ * counters, the thread count, connection limits and row rate can be changed while tables are copied.
+ *
+ * @author Leo Przybylski (przybyls@arizona.edu)
+ */
+public class MigrationMonitor implements MigrationMonitorMBean {
+    private static final String DOMAIN = "com.rsmart.kuali.tools.lbcopy";
+
+    private final MigrateData task;
+    private final MigrationProgress progress;
+    private ObjectName name;
+
+    public MigrationMonitor(final MigrateData task, final MigrationProgress progress) {
+        this.task     = task;
+        this.progress = progress;
+    }
+
+    /**
+     * Register on the platform MBean server. A monitor that can't be registered is only logged, the
+     * migration runs either way.
+     */
+    public void register() {
+        try {
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            final String base = DOMAIN + ":type=MigrateData,name=" + ObjectName.quote(task.getSource() + "-" + task.getTarget());
+            ObjectName candidate = new ObjectName(base);
+            for (int i = 2; server.isRegistered(candidate); i++) {
+                candidate = new ObjectName(base + ",instance=" + i);
+            }
+            server.registerMBean(this, candidate);
+            name = candidate;
+            task.log("Monitoring available over JMX as " + name, Project.MSG_VERBOSE);
+        }
+        catch (Exception e) {
+            task.log("Could not register JMX monitor: " + e.getMessage(), Project.MSG_VERBOSE);
+        }
+    }
+
+    public void unregister() {
+        if (name == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+        }
+        catch (Exception e) {
+        }
+        name = null;
+    }
+
+    public long getRowsExpected() {
+        return progress.getExpected();
+    }
+
+    public long getRowsCopied() {
+        return progress.getCopied();
+    }
+
+    public long getBytesCopied() {
+        return progress.getBytes();
+    }
+
+    public double getRowsPerSecond() {
+        return progress.getRowsPerSecond();
+    }
+
+    public double getSmoothedRowsPerSecond() {
+        return progress.getThroughput().getRowsPerSecond();
+    }
+
+    public double getSmoothedBytesPerSecond() {
+        return progress.getThroughput().getBytesPerSecond();
+    }
+
+    public double getRemainingSeconds() {
+        return progress.getRemainingSeconds();
+    }
+
+    public String getEstimatedTimeRemaining() {
+        return Throughput.format(progress.getRemainingSeconds());
+    }
+
+    public String[] getTableStatus() {
+        final List<String> retval = new ArrayList<String>();
+        for (final MigrationProgress.TableProgress table : progress.getTables()) {
+            retval.add(String.format("%s %s %d/%d rows %d bytes %.1f rows/s ETA %s %d errors %d retries",
+                                     table.getTableName(), table.getState(), table.getCopied(), table.getExpected(),
+                                     table.getBytes(), table.getThroughput().getRowsPerSecond(),
+                                     Throughput.format(table.getRemainingSeconds()), table.getErrors(), table.getRetries()));
+        }
+        return retval.toArray(new String[retval.size()]);
+    }
+
+    public String getBatchLatency() {
+        return progress.getBatchLatency().toString();
+    }
+
+    public long[] getBatchLatencyBuckets() {
+        return progress.getBatchLatency().getCounts();
+    }
+
+    public String getCommitLatency() {
+        return progress.getCommitLatency().toString();
+    }
+
+    public long[] getCommitLatencyBuckets() {
+        return progress.getCommitLatency().getCounts();
+    }
+
+    public int getPendingTables() {
+        return progress.count(MigrationProgress.STATE_PENDING);
+    }
+
+    public int getQueuedTasks() {
+        final ExecutorService executor = task.getExecutor();
+        if (executor instanceof ThreadPoolExecutor) {
+            return ((ThreadPoolExecutor) executor).getQueue().size();
+        }
+        return 0;
+    }
+
+    public int getActiveSourceConnections() {
+        final ConnectionPool pool = task.getSourcePool();
+        return pool == null ? 0 : pool.getActiveCount();
+    }
+
+    public int getActiveTargetConnections() {
+        final ConnectionPool pool = task.getTargetPool();
+        return pool == null ? 0 : pool.getActiveCount();
+    }
+
+    public long getBufferedBytes() {
+        final MemoryBudget budget = task.getMemoryBudget();
+        return budget == null ? 0 : budget.getUsed();
+    }
+
+    public long getBufferMemoryLimit() {
+        final MemoryBudget budget = task.getMemoryBudget();
+        return budget == null ? 0 : budget.getLimit();
+    }
+
+    public long getErrorCount() {
+        return progress.getErrors();
+    }
+
+    public long getRetryCount() {
+        return progress.getRetries();
+    }
+
+    public int getThreadCount() {
+        final ExecutorService executor = task.getExecutor();
+        if (executor instanceof ThreadPoolExecutor) {
+            return ((ThreadPoolExecutor) executor).getMaximumPoolSize();
+        }
+        return task.getThreadCount();
+    }
+
+    /**
+     * Resize the copy thread pool. Virtual threads aren't pooled, so with threadMode="virtual" the
+     * connection limits bound concurrency instead.
+     */
+    public void setThreadCount(final int threadCount) {
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("threadCount must be at least 1");
+        }
+        task.setThreadCount(threadCount);
+
+        final ExecutorService executor = task.getExecutor();
+        if (executor instanceof ThreadPoolExecutor) {
+            final ThreadPoolExecutor pool = (ThreadPoolExecutor) executor;
+            if (threadCount > pool.getMaximumPoolSize()) {
+                pool.setMaximumPoolSize(threadCount);
+                pool.setCorePoolSize(threadCount);
+            }
+            else {
+                pool.setCorePoolSize(threadCount);
+                pool.setMaximumPoolSize(threadCount);
+            }
+        }
+    }
+
+    public int getMaxSourceConnections() {
+        final ConnectionPool pool = task.getSourcePool();
+        return pool == null ? task.getMaxSourceConnections() : pool.getSize();
+    }
+
+    public void setMaxSourceConnections(final int maxSourceConnections) {
+        task.setMaxSourceConnections(maxSourceConnections);
+        final ConnectionPool pool = task.getSourcePool();
+        if (pool != null) {
+            pool.resize(maxSourceConnections);
+        }
+    }
+
+    public int getMaxTargetConnections() {
+        final ConnectionPool pool = task.getTargetPool();
+        return pool == null ? task.getMaxTargetConnections() : pool.getSize();
+    }
+
+    public void setMaxTargetConnections(final int maxTargetConnections) {
+        task.setMaxTargetConnections(maxTargetConnections);
+        final ConnectionPool pool = task.getTargetPool();
+        if (pool != null) {
+            pool.resize(maxTargetConnections);
+        }
+    }
+
+    public long getMaxRowsPerSecond() {
+        return task.getThrottle().getRowsPerSecond();
+    }
+
+    public void setMaxRowsPerSecond(final long maxRowsPerSecond) {
+        task.setMaxRowsPerSecond(maxRowsPerSecond);
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2005-2007 The Kuali Foundation
+ *
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.opensource.org/licenses/ecl2.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rsmart.kuali.tools.ant.tasks;
+
+/**
+ * Management interface of a running data migration
+ *
+ * @author Leo Przybylski (przybyls@arizona.edu)
+ */
+public interface MigrationMonitorMBean {
+    long getRowsExpected();
+
+    long getRowsCopied();
+
+    long getBytesCopied();
+
+    double getRowsPerSecond();
+
+    /**
+     * @return exponentially weighted rows per second
+     */
+    double getSmoothedRowsPerSecond();
+
+    /**
+     * @return exponentially weighted bytes per second
+     */
+    double getSmoothedBytesPerSecond();
+
+    /**
+     * @return estimated seconds until all tables are copied, or -1 when unknown
+     */
+    double getRemainingSeconds();
+
+    /**
+     * @return estimated time remaining as h:mm:ss
+     */
+    String getEstimatedTimeRemaining();
+
+    /**
+     * @return one line per table with its state, rows, bytes, rows per second and time remaining
+     */
+    String[] getTableStatus();
+
+    String getBatchLatency();
+
+    long[] getBatchLatencyBuckets();
+
+    String getCommitLatency();
+
+    long[] getCommitLatencyBuckets();
+
+    /**
+     * @return tables that have not started copying yet
+     */
+    int getPendingTables();
+
+    /**
+     * @return tasks waiting for a copy thread
+     */
+    int getQueuedTasks();
+
+    int getActiveSourceConnections();
+
+    /**
+     * @return estimated heap held by rows read but not yet written
+     */
+    long getBufferedBytes();
+
+    long getBufferMemoryLimit();
+
+    int getActiveTargetConnections();
+
+    long getErrorCount();
+
+    long getRetryCount();
+
+    int getThreadCount();
+
+    void setThreadCount(int threadCount);
+
+    int getMaxSourceConnections();
+
+    void setMaxSourceConnections(int maxSourceConnections);
+
+    int getMaxTargetConnections();
+
+    void setMaxTargetConnections(int maxTargetConnections);
+
+    long getMaxRowsPerSecond();
+
+    void setMaxRowsPerSecond(long maxRowsPerSecond);
+}
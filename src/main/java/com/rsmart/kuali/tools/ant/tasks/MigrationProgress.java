@@ -0,0 +1,422 @@
+/*
+ * Copyright 2005-2007 The Kuali Foundation
+ *
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.opensource.org/licenses/ecl2.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rsmart.kuali.tools.ant.tasks;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Row counters of a migration. Copy threads only ever add to striped counters, so recording progress never
+ * makes them wait on each other. Readers such as the console renderer sum the counters whenever they need a
+ * value.
+ *
+ * @author Leo Przybylski (przybyls@arizona.edu)
+ */
+public class MigrationProgress {
+    public static final String STATE_PENDING = "pending";
+    public static final String STATE_COPYING = "copying";
+    public static final String STATE_DONE    = "done";
+    public static final String STATE_FAILED  = "failed";
+
+    public static final int PHASE_COUNT    = 0;
+    public static final int PHASE_METADATA = 1;
+    public static final int PHASE_FETCH    = 2;
+    public static final int PHASE_EXECUTE  = 3;
+    public static final int PHASE_COMMIT   = 4;
+
+    /**
+     * Names of the phases time is accounted to, indexed by the PHASE_ constants
+     */
+    public static final String[] PHASES = {"count", "metadata", "fetch", "execute", "commit"};
+
+    private final ConcurrentMap<String, TableProgress> tables;
+    private final LongAdder expected;
+    private final LongAdder copied;
+    private final LongAdder bytes;
+    private final LongAdder errors;
+    private final LongAdder retries;
+    private final LongAdder rejected;
+    private final LatencyHistogram batchLatency;
+    private final LatencyHistogram commitLatency;
+    private final Throughput throughput;
+    private final long started;
+    private volatile boolean discovering;
+
+    public MigrationProgress() {
+        tables        = new ConcurrentHashMap<String, TableProgress>();
+        expected      = new LongAdder();
+        copied        = new LongAdder();
+        bytes         = new LongAdder();
+        errors        = new LongAdder();
+        retries       = new LongAdder();
+        rejected      = new LongAdder();
+        batchLatency  = new LatencyHistogram();
+        commitLatency = new LatencyHistogram();
+        throughput    = new Throughput();
+        started       = System.currentTimeMillis();
+    }
+
+    /**
+     * Counters of one table, created on first use
+     */
+    public TableProgress getTable(final String tableName) {
+        TableProgress retval = tables.get(tableName);
+        if (retval == null) {
+            final TableProgress created = new TableProgress(tableName);
+            retval = tables.putIfAbsent(tableName, created);
+            if (retval == null) {
+                retval = created;
+            }
+        }
+        return retval;
+    }
+
+    /**
+     * Add the number of rows a table is expected to have to the totals
+     */
+    public void expect(final String tableName, final long rows) {
+        getTable(tableName).expected.add(rows);
+        expected.add(rows);
+    }
+
+    public long getExpected() {
+        return expected.sum();
+    }
+
+    public long getCopied() {
+        return copied.sum();
+    }
+
+    public long getBytes() {
+        return bytes.sum();
+    }
+
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    public long getRetries() {
+        return retries.sum();
+    }
+
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    /**
+     * Latency of executing one batch against the target
+     */
+    public LatencyHistogram getBatchLatency() {
+        return batchLatency;
+    }
+
+    /**
+     * Latency of committing a table on the target
+     */
+    public LatencyHistogram getCommitLatency() {
+        return commitLatency;
+    }
+
+    /**
+     * Set while tables are still being discovered and the totals are still growing
+     */
+    public void setDiscovering(final boolean discovering) {
+        this.discovering = discovering;
+    }
+
+    public boolean isDiscovering() {
+        return discovering;
+    }
+
+    public long getStarted() {
+        return started;
+    }
+
+    /**
+     * @return rows copied per second since the migration started
+     */
+    public double getRowsPerSecond() {
+        return perSecond(getCopied(), System.currentTimeMillis() - started);
+    }
+
+    /**
+     * Feed the current counters into the smoothed throughput of the run and of every table being copied.
+     * Called periodically by whatever renders progress.
+     */
+    public void sample() {
+        final long now = System.nanoTime();
+        throughput.update(getCopied(), getBytes(), now);
+        for (final TableProgress table : tables.values()) {
+            if (STATE_COPYING.equals(table.getState())) {
+                table.throughput.update(table.getCopied(), table.getBytes(), now);
+            }
+        }
+    }
+
+    /**
+     * Smoothed throughput of the whole run
+     */
+    public Throughput getThroughput() {
+        return throughput;
+    }
+
+    /**
+     * @return average size of the rows copied so far
+     */
+    public double getBytesPerRow() {
+        final long rows = getCopied();
+        return rows == 0 ? 0 : (double) getBytes() / rows;
+    }
+
+    /**
+     * Estimate the time left for the whole run. Rows left in each table are sized by that table's average
+     * row so far, or by the run's average for tables that haven't started.
+     *
+     * @return seconds remaining, or -1 when unknown or while tables are still being discovered
+     */
+    public double getRemainingSeconds() {
+        if (discovering) {
+            return -1;
+        }
+        final double bytesPerRow = getBytesPerRow();
+        long remainingRows  = 0;
+        long remainingBytes = 0;
+        for (final TableProgress table : tables.values()) {
+            remainingRows  += table.getRemainingRows();
+            remainingBytes += table.getRemainingBytes(bytesPerRow);
+        }
+        return throughput.getRemainingSeconds(remainingRows, remainingBytes);
+    }
+
+    /**
+     * @return number of tables in a given state
+     */
+    public int count(final String state) {
+        int retval = 0;
+        for (final TableProgress table : tables.values()) {
+            if (state.equals(table.getState())) {
+                retval++;
+            }
+        }
+        return retval;
+    }
+
+    public Collection<TableProgress> getTables() {
+        return new ArrayList<TableProgress>(tables.values());
+    }
+
+    private static double perSecond(final long count, final long millis) {
+        return millis <= 0 ? 0 : count * 1000d / millis;
+    }
+
+    /**
+     * Counters of a single table
+     */
+    public class TableProgress {
+        private final String tableName;
+        private final LongAdder expected;
+        private final LongAdder copied;
+        private final LongAdder bytes;
+        private final LongAdder errors;
+        private final LongAdder retries;
+        private final LongAdder rejected;
+        private final LongAdder[] phases;
+        private final Throughput throughput;
+        private volatile String state;
+        private volatile long started;
+        private volatile long finished;
+
+        TableProgress(final String tableName) {
+            this.tableName  = tableName;
+            this.expected   = new LongAdder();
+            this.copied     = new LongAdder();
+            this.bytes      = new LongAdder();
+            this.errors     = new LongAdder();
+            this.retries    = new LongAdder();
+            this.rejected   = new LongAdder();
+            this.throughput = new Throughput();
+            this.state      = STATE_PENDING;
+            this.phases     = new LongAdder[PHASES.length];
+            for (int i = 0; i < phases.length; i++) {
+                phases[i] = new LongAdder();
+            }
+        }
+
+        /**
+         * Record rows that were copied
+         */
+        public void add(final long rows) {
+            add(rows, 0);
+        }
+
+        /**
+         * Record rows that were copied along with an estimate of their size
+         */
+        public void add(final long rows, final long byteCount) {
+            copied.add(rows);
+            MigrationProgress.this.copied.add(rows);
+            if (byteCount > 0) {
+                bytes.add(byteCount);
+                MigrationProgress.this.bytes.add(byteCount);
+            }
+        }
+
+        /**
+         * Record a row or batch that could not be written
+         */
+        public void error() {
+            errors.increment();
+            MigrationProgress.this.errors.increment();
+        }
+
+        /**
+         * Record a batch that is being written again after a recoverable failure
+         */
+        public void retry() {
+            retries.increment();
+            MigrationProgress.this.retries.increment();
+        }
+
+        /**
+         * Record rows that were not written
+         */
+        public void reject(final long rows) {
+            rejected.add(rows);
+            MigrationProgress.this.rejected.add(rows);
+        }
+
+        public void recordBatch(final long nanos) {
+            batchLatency.record(nanos);
+        }
+
+        public void recordCommit(final long nanos) {
+            commitLatency.record(nanos);
+            phases[PHASE_COMMIT].add(nanos);
+        }
+
+        /**
+         * Account time to one of the PHASE_ phases
+         */
+        public void time(final int phase, final long nanos) {
+            phases[phase].add(nanos);
+        }
+
+        /**
+         * @return milliseconds spent in a phase
+         */
+        public long getTime(final int phase) {
+            return phases[phase].sum() / 1000000;
+        }
+
+        public void start() {
+            if (started == 0) {
+                started = System.currentTimeMillis();
+            }
+            state = STATE_COPYING;
+        }
+
+        public void finish() {
+            finished = System.currentTimeMillis();
+            state    = STATE_DONE;
+        }
+
+        public void fail() {
+            finished = System.currentTimeMillis();
+            state    = STATE_FAILED;
+        }
+
+        public String getState() {
+            return state;
+        }
+
+        public long getBytes() {
+            return bytes.sum();
+        }
+
+        public long getErrors() {
+            return errors.sum();
+        }
+
+        public long getRetries() {
+            return retries.sum();
+        }
+
+        public long getRejected() {
+            return rejected.sum();
+        }
+
+        /**
+         * @return milliseconds spent copying so far
+         */
+        public long getElapsed() {
+            if (started == 0) {
+                return 0;
+            }
+            return (finished == 0 ? System.currentTimeMillis() : finished) - started;
+        }
+
+        public double getRowsPerSecond() {
+            return perSecond(getCopied(), getElapsed());
+        }
+
+        /**
+         * Smoothed throughput of this table
+         */
+        public Throughput getThroughput() {
+            return throughput;
+        }
+
+        public long getRemainingRows() {
+            if (STATE_DONE.equals(state) || STATE_FAILED.equals(state)) {
+                return 0;
+            }
+            return Math.max(0, getExpected() - getCopied());
+        }
+
+        /**
+         * @param fallbackBytesPerRow row size to assume while this table has no size of its own
+         */
+        public long getRemainingBytes(final double fallbackBytesPerRow) {
+            final long rows  = getCopied();
+            final long bytes = getBytes();
+            final double bytesPerRow = rows > 0 && bytes > 0 ? (double) bytes / rows : fallbackBytesPerRow;
+            return (long) (getRemainingRows() * bytesPerRow);
+        }
+
+        /**
+         * @return seconds until this table is copied at its current throughput, or -1 when unknown
+         */
+        public double getRemainingSeconds() {
+            return throughput.getRemainingSeconds(getRemainingRows(), getRemainingBytes(getBytesPerRow()));
+        }
+
+        public String getTableName() {
+            return tableName;
+        }
+
+        public long getExpected() {
+            return expected.sum();
+        }
+
+        public long getCopied() {
+            return copied.sum();
+        }
+    }
+}
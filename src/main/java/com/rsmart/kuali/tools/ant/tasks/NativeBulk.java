@@ -0,0 +1,271 @@
+/*
+ * Copyright 2005-2007 The Kuali Foundation
+ *
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.opensource.org/licenses/ecl2.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rsmart.kuali.tools.ant.tasks;
+
+import java.io.File;
+
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+
+import java.util.Collection;
+
+/**
+ * Restore of a table with an embedded database's own CSV support, so rows never pass through JDBC one at a
+ * time. Engines that can also dump a table without writing to it implement {@link Dumper}. Every
+ * implementation reads and writes the same format: UTF-8, comma separated, every value double quoted, NULL
+ * as an empty unquoted field and a header line of column names. A table dumped by one engine can be
+ * restored by any other.
+ *
+ * <ul>
+ *   <li>H2 uses <code>CSVWRITE</code> and <code>CSVREAD</code>, and tables can be dumped and restored in
+ *       parallel</li>
+ *   <li>HSQLDB can only restore. It binds a temporary <code>TEXT</code> table to the file, so a file: database
+ *       is required and text table DDL is serialized. Dumping the same way would create tables and commit in
+ *       the source, so an HSQLDB source is always read through JDBC.</li>
+ *   <li>Derby can only restore, with <code>SYSCS_UTIL.SYSCS_IMPORT_DATA_BULK</code> (Derby 10.12 or
+ *       later)</li>
+ * </ul>
+ *
+ * @author Leo Przybylski (przybyls@arizona.edu)
+ */
+public abstract class NativeBulk {
+    private static final String HSQLDB_SOURCE = "%s;fs=,;quoted=true;encoding=UTF-8;ignore_first=true";
+
+    /**
+     * Native restore of a database, if it is embedded in this JVM
+     *
+     * @return the implementation, or null when rows have to be copied through JDBC
+     */
+    public static NativeBulk getInstance(final RdbmsConfig config) {
+        final String driver = config.getDriver().toLowerCase();
+        final String url    = config.getUrl().toLowerCase();
+        if (driver.contains("h2") && !url.startsWith("jdbc:h2:tcp:") && !url.startsWith("jdbc:h2:ssl:")) {
+            return new H2Bulk();
+        }
+        else if (driver.contains("hsql") && url.startsWith("jdbc:hsqldb:file:")) {
+            return new HsqldbBulk();
+        }
+        else if (driver.contains("derby") && url.startsWith("jdbc:derby:") && !url.startsWith("jdbc:derby://")) {
+            return new DerbyBulk();
+        }
+        return null;
+    }
+
+    /**
+     * Native dump of a database, if it is embedded in this JVM and can dump without writing to itself
+     *
+     * @return the implementation, or null when rows have to be read through JDBC
+     */
+    public static Dumper getDumper(final RdbmsConfig config) {
+        final NativeBulk retval = getInstance(config);
+        return retval instanceof Dumper ? (Dumper) retval : null;
+    }
+
+    /**
+     * Whether columns of these {@link Types} survive a round trip through CSV. LOB and binary columns don't.
+     */
+    public static boolean isSupported(final Collection<Integer> sqlTypes) {
+        for (final int sqlType : sqlTypes) {
+            switch (sqlType) {
+            case Types.BLOB:
+            case Types.CLOB:
+            case Types.BINARY:
+            case Types.VARBINARY:
+            case Types.LONGVARBINARY:
+            case Types.JAVA_OBJECT:
+            case Types.OTHER:
+            case Types.ARRAY:
+            case Types.STRUCT:
+                return false;
+            default:
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Insert every row of a file into a table
+     *
+     * @return number of rows inserted
+     */
+    public abstract long restore(Connection connection, String tableName, Collection<String> columns, File file) throws SQLException;
+
+    public abstract String describe();
+
+    /**
+     * Dump side of native transfers
+     */
+    public interface Dumper {
+        /**
+         * Write the rows of a query to a file
+         *
+         * @return number of rows written
+         */
+        long dump(Connection connection, String query, Collection<String> columns, File file) throws SQLException;
+
+        String describe();
+    }
+
+    protected static String quote(final String value) {
+        return "'" + value.replace("'", "''") + "'";
+    }
+
+    protected static String join(final Collection<String> columns) {
+        final StringBuilder retval = new StringBuilder();
+        for (final String column : columns) {
+            if (retval.length() > 0) {
+                retval.append(",");
+            }
+            retval.append(column);
+        }
+        return retval.toString();
+    }
+
+    static class H2Bulk extends NativeBulk implements Dumper {
+        private static final String OPTIONS = "'charset=UTF-8'";
+
+        public long dump(final Connection connection, final String query, final Collection<String> columns, final File file) throws SQLException {
+            final Statement st = connection.createStatement();
+            try {
+                final ResultSet rs = st.executeQuery("CALL CSVWRITE(" + quote(file.getAbsolutePath()) + ", "
+                                                     + quote(query) + ", " + OPTIONS + ")");
+                rs.next();
+                final long retval = rs.getLong(1);
+                rs.close();
+                return retval;
+            }
+            finally {
+                st.close();
+            }
+        }
+
+        public long restore(final Connection connection, final String tableName, final Collection<String> columns, final File file) throws SQLException {
+            final String names = join(columns);
+            final Statement st = connection.createStatement();
+            try {
+                return st.executeUpdate("INSERT INTO " + tableName + " (" + names + ") SELECT " + names
+                                        + " FROM CSVREAD(" + quote(file.getAbsolutePath()) + ", NULL, " + OPTIONS + ")");
+            }
+            finally {
+                st.close();
+            }
+        }
+
+        public String describe() {
+            return "H2 CSVWRITE/CSVREAD";
+        }
+    }
+
+    /**
+     * HSQLDB only allows text table files outside the database directory when the
+     * <code>textdb.allow_full_path</code> system property is set, so it is set before the first table.
+     */
+    static class HsqldbBulk extends NativeBulk {
+        HsqldbBulk() {
+            System.setProperty("textdb.allow_full_path", "true");
+        }
+
+        public synchronized long restore(final Connection connection, final String tableName, final Collection<String> columns, final File file) throws SQLException {
+            final String textTable = getTextTableName(file);
+            final String names = join(columns);
+            final Statement st = connection.createStatement();
+            try {
+                st.execute("CREATE TEXT TABLE " + textTable + " AS (SELECT " + names + " FROM " + tableName + ") WITH NO DATA");
+                st.execute("SET TABLE " + textTable + " SOURCE " + quote(String.format(HSQLDB_SOURCE, file.getAbsolutePath())));
+                return st.executeUpdate("INSERT INTO " + tableName + " (" + names + ") SELECT " + names + " FROM " + textTable);
+            }
+            finally {
+                drop(st, textTable);
+                st.close();
+            }
+        }
+
+        public String describe() {
+            return "HSQLDB TEXT tables";
+        }
+
+        /**
+         * A text table in the default schema named after the file. Qualified table names give files like
+         * <code>KFS.FOO.csv</code>, so anything that isn't an identifier character is replaced.
+         */
+        private static String getTextTableName(final File file) {
+            final String name = file.getName();
+            final String base = name.substring(0, name.lastIndexOf('.') > 0 ? name.lastIndexOf('.') : name.length());
+            return "LBCOPY_" + base.replaceAll("[^A-Za-z0-9_]", "_").toUpperCase();
+        }
+
+        /**
+         * Detach the file before dropping the table so the file is left alone
+         */
+        private static void drop(final Statement st, final String textTable) {
+            try {
+                st.execute("SET TABLE " + textTable + " SOURCE OFF");
+            }
+            catch (SQLException e) {
+            }
+            try {
+                st.execute("DROP TABLE " + textTable + " IF EXISTS");
+            }
+            catch (SQLException e) {
+            }
+        }
+    }
+
+    /**
+     * The import procedure doesn't say how many rows it inserted, and it fails as a whole, so the rows are
+     * counted before and after.
+     */
+    static class DerbyBulk extends NativeBulk {
+        public long restore(final Connection connection, final String tableName, final Collection<String> columns, final File file) throws SQLException {
+            final long before = count(connection, tableName);
+            final CallableStatement call = connection.prepareCall("CALL SYSCS_UTIL.SYSCS_IMPORT_DATA_BULK(?, ?, ?, NULL, ?, ',', '\"', 'UTF-8', 0, 1)");
+            try {
+                call.setString(1, TargetProfile.getSchemaName(tableName));
+                call.setString(2, TargetProfile.getBaseName(tableName));
+                call.setString(3, join(columns));
+                call.setString(4, file.getAbsolutePath());
+                call.execute();
+            }
+            finally {
+                call.close();
+            }
+            return count(connection, tableName) - before;
+        }
+
+        public String describe() {
+            return "Derby SYSCS_IMPORT_DATA_BULK";
+        }
+
+        private static long count(final Connection connection, final String tableName) throws SQLException {
+            final Statement st = connection.createStatement();
+            try {
+                final ResultSet rs = st.executeQuery("SELECT COUNT(*) FROM " + tableName);
+                rs.next();
+                final long retval = rs.getLong(1);
+                rs.close();
+                return retval;
+            }
+            finally {
+                st.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,866 @@
+/*
+ * Copyright 2005-2007 The Kuali Foundation
+ *
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.opensource.org/licenses/ecl2.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rsmart.kuali.tools.ant.tasks;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.StringReader;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
+import java.sql.Blob;
+import java.sql.Clob;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.sql.Types;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Column-major buffer of rows read from a source {@link ResultSet} and bound to a target {@link PreparedStatement}.
+ * Numeric and temporal values are kept in primitive arrays, and the temporal values are bound through one
+ * mutable holder per column, so a steady state copy of a non-LOB table does not allocate per row beyond what
+ * the driver itself allocates. Buffers are meant to be kept per worker and reconfigured for each table.
+ *
+ * @author Leo Przybylski (przybyls@arizona.edu)
+ */
+public class RowBuffer {
+    static final int LONG      = 0;
+    static final int DOUBLE    = 1;
+    static final int TIMESTAMP = 2;
+    static final int TIME      = 3;
+    static final int OBJECT    = 4;
+
+    /**
+     * Heap assumed for an object value of unknown size
+     */
+    private static final int OBJECT_BYTES = 64;
+
+    /**
+     * Longest character or binary column assumed before any rows were measured
+     */
+    private static final int MAX_ESTIMATED_LENGTH = 4000;
+
+    private int columnCount;
+    private int capacity;
+    private int limit;
+    private int size;
+    private long rowBytes;
+
+    private int[] kinds;
+    private int[] sqlTypes;
+    private int[] sourceIndexes;
+    private int[] parameters;
+
+    private long[][] longs;
+    private int[][] nanos;
+    private double[][] doubles;
+    private Object[][] objects;
+    private boolean[][] nulls;
+
+    private Timestamp[] timestamps;
+    private Time[] times;
+
+    public RowBuffer() {
+        kinds         = new int[0];
+        sqlTypes      = new int[0];
+        sourceIndexes = new int[0];
+        parameters    = new int[0];
+        longs         = new long[0][];
+        nanos         = new int[0][];
+        doubles       = new double[0][];
+        objects       = new Object[0][];
+        nulls         = new boolean[0][];
+        timestamps    = new Timestamp[0];
+        times         = new Time[0];
+    }
+
+    /**
+     * Prepare the buffer for a new table. Arrays are only reallocated when the new table needs more room than
+     * a previous one.
+     *
+     * @param results source rows
+     * @param columnNames target columns, in insert statement parameter order
+     * @param targetTypes {@link Types} of the target columns, in the same order
+     * @param capacity number of rows to buffer between flushes
+     */
+    public void configure(final ResultSet results,
+                          final String[] columnNames,
+                          final int[] targetTypes,
+                          final int capacity) throws SQLException {
+        final ResultSetMetaData metadata = results.getMetaData();
+        final int[] indexes = new int[columnNames.length];
+        final int[] kinds   = new int[columnNames.length];
+        for (int c = 0; c < columnNames.length; c++) {
+            indexes[c] = results.findColumn(columnNames[c]);
+            kinds[c]   = getKind(targetTypes[c], metadata.getPrecision(indexes[c]), metadata.getScale(indexes[c]));
+        }
+        configure(targetTypes, kinds, capacity);
+        System.arraycopy(indexes, 0, sourceIndexes, 0, indexes.length);
+
+        rowBytes = 0;
+        for (int c = 0; c < columnNames.length; c++) {
+            rowBytes += estimateBytes(kinds[c], targetTypes[c], metadata.getPrecision(indexes[c]));
+        }
+    }
+
+    /**
+     * Prepare the buffer for rows that do not come from a {@link ResultSet}, e.g. rows read back from a
+     * {@link SpoolFile}.
+     *
+     * @param sqlTypes {@link Types} of the columns
+     * @param kinds how each column is buffered
+     * @param capacity number of rows to buffer between flushes
+     */
+    public void configure(final int[] sqlTypes, final int[] kinds, final int capacity) {
+        final int columnCount = sqlTypes.length;
+
+        if (columnCount > this.kinds.length) {
+            this.kinds    = new int[columnCount];
+            this.sqlTypes = new int[columnCount];
+            sourceIndexes = new int[columnCount];
+            parameters    = new int[columnCount];
+            longs         = grow(longs, columnCount);
+            nanos         = grow(nanos, columnCount);
+            doubles       = grow(doubles, columnCount);
+            objects       = grow(objects, columnCount);
+            nulls         = grow(nulls, columnCount);
+            timestamps    = new Timestamp[columnCount];
+            times         = new Time[columnCount];
+        }
+
+        this.columnCount = columnCount;
+        this.limit       = capacity;
+        this.size        = 0;
+        if (capacity > this.capacity) {
+            this.capacity = capacity;
+            for (int c = 0; c < this.kinds.length; c++) {
+                longs[c] = null;
+                nanos[c] = null;
+                doubles[c] = null;
+                objects[c] = null;
+                nulls[c] = null;
+            }
+        }
+
+        rowBytes = 0;
+        for (int c = 0; c < columnCount; c++) {
+            rowBytes += estimateBytes(kinds[c], sqlTypes[c], 0);
+            this.sqlTypes[c] = sqlTypes[c];
+            this.kinds[c]    = kinds[c];
+            sourceIndexes[c] = c + 1;
+            parameters[c]    = c + 1;
+            if (nulls[c] == null) {
+                nulls[c] = new boolean[this.capacity];
+            }
+
+            switch (kinds[c]) {
+            case LONG:
+                if (longs[c] == null) longs[c] = new long[this.capacity];
+                break;
+            case DOUBLE:
+                if (doubles[c] == null) doubles[c] = new double[this.capacity];
+                break;
+            case TIMESTAMP:
+                if (longs[c] == null) longs[c] = new long[this.capacity];
+                if (nanos[c] == null) nanos[c] = new int[this.capacity];
+                if (timestamps[c] == null) timestamps[c] = new Timestamp(0);
+                break;
+            case TIME:
+                if (longs[c] == null) longs[c] = new long[this.capacity];
+                if (times[c] == null) times[c] = new Time(0);
+                break;
+            default:
+                if (objects[c] == null) objects[c] = new Object[this.capacity];
+            }
+        }
+    }
+
+    /**
+     * Change the statement parameter a column is bound to. By default column <code>c</code> is bound to
+     * parameter <code>c + 1</code>.
+     *
+     * @param column column index in the buffer
+     * @param parameter statement parameter index, or 0 to not bind the column at all
+     */
+    public void setParameterIndex(final int column, final int parameter) {
+        parameters[column] = parameter;
+    }
+
+    /**
+     * Read up to {@link #getCapacity()} rows from the source
+     *
+     * @return number of rows buffered. 0 when the source is exhausted
+     */
+    public int fill(final ResultSet results) throws SQLException {
+        size = 0;
+        while (size < limit && results.next()) {
+            for (int c = 0; c < columnCount; c++) {
+                final int index = sourceIndexes[c];
+                switch (kinds[c]) {
+                case LONG:
+                    longs[c][size] = results.getLong(index);
+                    nulls[c][size] = results.wasNull();
+                    break;
+                case DOUBLE:
+                    doubles[c][size] = results.getDouble(index);
+                    nulls[c][size] = results.wasNull();
+                    break;
+                case TIMESTAMP:
+                    final Timestamp timestamp = results.getTimestamp(index);
+                    nulls[c][size] = timestamp == null;
+                    if (timestamp != null) {
+                        longs[c][size] = timestamp.getTime();
+                        nanos[c][size] = timestamp.getNanos();
+                    }
+                    break;
+                case TIME:
+                    final Time time = results.getTime(index);
+                    nulls[c][size] = time == null;
+                    if (time != null) {
+                        longs[c][size] = time.getTime();
+                    }
+                    break;
+                default:
+                    Object value = results.getObject(index);
+                    // LOB locators may not outlive the cursor position, so materialize them now
+                    if (value instanceof Clob) {
+                        value = ((Clob) value).getSubString(1, (int) ((Clob) value).length());
+                    }
+                    else if (value instanceof Blob) {
+                        value = ((Blob) value).getBytes(1, (int) ((Blob) value).length());
+                    }
+                    objects[c][size] = value;
+                    nulls[c][size] = value == null;
+                }
+            }
+            size++;
+        }
+        return size;
+    }
+
+    /**
+     * Bind a buffered row to the parameters of a statement
+     *
+     * @param statement insert statement with parameters in the same order the buffer was configured with
+     * @param row index of the buffered row
+     */
+    public void bind(final PreparedStatement statement, final int row) throws SQLException {
+        for (int c = 0; c < columnCount; c++) {
+            final int parameter = parameters[c];
+            if (parameter < 1) {
+                continue;
+            }
+            if (nulls[c][row]) {
+                statement.setNull(parameter, sqlTypes[c]);
+                continue;
+            }
+
+            switch (kinds[c]) {
+            case LONG:
+                statement.setLong(parameter, longs[c][row]);
+                break;
+            case DOUBLE:
+                statement.setDouble(parameter, doubles[c][row]);
+                break;
+            case TIMESTAMP:
+                timestamps[c].setTime(longs[c][row]);
+                timestamps[c].setNanos(nanos[c][row]);
+                statement.setTimestamp(parameter, timestamps[c]);
+                break;
+            case TIME:
+                times[c].setTime(longs[c][row]);
+                statement.setTime(parameter, times[c]);
+                break;
+            default:
+                final Object value = objects[c][row];
+                if (sqlTypes[c] == Types.CLOB && value instanceof String) {
+                    statement.setCharacterStream(parameter, new StringReader((String) value), ((String) value).length());
+                }
+                else if (sqlTypes[c] == Types.BLOB && value instanceof byte[]) {
+                    statement.setBinaryStream(parameter, new ByteArrayInputStream((byte[]) value), ((byte[]) value).length);
+                }
+                else {
+                    statement.setObject(parameter, value);
+                }
+            }
+        }
+    }
+
+    /**
+     * Serialize a buffered row
+     */
+    public void write(final DataOutput out, final int row) throws IOException {
+        for (int c = 0; c < columnCount; c++) {
+            if (kinds[c] == OBJECT) {
+                writeObject(out, nulls[c][row] ? null : objects[c][row]);
+                continue;
+            }
+
+            out.writeBoolean(nulls[c][row]);
+            if (nulls[c][row]) {
+                continue;
+            }
+            switch (kinds[c]) {
+            case LONG:
+                out.writeLong(longs[c][row]);
+                break;
+            case DOUBLE:
+                out.writeDouble(doubles[c][row]);
+                break;
+            case TIMESTAMP:
+                out.writeLong(longs[c][row]);
+                out.writeInt(nanos[c][row]);
+                break;
+            case TIME:
+                out.writeLong(longs[c][row]);
+                break;
+            }
+        }
+    }
+
+    /**
+     * Append a row serialized by {@link #write(DataOutput, int)}
+     */
+    public void read(final DataInput in) throws IOException {
+        for (int c = 0; c < columnCount; c++) {
+            if (kinds[c] == OBJECT) {
+                objects[c][size] = readObject(in);
+                nulls[c][size] = objects[c][size] == null;
+                continue;
+            }
+
+            nulls[c][size] = in.readBoolean();
+            if (nulls[c][size]) {
+                continue;
+            }
+            switch (kinds[c]) {
+            case LONG:
+                longs[c][size] = in.readLong();
+                break;
+            case DOUBLE:
+                doubles[c][size] = in.readDouble();
+                break;
+            case TIMESTAMP:
+                longs[c][size] = in.readLong();
+                nanos[c][size] = in.readInt();
+                break;
+            case TIME:
+                longs[c][size] = in.readLong();
+                break;
+            }
+        }
+        size++;
+    }
+
+    /**
+     * Start filling the buffer from the beginning
+     */
+    public void reset() {
+        size = 0;
+    }
+
+    public int[] getKinds() {
+        final int[] retval = new int[columnCount];
+        System.arraycopy(kinds, 0, retval, 0, columnCount);
+        return retval;
+    }
+
+    public int[] getSqlTypes() {
+        final int[] retval = new int[columnCount];
+        System.arraycopy(sqlTypes, 0, retval, 0, columnCount);
+        return retval;
+    }
+
+    /**
+     * Drop references to buffered objects so they can be collected between tables
+     */
+    public void clear() {
+        for (int c = 0; c < columnCount; c++) {
+            if (objects[c] != null) {
+                for (int r = 0; r < size; r++) {
+                    objects[c][r] = null;
+                }
+            }
+        }
+        size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Keep only the first rows of a fill, e.g. when the rest belong to another worker's key range
+     */
+    public void truncate(final int size) {
+        for (int c = 0; c < columnCount; c++) {
+            if (objects[c] != null) {
+                for (int r = size; r < this.size; r++) {
+                    objects[c][r] = null;
+                }
+            }
+        }
+        this.size = Math.min(this.size, Math.max(0, size));
+    }
+
+    /**
+     * Integer value of a buffered numeric column, such as a primary key
+     */
+    public long getLong(final int row, final int column) {
+        switch (kinds[column]) {
+        case LONG:
+            return longs[column][row];
+        case DOUBLE:
+            return (long) doubles[column][row];
+        default:
+            return ((Number) objects[column][row]).longValue();
+        }
+    }
+
+    /**
+     * Order of two buffered rows by some of their columns. Nulls come first, strings are compared by
+     * {@link String#compareTo}, which need not match the collation of the target.
+     *
+     * @param keyColumns columns to compare, most significant first
+     */
+    public int compare(final int row, final RowBuffer other, final int otherRow, final int[] keyColumns) {
+        for (final int c : keyColumns) {
+            final boolean isNull = nulls[c][row];
+            if (isNull || other.nulls[c][otherRow]) {
+                if (isNull != other.nulls[c][otherRow]) {
+                    return isNull ? -1 : 1;
+                }
+                continue;
+            }
+
+            int retval;
+            switch (kinds[c]) {
+            case LONG:
+            case TIME:
+                retval = Long.compare(longs[c][row], other.longs[c][otherRow]);
+                break;
+            case DOUBLE:
+                retval = Double.compare(doubles[c][row], other.doubles[c][otherRow]);
+                break;
+            case TIMESTAMP:
+                retval = Long.compare(longs[c][row], other.longs[c][otherRow]);
+                if (retval == 0) {
+                    retval = nanos[c][row] - other.nanos[c][otherRow];
+                }
+                break;
+            default:
+                retval = compareObjects(objects[c][row], other.objects[c][otherRow]);
+            }
+            if (retval != 0) {
+                return retval;
+            }
+        }
+        return 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static int compareObjects(final Object value, final Object other) {
+        if (value instanceof Comparable && value.getClass().isInstance(other)) {
+            return ((Comparable<Object>) value).compareTo(other);
+        }
+        return String.valueOf(value).compareTo(String.valueOf(other));
+    }
+
+    /**
+     * Reorder the buffered rows by some of their columns
+     *
+     * @param keyColumns columns to sort by, most significant first
+     */
+    public void sort(final int[] keyColumns) {
+        final Integer[] order = new Integer[size];
+        for (int r = 0; r < size; r++) {
+            order[r] = r;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+                public int compare(final Integer first, final Integer second) {
+                    return RowBuffer.this.compare(first, RowBuffer.this, second, keyColumns);
+                }
+            });
+
+        final long[] sortedLongs = new long[size];
+        final int[] sortedNanos = new int[size];
+        final double[] sortedDoubles = new double[size];
+        final Object[] sortedObjects = new Object[size];
+        final boolean[] sortedNulls = new boolean[size];
+        for (int c = 0; c < columnCount; c++) {
+            for (int r = 0; r < size; r++) {
+                sortedNulls[r] = nulls[c][order[r]];
+            }
+            System.arraycopy(sortedNulls, 0, nulls[c], 0, size);
+
+            switch (kinds[c]) {
+            case LONG:
+            case TIME:
+                for (int r = 0; r < size; r++) {
+                    sortedLongs[r] = longs[c][order[r]];
+                }
+                System.arraycopy(sortedLongs, 0, longs[c], 0, size);
+                break;
+            case DOUBLE:
+                for (int r = 0; r < size; r++) {
+                    sortedDoubles[r] = doubles[c][order[r]];
+                }
+                System.arraycopy(sortedDoubles, 0, doubles[c], 0, size);
+                break;
+            case TIMESTAMP:
+                for (int r = 0; r < size; r++) {
+                    sortedLongs[r] = longs[c][order[r]];
+                    sortedNanos[r] = nanos[c][order[r]];
+                }
+                System.arraycopy(sortedLongs, 0, longs[c], 0, size);
+                System.arraycopy(sortedNanos, 0, nanos[c], 0, size);
+                break;
+            default:
+                for (int r = 0; r < size; r++) {
+                    sortedObjects[r] = objects[c][order[r]];
+                }
+                System.arraycopy(sortedObjects, 0, objects[c], 0, size);
+            }
+        }
+    }
+
+    /**
+     * Append a row of another buffer configured with the same columns
+     *
+     * @return false when the buffer is full
+     */
+    public boolean append(final RowBuffer other, final int row) {
+        if (size >= limit) {
+            return false;
+        }
+        for (int c = 0; c < columnCount; c++) {
+            nulls[c][size] = other.nulls[c][row];
+            switch (kinds[c]) {
+            case LONG:
+            case TIME:
+                longs[c][size] = other.longs[c][row];
+                break;
+            case DOUBLE:
+                doubles[c][size] = other.doubles[c][row];
+                break;
+            case TIMESTAMP:
+                longs[c][size] = other.longs[c][row];
+                nanos[c][size] = other.nanos[c][row];
+                break;
+            default:
+                objects[c][size] = other.objects[c][row];
+            }
+        }
+        size++;
+        return true;
+    }
+
+    public int getCapacity() {
+        return limit;
+    }
+
+    /**
+     * Change the number of rows read per fill, e.g. to keep wide rows within a memory budget. The limit
+     * can't exceed the capacity the buffer was configured with.
+     */
+    public void setLimit(final int limit) {
+        this.limit = Math.max(1, Math.min(capacity, limit));
+    }
+
+    /**
+     * @return estimated heap used by one row, from the column types until rows have been measured
+     */
+    public long getRowBytes() {
+        return rowBytes;
+    }
+
+    /**
+     * Estimate the heap held by the buffered rows, and use their average as the row size from now on
+     */
+    public long measure() {
+        long retval = 0;
+        for (int c = 0; c < columnCount; c++) {
+            if (kinds[c] != OBJECT) {
+                retval += (kinds[c] == TIMESTAMP ? 12 : 8) * (long) size;
+                continue;
+            }
+            for (int r = 0; r < size; r++) {
+                retval += heapSizeOf(objects[c][r]);
+            }
+        }
+        if (size > 0) {
+            rowBytes = Math.max(1, retval / size);
+        }
+        return retval;
+    }
+
+    public int getColumnCount() {
+        return columnCount;
+    }
+
+    /**
+     * Estimate the size of the buffered rows. Primitive columns count their width, strings and byte
+     * arrays their length.
+     */
+    public long getByteCount() {
+        long retval = 0;
+        for (int c = 0; c < columnCount; c++) {
+            if (kinds[c] != OBJECT) {
+                retval += (kinds[c] == TIMESTAMP ? 12 : 8) * (long) size;
+                continue;
+            }
+            for (int r = 0; r < size; r++) {
+                retval += sizeOf(objects[c][r]);
+            }
+        }
+        return retval;
+    }
+
+    /**
+     * Determine how a column is buffered. Exact numerics that fit in a long are kept as longs. Decimals with a
+     * scale or unknown precision (e.g. a bare Oracle NUMBER) are kept as objects so no precision is lost.
+     */
+    static int getKind(final int sqlType, final int precision, final int scale) {
+        switch (sqlType) {
+        case Types.TINYINT:
+        case Types.SMALLINT:
+        case Types.INTEGER:
+        case Types.BIGINT:
+            return LONG;
+        case Types.NUMERIC:
+        case Types.DECIMAL:
+            return (scale == 0 && precision > 0 && precision < 19) ? LONG : OBJECT;
+        case Types.REAL:
+        case Types.FLOAT:
+        case Types.DOUBLE:
+            return DOUBLE;
+        case Types.DATE:
+        case Types.TIMESTAMP:
+            return TIMESTAMP;
+        case Types.TIME:
+            return TIME;
+        default:
+            return OBJECT;
+        }
+    }
+
+    /**
+     * Whether a table with these column types can go through a row buffer. LOBs are streamed instead.
+     */
+    static boolean isBufferable(final int[] sqlTypes) {
+        for (final int sqlType : sqlTypes) {
+            if (sqlType == Types.CLOB || sqlType == Types.BLOB || sqlType == Types.NCLOB) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Estimate the heap a value of a column takes before any rows have been read
+     *
+     * @param precision declared length of the column, or 0 when unknown
+     */
+    private static long estimateBytes(final int kind, final int sqlType, final int precision) {
+        switch (kind) {
+        case LONG:
+        case DOUBLE:
+        case TIME:
+            return 8;
+        case TIMESTAMP:
+            return 12;
+        default:
+            final int length = Math.min(precision > 0 ? precision : OBJECT_BYTES, MAX_ESTIMATED_LENGTH);
+            switch (sqlType) {
+            case Types.CHAR:
+            case Types.VARCHAR:
+            case Types.LONGVARCHAR:
+            case Types.NCHAR:
+            case Types.NVARCHAR:
+            case Types.CLOB:
+            case Types.NCLOB:
+                return 40 + 2L * length;
+            case Types.BINARY:
+            case Types.VARBINARY:
+            case Types.LONGVARBINARY:
+            case Types.BLOB:
+                return 16 + length;
+            default:
+                return OBJECT_BYTES;
+            }
+        }
+    }
+
+    /**
+     * Estimate the heap a materialized value takes, including object headers
+     */
+    private static long heapSizeOf(final Object value) {
+        if (value == null) {
+            return 0;
+        }
+        else if (value instanceof String) {
+            return 40 + 2L * ((String) value).length();
+        }
+        else if (value instanceof byte[]) {
+            return 16 + ((byte[]) value).length;
+        }
+        return OBJECT_BYTES;
+    }
+
+    /**
+     * Estimate the size of a single value. LOB sizes come from their length, which some drivers have to
+     * ask the database for.
+     */
+    static long sizeOf(final Object value) {
+        if (value == null) {
+            return 0;
+        }
+        else if (value instanceof Clob || value instanceof Blob) {
+            try {
+                return value instanceof Clob ? ((Clob) value).length() : ((Blob) value).length();
+            }
+            catch (SQLException e) {
+                return 0;
+            }
+        }
+        else if (value instanceof String) {
+            return ((String) value).length();
+        }
+        else if (value instanceof byte[]) {
+            return ((byte[]) value).length;
+        }
+        else if (value instanceof BigDecimal) {
+            return ((BigDecimal) value).unscaledValue().bitLength() / 8 + 5;
+        }
+        return 8;
+    }
+
+    private static void writeObject(final DataOutput out, final Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(0);
+        }
+        else if (value instanceof String) {
+            final byte[] bytes = ((String) value).getBytes("UTF-8");
+            out.writeByte(1);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+        else if (value instanceof BigDecimal) {
+            final byte[] unscaled = ((BigDecimal) value).unscaledValue().toByteArray();
+            out.writeByte(2);
+            out.writeInt(((BigDecimal) value).scale());
+            out.writeInt(unscaled.length);
+            out.write(unscaled);
+        }
+        else if (value instanceof byte[]) {
+            out.writeByte(3);
+            out.writeInt(((byte[]) value).length);
+            out.write((byte[]) value);
+        }
+        else if (value instanceof Boolean) {
+            out.writeByte(4);
+            out.writeBoolean((Boolean) value);
+        }
+        else if (value instanceof Double || value instanceof Float) {
+            out.writeByte(5);
+            out.writeDouble(((Number) value).doubleValue());
+        }
+        else if (value instanceof Number) {
+            out.writeByte(6);
+            out.writeLong(((Number) value).longValue());
+        }
+        else if (value instanceof java.util.Date) {
+            out.writeByte(7);
+            out.writeLong(((java.util.Date) value).getTime());
+            out.writeInt(value instanceof Timestamp ? ((Timestamp) value).getNanos() : 0);
+        }
+        else {
+            writeObject(out, value.toString());
+        }
+    }
+
+    private static Object readObject(final DataInput in) throws IOException {
+        switch (in.readByte()) {
+        case 0:
+            return null;
+        case 1:
+            final byte[] chars = new byte[in.readInt()];
+            in.readFully(chars);
+            return new String(chars, "UTF-8");
+        case 2:
+            final int scale = in.readInt();
+            final byte[] unscaled = new byte[in.readInt()];
+            in.readFully(unscaled);
+            return new BigDecimal(new BigInteger(unscaled), scale);
+        case 3:
+            final byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+            return bytes;
+        case 4:
+            return in.readBoolean();
+        case 5:
+            return in.readDouble();
+        case 6:
+            return in.readLong();
+        case 7:
+            final Timestamp timestamp = new Timestamp(in.readLong());
+            timestamp.setNanos(in.readInt());
+            return timestamp;
+        default:
+            throw new IOException("Unknown value tag");
+        }
+    }
+
+    private static long[][] grow(final long[][] arr, final int length) {
+        final long[][] retval = new long[length][];
+        System.arraycopy(arr, 0, retval, 0, arr.length);
+        return retval;
+    }
+
+    private static int[][] grow(final int[][] arr, final int length) {
+        final int[][] retval = new int[length][];
+        System.arraycopy(arr, 0, retval, 0, arr.length);
+        return retval;
+    }
+
+    private static double[][] grow(final double[][] arr, final int length) {
+        final double[][] retval = new double[length][];
+        System.arraycopy(arr, 0, retval, 0, arr.length);
+        return retval;
+    }
+
+    private static Object[][] grow(final Object[][] arr, final int length) {
+        final Object[][] retval = new Object[length][];
+        System.arraycopy(arr, 0, retval, 0, arr.length);
+        return retval;
+    }
+
+    private static boolean[][] grow(final boolean[][] arr, final int length) {
+        final boolean[][] retval = new boolean[length][];
+        System.arraycopy(arr, 0, retval, 0, arr.length);
+        return retval;
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright 2005-2007 The Kuali Foundation
+ *
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.opensource.org/licenses/ecl2.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rsmart.kuali.tools.ant.tasks;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import java.text.SimpleDateFormat;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * Machine-readable summary of a run, written as JSON. Values keep the order they were added in. Stage
+ * timings are collected under <code>stages</code> in milliseconds.
+ *
+ * @author Leo Przybylski (przybyls@arizona.edu)
+ */
+public class RunReport {
+    private final Map<String, Object> values;
+    private final Map<String, List<RunReport>> items;
+    private final Map<String, Long> stageStarts;
+
+    public RunReport(final String task) {
+        values      = new LinkedHashMap<String, Object>();
+        items       = new LinkedHashMap<String, List<RunReport>>();
+        stageStarts = new LinkedHashMap<String, Long>();
+        put("task", task);
+        put("started", format(new Date()));
+    }
+
+    private RunReport() {
+        values      = new LinkedHashMap<String, Object>();
+        items       = new LinkedHashMap<String, List<RunReport>>();
+        stageStarts = new LinkedHashMap<String, Long>();
+    }
+
+    /**
+     * @param value a String, Number, Boolean, RunReport, long[] or Collection of these
+     */
+    public RunReport put(final String key, final Object value) {
+        values.put(key, value);
+        return this;
+    }
+
+    /**
+     * Nested object, created on first use
+     */
+    public RunReport getSection(final String key) {
+        Object retval = values.get(key);
+        if (!(retval instanceof RunReport)) {
+            retval = new RunReport();
+            values.put(key, retval);
+        }
+        return (RunReport) retval;
+    }
+
+    /**
+     * Nested object appended to a list
+     */
+    public RunReport addItem(final String key) {
+        List<RunReport> list = items.get(key);
+        if (list == null || values.get(key) != list) {
+            list = new ArrayList<RunReport>();
+            items.put(key, list);
+            values.put(key, list);
+        }
+        final RunReport retval = new RunReport();
+        list.add(retval);
+        return retval;
+    }
+
+    public void startStage(final String stage) {
+        stageStarts.put(stage, System.currentTimeMillis());
+    }
+
+    /**
+     * Record how long a stage took since {@link #startStage(String)}. Time is added up when a stage runs
+     * more than once.
+     */
+    public void endStage(final String stage) {
+        final Long started = stageStarts.remove(stage);
+        if (started == null) {
+            return;
+        }
+        final RunReport stages = getSection("stages");
+        final Object previous = stages.values.get(stage);
+        final long elapsed = System.currentTimeMillis() - started;
+        stages.put(stage, previous instanceof Long ? (Long) previous + elapsed : elapsed);
+    }
+
+    public void write(final File file) throws IOException {
+        if (file.getParentFile() != null) {
+            file.getParentFile().mkdirs();
+        }
+        final Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            out.write(toString());
+            out.write("\n");
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    public String toString() {
+        final StringBuilder retval = new StringBuilder();
+        append(retval, this, 0);
+        return retval.toString();
+    }
+
+    private static void append(final StringBuilder out, final Object value, final int depth) {
+        if (value == null) {
+            out.append("null");
+        }
+        else if (value instanceof RunReport) {
+            final Map<String, Object> map = ((RunReport) value).values;
+            if (map.isEmpty()) {
+                out.append("{}");
+                return;
+            }
+            out.append("{");
+            String separator = "\n";
+            for (final Map.Entry<String, Object> entry : map.entrySet()) {
+                out.append(separator);
+                indent(out, depth + 1);
+                quote(out, entry.getKey());
+                out.append(": ");
+                append(out, entry.getValue(), depth + 1);
+                separator = ",\n";
+            }
+            out.append("\n");
+            indent(out, depth);
+            out.append("}");
+        }
+        else if (value instanceof Collection) {
+            if (((Collection<?>) value).isEmpty()) {
+                out.append("[]");
+                return;
+            }
+            out.append("[");
+            String separator = "\n";
+            for (final Object item : (Collection<?>) value) {
+                out.append(separator);
+                indent(out, depth + 1);
+                append(out, item, depth + 1);
+                separator = ",\n";
+            }
+            out.append("\n");
+            indent(out, depth);
+            out.append("]");
+        }
+        else if (value instanceof long[]) {
+            out.append("[");
+            final long[] array = (long[]) value;
+            for (int i = 0; i < array.length; i++) {
+                out.append(i > 0 ? ", " : "").append(array[i]);
+            }
+            out.append("]");
+        }
+        else if (value instanceof Double || value instanceof Float) {
+            final double number = ((Number) value).doubleValue();
+            if (Double.isNaN(number) || Double.isInfinite(number)) {
+                out.append("null");
+            }
+            else {
+                out.append(String.format(Locale.ROOT, "%.3f", number));
+            }
+        }
+        else if (value instanceof Number || value instanceof Boolean) {
+            out.append(value);
+        }
+        else {
+            quote(out, value.toString());
+        }
+    }
+
+    private static void quote(final StringBuilder out, final String value) {
+        out.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            switch (c) {
+            case '"':  out.append("\\\""); break;
+            case '\\': out.append("\\\\"); break;
+            case '\n': out.append("\\n"); break;
+            case '\r': out.append("\\r"); break;
+            case '\t': out.append("\\t"); break;
+            default:
+                if (c < 0x20) {
+                    out.append(String.format(Locale.ROOT, "\\u%04x", (int) c));
+                }
+                else {
+                    out.append(c);
+                }
+            }
+        }
+        out.append('"');
+    }
+
+    private static void indent(final StringBuilder out, final int depth) {
+        for (int i = 0; i < depth; i++) {
+            out.append("  ");
+        }
+    }
+
+    private static String format(final Date date) {
+        final SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.ROOT);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return format.format(date);
+    }
+}
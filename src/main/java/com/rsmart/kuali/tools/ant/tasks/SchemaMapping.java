@@ -0,0 +1,73 @@
+/*
+ * Copyright 2005-2007 The Kuali Foundation
+ *
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.opensource.org/licenses/ecl2.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rsmart.kuali.tools.ant.tasks;
+
+/**
+ * Ant type mapping a source schema to a target schema. With several mappings, a data migration copies the
+ * tables of every schema in one run and tables are named <code>SCHEMA.TABLE</code> after their source
+ * schema, e.g. in <code>&lt;table&gt;</code> settings and the run report.
+ *
+ * <pre>
+ * &lt;migrateData source="source" target="target"&gt;
+ *   &lt;schema source="KFS" /&gt;
+ *   &lt;schema source="KRIM" /&gt;
+ *   &lt;schema source="KREW" target="KREW_COPY" /&gt;
+ * &lt;/migrateData&gt;
+ * </pre>
+ *
+ * @author Leo Przybylski (przybyls@arizona.edu)
+ */
+public class SchemaMapping {
+    private String source;
+    private String target;
+
+    /**
+     * Gets the value of source
+     *
+     * @return the value of source
+     */
+    public final String getSource() {
+        return this.source;
+    }
+
+    /**
+     * Sets the schema tables are read from
+     *
+     * @param argSource Value to assign to this.source
+     */
+    public final void setSource(final String argSource) {
+        this.source = argSource;
+    }
+
+    /**
+     * Gets the value of target, which is the source schema when it isn't set
+     *
+     * @return the value of target
+     */
+    public final String getTarget() {
+        return this.target == null ? this.source : this.target;
+    }
+
+    /**
+     * Sets the schema tables are written to
+     *
+     * @param argTarget Value to assign to this.target
+     */
+    public final void setTarget(final String argTarget) {
+        this.target = argTarget;
+    }
+}
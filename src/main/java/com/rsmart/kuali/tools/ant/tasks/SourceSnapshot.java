@@ -0,0 +1,193 @@
+/*
+ * Copyright 2005-2007 The Kuali Foundation
+ *
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.opensource.org/licenses/ecl2.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rsmart.kuali.tools.ant.tasks;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * A point in time of the source database that every reader connection sees, so that tables and chunks read
+ * in parallel at different moments still agree with each other.
+ *
+ * <ul>
+ *   <li>Oracle pins an SCN and reads every table with a flashback query</li>
+ *   <li>PostgreSQL exports a snapshot and imports it into every reader transaction</li>
+ *   <li>Anything else (including H2 and HSQLDB) reads every table through one shared SERIALIZABLE
+ *       transaction, which serializes reads</li>
+ * </ul>
+ *
+ * @author Leo Przybylski (przybyls@arizona.edu)
+ */
+public abstract class SourceSnapshot {
+
+    /**
+     * Pick the snapshot strategy for a source driver
+     *
+     * @param driver JDBC driver class name
+     */
+    public static SourceSnapshot getInstance(final String driver) {
+        final String name = driver.toLowerCase();
+        if (name.contains("oracle")) {
+            return new OracleSnapshot();
+        }
+        else if (name.contains("postgresql")) {
+            return new ExportedSnapshot();
+        }
+        return new SharedTransactionSnapshot();
+    }
+
+    /**
+     * Pin the point in time
+     *
+     * @param connection a dedicated source connection. The snapshot owns it from here on.
+     */
+    public abstract void open(Connection connection) throws SQLException;
+
+    /**
+     * Called on a reader connection before each table is read from it
+     */
+    public void prepare(final Connection reader) throws SQLException {
+    }
+
+    /**
+     * Table reference to use in the FROM clause of source queries
+     */
+    public String getTableReference(final String tableName) {
+        return tableName;
+    }
+
+    /**
+     * @return the connection all readers must share, or null when readers use their own connections
+     */
+    public Connection getSharedConnection() {
+        return null;
+    }
+
+    public abstract String describe();
+
+    public abstract void close();
+
+    protected static void closeQuietly(final Connection connection) {
+        if (connection == null) {
+            return;
+        }
+        try {
+            connection.rollback();
+            connection.close();
+        }
+        catch (Exception e) {
+        }
+    }
+
+    /**
+     * Oracle flashback query as of a pinned SCN. Needs EXECUTE on DBMS_FLASHBACK and enough undo retention
+     * to cover the run.
+     */
+    static class OracleSnapshot extends SourceSnapshot {
+        private long scn;
+
+        public void open(final Connection connection) throws SQLException {
+            try {
+                final Statement st = connection.createStatement();
+                final ResultSet rs = st.executeQuery("select dbms_flashback.get_system_change_number from dual");
+                rs.next();
+                scn = rs.getLong(1);
+                rs.close();
+                st.close();
+            }
+            finally {
+                closeQuietly(connection);
+            }
+        }
+
+        public String getTableReference(final String tableName) {
+            return tableName + " as of scn " + scn;
+        }
+
+        public String describe() {
+            return "SCN " + scn;
+        }
+
+        public void close() {
+        }
+    }
+
+    /**
+     * PostgreSQL exported snapshot. The exporting transaction is held open for the whole run.
+     */
+    static class ExportedSnapshot extends SourceSnapshot {
+        private Connection exporter;
+        private String snapshotId;
+
+        public void open(final Connection connection) throws SQLException {
+            exporter = connection;
+            exporter.setAutoCommit(false);
+            exporter.setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ);
+            final Statement st = exporter.createStatement();
+            final ResultSet rs = st.executeQuery("select pg_export_snapshot()");
+            rs.next();
+            snapshotId = rs.getString(1);
+            rs.close();
+            st.close();
+        }
+
+        public void prepare(final Connection reader) throws SQLException {
+            // SET TRANSACTION SNAPSHOT has to be the first statement of the reader's transaction
+            reader.rollback();
+            final Statement st = reader.createStatement();
+            st.execute("SET TRANSACTION ISOLATION LEVEL REPEATABLE READ");
+            st.execute("SET TRANSACTION SNAPSHOT '" + snapshotId + "'");
+            st.close();
+        }
+
+        public String describe() {
+            return "exported snapshot " + snapshotId;
+        }
+
+        public void close() {
+            closeQuietly(exporter);
+        }
+    }
+
+    /**
+     * One SERIALIZABLE transaction that every reader goes through. This is the fallback for databases without
+     * a way to share a snapshot between connections, and what H2 and HSQLDB test sources use.
+     */
+    static class SharedTransactionSnapshot extends SourceSnapshot {
+        private Connection connection;
+
+        public void open(final Connection connection) throws SQLException {
+            this.connection = connection;
+            connection.setAutoCommit(false);
+            connection.setTransactionIsolation(Connection.TRANSACTION_SERIALIZABLE);
+        }
+
+        public Connection getSharedConnection() {
+            return connection;
+        }
+
+        public String describe() {
+            return "a single shared serializable transaction";
+        }
+
+        public void close() {
+            closeQuietly(connection);
+        }
+    }
+}
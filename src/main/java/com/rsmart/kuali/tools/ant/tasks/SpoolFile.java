@@ -0,0 +1,319 @@
+/*
+ * Copyright 2005-2007 The Kuali Foundation
+ *
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.opensource.org/licenses/ecl2.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rsmart.kuali.tools.ant.tasks;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compressed, typed binary chunk of a table's rows. Chunks are written to
+ * <code>&lt;spoolDir&gt;/&lt;TABLE&gt;/&lt;sequence&gt;-&lt;rows&gt;.spool</code>. The header holds the
+ * column names, {@link java.sql.Types} and {@link RowBuffer} kinds, followed by the rows as written by
+ * {@link RowBuffer#write}. Chunks are written to a temporary file and renamed once complete, so an importer
+ * never sees a partial chunk. Once every chunk of a table is written, a <code>COMPLETE</code> marker holding
+ * the table's row count is written the same way; {@link #list} refuses tables without a marker or whose
+ * chunks don't add up to it, so an interrupted export is never loaded as if it were whole. Work directories
+ * other tasks keep under the spool directory start with {@link #WORK_PREFIX} and are not tables.
+ *
+ * @author Leo Przybylski (przybyls@arizona.edu)
+ */
+public class SpoolFile {
+    public static final String EXTENSION = ".spool";
+    public static final String COMPLETE  = "COMPLETE";
+
+    /**
+     * Start of the name of a directory under the spool directory that doesn't hold a table
+     */
+    public static final String WORK_PREFIX = ".";
+
+    private static final int MAGIC   = 0x4c42434f;
+    private static final int VERSION = 1;
+
+    private final File file;
+    private final String tableName;
+    private final long rowCount;
+
+    private SpoolFile(final File file) {
+        this.file = file;
+        this.tableName = file.getParentFile().getName();
+        final String name = file.getName();
+        this.rowCount  = Long.parseLong(name.substring(name.indexOf('-') + 1, name.length() - EXTENSION.length()));
+    }
+
+    /**
+     * Mark a table's export as complete once all of its chunks are closed
+     */
+    public static void complete(final File spoolDir, final String tableName, final long rowCount) throws IOException {
+        final File directory = new File(spoolDir, tableName);
+        directory.mkdirs();
+        final File temp = new File(directory, COMPLETE + ".tmp");
+        final DataOutputStream out = new DataOutputStream(new FileOutputStream(temp));
+        try {
+            out.writeLong(rowCount);
+        }
+        finally {
+            out.close();
+        }
+        final File marker = new File(directory, COMPLETE);
+        if (!temp.renameTo(marker)) {
+            throw new IOException("Could not rename " + temp + " to " + marker);
+        }
+    }
+
+    /**
+     * List the chunks of every table in a spool directory, in table and sequence order
+     *
+     * @throws IOException when a table's export did not complete
+     */
+    public static SpoolFile[] list(final File spoolDir) throws IOException {
+        final File[] tableDirs = spoolDir.listFiles();
+        if (tableDirs == null) {
+            return new SpoolFile[0];
+        }
+        Arrays.sort(tableDirs);
+
+        final List<SpoolFile> retval = new ArrayList<SpoolFile>();
+        for (final File tableDir : tableDirs) {
+            if (!tableDir.isDirectory() || tableDir.getName().startsWith(WORK_PREFIX)) {
+                continue;
+            }
+            final File[] chunks = tableDir.listFiles(new FilenameFilter() {
+                    public boolean accept(final File dir, final String name) {
+                        return name.endsWith(EXTENSION);
+                    }
+                });
+            if (chunks == null) {
+                continue;
+            }
+            Arrays.sort(chunks);
+            long rowCount = 0;
+            for (final File chunk : chunks) {
+                final SpoolFile spool = new SpoolFile(chunk);
+                rowCount += spool.getRowCount();
+                retval.add(spool);
+            }
+
+            final File marker = new File(tableDir, COMPLETE);
+            if (!marker.isFile()) {
+                throw new IOException("Export of " + tableDir.getName() + " did not complete");
+            }
+            final DataInputStream in = new DataInputStream(new FileInputStream(marker));
+            try {
+                final long expected = in.readLong();
+                if (expected != rowCount) {
+                    throw new IOException("Export of " + tableDir.getName() + " has " + rowCount 
+                                          + " spooled rows but completed with " + expected);
+                }
+            }
+            finally {
+                in.close();
+            }
+        }
+        return retval.toArray(new SpoolFile[retval.size()]);
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public String getTableName() {
+        return tableName;
+    }
+
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * Open the chunk for reading through a read-only memory mapping of the file
+     */
+    public Reader open() throws IOException {
+        return new Reader(file);
+    }
+
+    /**
+     * Writes one chunk of a table
+     */
+    public static class Writer {
+        private final File directory;
+        private final File temp;
+        private final int sequence;
+        private final DataOutputStream out;
+        private long rowCount;
+
+        public Writer(final File spoolDir,
+                      final String tableName,
+                      final int sequence,
+                      final String[] columnNames,
+                      final int[] sqlTypes,
+                      final int[] kinds) throws IOException {
+            this.directory = new File(spoolDir, tableName);
+            this.directory.mkdirs();
+            this.sequence  = sequence;
+            this.temp      = new File(directory, String.format("%05d.tmp", sequence));
+            this.out       = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(temp), 65536), 65536));
+
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(columnNames.length);
+            for (int c = 0; c < columnNames.length; c++) {
+                out.writeUTF(columnNames[c]);
+                out.writeInt(sqlTypes[c]);
+                out.writeByte(kinds[c]);
+            }
+        }
+
+        /**
+         * Write a row from a buffer
+         */
+        public void write(final RowBuffer buffer, final int row) throws IOException {
+            out.writeBoolean(true);
+            buffer.write(out, row);
+            rowCount++;
+        }
+
+        public long getRowCount() {
+            return rowCount;
+        }
+
+        /**
+         * Finish the chunk and make it visible to importers
+         */
+        public File close() throws IOException {
+            out.writeBoolean(false);
+            out.close();
+            final File retval = new File(directory, String.format("%05d-%d%s", sequence, rowCount, EXTENSION));
+            if (!temp.renameTo(retval)) {
+                throw new IOException("Could not rename " + temp + " to " + retval);
+            }
+            return retval;
+        }
+    }
+
+    /**
+     * Reads one chunk of a table
+     */
+    public static class Reader {
+        private final RandomAccessFile raf;
+        private final DataInputStream in;
+        private final String[] columnNames;
+        private final int[] sqlTypes;
+        private final int[] kinds;
+        private boolean exhausted;
+
+        Reader(final File file) throws IOException {
+            raf = new RandomAccessFile(file, "r");
+            final FileChannel channel = raf.getChannel();
+            final MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new ByteBufferInputStream(mapped), 65536), 65536));
+
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                close();
+                throw new IOException(file + " is not a spool file");
+            }
+            final int columnCount = in.readInt();
+            columnNames = new String[columnCount];
+            sqlTypes    = new int[columnCount];
+            kinds       = new int[columnCount];
+            for (int c = 0; c < columnCount; c++) {
+                columnNames[c] = in.readUTF();
+                sqlTypes[c]    = in.readInt();
+                kinds[c]       = in.readByte();
+            }
+        }
+
+        public String[] getColumnNames() {
+            return columnNames;
+        }
+
+        public int[] getSqlTypes() {
+            return sqlTypes;
+        }
+
+        public int[] getKinds() {
+            return kinds;
+        }
+
+        /**
+         * Read up to the buffer's capacity of rows
+         *
+         * @return number of rows read. 0 at the end of the chunk
+         */
+        public int read(final RowBuffer buffer) throws IOException {
+            buffer.reset();
+            while (!exhausted && buffer.size() < buffer.getCapacity()) {
+                if (!in.readBoolean()) {
+                    exhausted = true;
+                    break;
+                }
+                buffer.read(in);
+            }
+            return buffer.size();
+        }
+
+        public void close() throws IOException {
+            raf.close();
+        }
+    }
+
+    /**
+     * Adapts a mapped file to a stream
+     */
+    private static class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(final ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        public int read() {
+            return buffer.hasRemaining() ? (buffer.get() & 0xff) : -1;
+        }
+
+        public int read(final byte[] bytes, final int offset, final int length) {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            final int count = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, count);
+            return count;
+        }
+
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
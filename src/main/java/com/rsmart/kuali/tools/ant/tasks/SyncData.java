@@ -0,0 +1,780 @@
+/*
+ * Copyright 2005-2007 The Kuali Foundation
+ *
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.opensource.org/licenses/ecl2.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rsmart.kuali.tools.ant.tasks;
+
+import java.sql.Blob;
+import java.sql.Clob;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.Task;
+
+/**
+ * Keeps a target in step with a source after an initial {@link MigrateData} copy. Capture triggers installed
+ * on the source record the key of every changed row (see {@link ChangeCapture}). The change tables are
+ * polled in batches and the changes applied to the target in the order they were made: each changed key is
+ * read from the source again and either updated in the target, inserted when the target doesn't have it, or
+ * deleted from it.
+ *
+ * A batch is committed to the target before its change rows are deleted from the source, so a sync that is
+ * stopped or fails applies a batch again rather than losing it. Applying a change twice is harmless.
+ *
+ * <pre>
+ *   &lt;syncData source="kfs" target="kfs-copy" action="install" /&gt;
+ *   &lt;migrateData source="kfs" target="kfs-copy" /&gt;
+ *   &lt;syncData source="kfs" target="kfs-copy" pollInterval="500" /&gt;
+ * </pre>
+ *
+ * Install capture before the initial copy, so nothing changed during the copy is missed.
+ *
+ * @author Leo Przybylski (przybyls@arizona.edu)
+ */
+public class SyncData extends Task {
+    public static final String ACTION_INSTALL   = "install";
+    public static final String ACTION_SYNC      = "sync";
+    public static final String ACTION_UNINSTALL = "uninstall";
+
+    /**
+     * Milliseconds to wait after a poll that found no changes
+     */
+    public static final long DEFAULT_POLL_INTERVAL = 1000;
+
+    /**
+     * Change rows read per poll
+     */
+    public static final int DEFAULT_BATCH_SIZE = 500;
+
+    /**
+     * Milliseconds between status lines
+     */
+    public static final long DEFAULT_STATUS_INTERVAL = 60000;
+
+    /**
+     * Times a failed batch is tried again before its changes are applied one at a time
+     */
+    public static final int DEFAULT_MAX_RETRIES = 3;
+
+    /**
+     * Seconds to wait for a connection to answer when deciding whether a change or the connection failed
+     */
+    private static final int VALID_TIMEOUT = 5;
+
+    private static final String LIQUIBASE_TABLE = "DATABASECHANGELOG";
+
+    private String source;
+    private String target;
+    private String action;
+    private long pollInterval = DEFAULT_POLL_INTERVAL;
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private long duration;
+    private long statusInterval = DEFAULT_STATUS_INTERVAL;
+    private int maxRetries = DEFAULT_MAX_RETRIES;
+    private TableSet tableSet;
+
+    public void setSource(final String refid) {
+        this.source = refid;
+    }
+
+    public String getSource() {
+        return this.source;
+    }
+
+    public void setTarget(final String refid) {
+        this.target = refid;
+    }
+
+    public String getTarget() {
+        return this.target;
+    }
+
+    /**
+     * Gets the value of action
+     *
+     * @return the value of action
+     */
+    public String getAction() {
+        return this.action;
+    }
+
+    /**
+     * One of <code>install</code>, <code>sync</code> or <code>uninstall</code>. Sync is the default and
+     * installs capture on tables that don't have it yet.
+     *
+     * @param argAction Value to assign to this.action
+     */
+    public void setAction(final String argAction) {
+        this.action = argAction;
+    }
+
+    /**
+     * Gets the value of pollInterval
+     *
+     * @return the value of pollInterval
+     */
+    public long getPollInterval() {
+        return this.pollInterval;
+    }
+
+    /**
+     * Milliseconds to wait after a poll that found no changes. Polls that find changes are followed by the
+     * next one right away.
+     *
+     * @param argPollInterval Value to assign to this.pollInterval
+     */
+    public void setPollInterval(final long argPollInterval) {
+        this.pollInterval = argPollInterval;
+    }
+
+    /**
+     * Gets the value of batchSize
+     *
+     * @return the value of batchSize
+     */
+    public int getBatchSize() {
+        return this.batchSize;
+    }
+
+    /**
+     * Most change rows applied and committed together
+     *
+     * @param argBatchSize Value to assign to this.batchSize
+     */
+    public void setBatchSize(final int argBatchSize) {
+        this.batchSize = argBatchSize;
+    }
+
+    /**
+     * Gets the value of duration
+     *
+     * @return the value of duration
+     */
+    public long getDuration() {
+        return this.duration;
+    }
+
+    /**
+     * Seconds to keep syncing. With 0, the default, the sync runs until the build is stopped.
+     *
+     * @param argDuration Value to assign to this.duration
+     */
+    public void setDuration(final long argDuration) {
+        this.duration = argDuration;
+    }
+
+    /**
+     * Gets the value of statusInterval
+     *
+     * @return the value of statusInterval
+     */
+    public long getStatusInterval() {
+        return this.statusInterval;
+    }
+
+    /**
+     * Milliseconds between lines logging changes applied, changes per second and lag
+     *
+     * @param argStatusInterval Value to assign to this.statusInterval
+     */
+    public void setStatusInterval(final long argStatusInterval) {
+        this.statusInterval = argStatusInterval;
+    }
+
+    /**
+     * Gets the value of maxRetries
+     *
+     * @return the value of maxRetries
+     */
+    public int getMaxRetries() {
+        return this.maxRetries;
+    }
+
+    /**
+     * Times a failed batch is tried again as a whole. After that its changes are applied and committed one
+     * at a time, and a change that still fails is logged and skipped so it can't hold up the sync. Skipped
+     * changes are left in their change table marked {@link ChangeCapture#SKIPPED}.
+     *
+     * @param argMaxRetries Value to assign to this.maxRetries
+     */
+    public void setMaxRetries(final int argMaxRetries) {
+        this.maxRetries = argMaxRetries;
+    }
+
+    /**
+     * Nested <code>&lt;tableSet&gt;</code> limiting which tables are captured
+     */
+    public void addTableSet(final TableSet tableSet) {
+        this.tableSet = tableSet;
+    }
+
+    public TableSet getTableSet() {
+        return this.tableSet;
+    }
+
+    public void execute() {
+        final RdbmsConfig sourceConfig = (RdbmsConfig) getProject().getReference(getSource());
+        if (sourceConfig == null) {
+            throw new BuildException("No source database " + getSource());
+        }
+        final ChangeCapture capture = ChangeCapture.getInstance(sourceConfig.getDriver());
+        final String mode = getAction() == null ? ACTION_SYNC : getAction().toLowerCase();
+
+        final Connection sourceDb = openConnection(sourceConfig);
+        try {
+            final Map<String, List<String>> tables = getCapturedTables(sourceDb, sourceConfig);
+            if (ACTION_UNINSTALL.equals(mode)) {
+                uninstall(capture, sourceDb, tables.keySet());
+            }
+            else if (ACTION_INSTALL.equals(mode)) {
+                install(capture, sourceDb, sourceConfig, tables);
+            }
+            else if (ACTION_SYNC.equals(mode)) {
+                install(capture, sourceDb, sourceConfig, tables);
+                final RdbmsConfig targetConfig = (RdbmsConfig) getProject().getReference(getTarget());
+                if (targetConfig == null) {
+                    throw new BuildException("No target database " + getTarget());
+                }
+                sync(sourceConfig, targetConfig, tables);
+            }
+            else {
+                throw new BuildException("Unknown action " + getAction());
+            }
+        }
+        catch (SQLException e) {
+            throw new BuildException(e);
+        }
+        finally {
+            close(sourceDb);
+        }
+    }
+
+    /**
+     * Tables to capture mapped to their primary key columns. Tables without a primary key can't be synced
+     * by key and are left out.
+     */
+    protected Map<String, List<String>> getCapturedTables(final Connection sourceDb, final RdbmsConfig source) throws SQLException {
+        final Collection<String> names = new ArrayList<String>();
+        if (tableSet != null) {
+            names.addAll(tableSet.resolve(getProject(), sourceDb, source.getSchema()));
+        }
+        else {
+            final ResultSet tableResults = sourceDb.getMetaData().getTables(sourceDb.getCatalog(), source.getSchema(), null, new String[] { "TABLE" });
+            while (tableResults.next()) {
+                names.add(tableResults.getString("TABLE_NAME"));
+            }
+            tableResults.close();
+        }
+
+        final DatabaseMetaData metadata = sourceDb.getMetaData();
+        final Map<String, List<String>> retval = new LinkedHashMap<String, List<String>>();
+        for (final String tableName : names) {
+            final String upper = tableName.toUpperCase();
+            if (upper.startsWith(ChangeCapture.CHANGE_PREFIX) || upper.startsWith(LIQUIBASE_TABLE) || upper.startsWith("BIN$")) {
+                continue;
+            }
+
+            final List<String> keys = getPrimaryKeys(metadata, sourceDb.getCatalog(), source.getSchema(), tableName);
+            if (keys.isEmpty()) {
+                log("Skipping " + tableName + " because it has no primary key", Project.MSG_WARN);
+                continue;
+            }
+            retval.put(tableName, keys);
+        }
+        return retval;
+    }
+
+    private List<String> getPrimaryKeys(final DatabaseMetaData metadata, final String catalog, final String schema,
+                                        final String tableName) throws SQLException {
+        final Map<Integer, String> ordered = new java.util.TreeMap<Integer, String>();
+        final ResultSet keys = metadata.getPrimaryKeys(catalog, schema, tableName);
+        while (keys.next()) {
+            ordered.put(keys.getInt("KEY_SEQ"), keys.getString("COLUMN_NAME"));
+        }
+        keys.close();
+        return new ArrayList<String>(ordered.values());
+    }
+
+    /**
+     * Install capture on tables that don't have a change table yet
+     */
+    protected void install(final ChangeCapture capture, final Connection sourceDb, final RdbmsConfig source,
+                           final Map<String, List<String>> tables) throws SQLException {
+        final Map<String, String> changeTables = new LinkedHashMap<String, String>();
+        for (final String tableName : tables.keySet()) {
+            final String other = changeTables.put(ChangeCapture.getChangeTableName(tableName), tableName);
+            if (other != null) {
+                throw new BuildException(tableName + " and " + other + " would share the change table "
+                                         + ChangeCapture.getChangeTableName(tableName));
+            }
+        }
+
+        capture.createSequence(sourceDb);
+        int installed = 0;
+        for (final Map.Entry<String, List<String>> table : tables.entrySet()) {
+            if (hasTable(sourceDb, source, ChangeCapture.getChangeTableName(table.getKey()))) {
+                continue;
+            }
+            log("Installing change capture on " + table.getKey(), Project.MSG_VERBOSE);
+            capture.install(sourceDb, table.getKey(), table.getValue());
+            installed++;
+        }
+        sourceDb.commit();
+        if (installed > 0) {
+            log("Installed change capture on " + installed + " tables");
+        }
+    }
+
+    protected void uninstall(final ChangeCapture capture, final Connection sourceDb, final Collection<String> tables) throws SQLException {
+        for (final String tableName : tables) {
+            capture.uninstall(sourceDb, tableName);
+        }
+        capture.dropSequence(sourceDb);
+        sourceDb.commit();
+        log("Removed change capture from " + tables.size() + " tables");
+    }
+
+    private boolean hasTable(final Connection connection, final RdbmsConfig config, final String tableName) throws SQLException {
+        final ResultSet rs = connection.getMetaData().getTables(connection.getCatalog(), config.getSchema(), tableName, new String[] { "TABLE" });
+        try {
+            return rs.next();
+        }
+        finally {
+            rs.close();
+        }
+    }
+
+    /**
+     * Poll and apply until the duration is up. A failed batch is rolled back on both sides and tried again
+     * on fresh connections after the poll interval, change by change once it has failed maxRetries times.
+     */
+    protected void sync(final RdbmsConfig sourceConfig, final RdbmsConfig targetConfig, final Map<String, List<String>> tables) {
+        log("Syncing " + tables.size() + " tables from " + sourceConfig.getUrl() + " to " + targetConfig.getUrl());
+
+        final SyncMonitor monitor = new SyncMonitor(this);
+        monitor.register();
+        final long started = System.currentTimeMillis();
+        final long until = getDuration() > 0 ? started + getDuration() * 1000 : Long.MAX_VALUE;
+        long nextStatus = started + getStatusInterval();
+        Connection sourceDb = null;
+        Connection targetDb = null;
+        int failures = 0;
+        try {
+            while (System.currentTimeMillis() < until) {
+                int applied = 0;
+                try {
+                    if (sourceDb == null) {
+                        sourceDb = openConnection(sourceConfig);
+                    }
+                    if (targetDb == null) {
+                        targetDb = openConnection(targetConfig);
+                    }
+                    applied = poll(sourceDb, targetDb, tables, monitor, failures >= getMaxRetries());
+                    failures = 0;
+                }
+                catch (SQLException e) {
+                    failures++;
+                    monitor.error();
+                    log("Sync batch failed and will be retried: " + e.getMessage(), Project.MSG_WARN);
+                    rollback(targetDb);
+                    rollback(sourceDb);
+                    close(targetDb);
+                    close(sourceDb);
+                    targetDb = null;
+                    sourceDb = null;
+                }
+
+                if (System.currentTimeMillis() >= nextStatus) {
+                    log(monitor.toString());
+                    nextStatus = System.currentTimeMillis() + getStatusInterval();
+                }
+
+                if (applied == 0) {
+                    try {
+                        Thread.sleep(Math.max(1, Math.min(getPollInterval(), until - System.currentTimeMillis())));
+                    }
+                    catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                }
+            }
+        }
+        finally {
+            close(targetDb);
+            close(sourceDb);
+            monitor.unregister();
+            log("Sync finished: " + monitor);
+        }
+    }
+
+    /**
+     * Read the oldest change rows of all tables, apply them to the target and remove them from the change
+     * tables
+     *
+     * @param isolate apply and commit changes one at a time, marking the ones that fail as skipped
+     * @return number of change rows consumed
+     */
+    protected int poll(final Connection sourceDb, final Connection targetDb, final Map<String, List<String>> tables,
+                       final SyncMonitor monitor, final boolean isolate) throws SQLException {
+        final List<Change> changes = new ArrayList<Change>();
+        for (final Map.Entry<String, List<String>> table : tables.entrySet()) {
+            readChanges(sourceDb, table.getKey(), table.getValue(), changes);
+        }
+        // Each table gave its oldest batchSize changes, so the oldest batchSize of all of them are complete
+        Collections.sort(changes, new Comparator<Change>() {
+                public int compare(final Change first, final Change second) {
+                    return first.seq < second.seq ? -1 : (first.seq == second.seq ? 0 : 1);
+                }
+            });
+        final List<Change> batch = changes.size() > getBatchSize() ? changes.subList(0, getBatchSize()) : changes;
+
+        long oldest = 0;
+        for (final Change change : batch) {
+            if (change.changed > 0 && (oldest == 0 || change.changed < oldest)) {
+                oldest = change.changed;
+            }
+        }
+        monitor.polled(batch.size(), oldest);
+        if (batch.isEmpty()) {
+            sourceDb.commit();
+            return 0;
+        }
+
+        // A key changed several times in the batch is applied once, at the position of its first change, so
+        // rows it references that were changed after it are already there
+        final Map<List<Object>, List<Change>> keys = new LinkedHashMap<List<Object>, List<Change>>();
+        for (final Change change : batch) {
+            final List<Object> id = new ArrayList<Object>(Arrays.asList(change.key));
+            id.add(0, change.tableName);
+            List<Change> keyChanges = keys.get(id);
+            if (keyChanges == null) {
+                keyChanges = new ArrayList<Change>();
+                keys.put(id, keyChanges);
+            }
+            keyChanges.add(change);
+        }
+
+        final List<Change> consumed = new ArrayList<Change>(batch);
+        final List<Change> skipped = new ArrayList<Change>();
+        for (final List<Change> keyChanges : keys.values()) {
+            final Change change = keyChanges.get(0);
+            if (!isolate) {
+                apply(sourceDb, targetDb, change, tables.get(change.tableName), monitor);
+                continue;
+            }
+            try {
+                apply(sourceDb, targetDb, change, tables.get(change.tableName), monitor);
+                targetDb.commit();
+            }
+            catch (SQLException e) {
+                targetDb.rollback();
+                // A lost connection fails every change, that is not a reason to skip them
+                if (!targetDb.isValid(VALID_TIMEOUT) || !sourceDb.isValid(VALID_TIMEOUT)) {
+                    throw e;
+                }
+                monitor.skipped();
+                log("Skipping change " + change.seq + " of " + change.tableName + " " + Arrays.asList(change.key)
+                    + ", it is left in " + ChangeCapture.getChangeTableName(change.tableName) + ": " + e.getMessage(),
+                    Project.MSG_WARN);
+                consumed.removeAll(keyChanges);
+                skipped.addAll(keyChanges);
+            }
+        }
+        targetDb.commit();
+
+        consume(sourceDb, consumed);
+        skip(sourceDb, skipped);
+        sourceDb.commit();
+        monitor.captured(batch.size());
+        return batch.size();
+    }
+
+    private void readChanges(final Connection sourceDb, final String tableName, final List<String> keys,
+                             final List<Change> changes) throws SQLException {
+        final Statement st = sourceDb.createStatement();
+        try {
+            st.setMaxRows(getBatchSize());
+            final ResultSet rs = st.executeQuery("SELECT SEQ, CHANGED, " + ChangeCapture.join(keys, "", "") + " FROM "
+                                                 + ChangeCapture.getChangeTableName(tableName)
+                                                 + " WHERE OP IS NULL OR OP <> '" + ChangeCapture.SKIPPED + "' ORDER BY SEQ");
+            while (rs.next()) {
+                final Object[] key = new Object[keys.size()];
+                for (int i = 0; i < key.length; i++) {
+                    key[i] = rs.getObject(i + 3);
+                }
+                final Timestamp changed = rs.getTimestamp(2);
+                changes.add(new Change(tableName, rs.getLong(1), changed == null ? 0 : changed.getTime(), key));
+            }
+            rs.close();
+        }
+        finally {
+            st.close();
+        }
+    }
+
+    /**
+     * Update the target row to the source row as it is now, insert it when the target doesn't have it, or
+     * delete it when the source row is gone. Rows are never deleted to be replaced, so rows referencing
+     * them are left alone.
+     */
+    private void apply(final Connection sourceDb, final Connection targetDb, final Change change,
+                       final List<String> keys, final SyncMonitor monitor) throws SQLException {
+        final StringBuilder where = new StringBuilder();
+        for (final String key : keys) {
+            where.append(where.length() > 0 ? " AND " : " WHERE ").append(key).append(" = ?");
+        }
+
+        final List<String> columns = new ArrayList<String>();
+        final List<Integer> types = new ArrayList<Integer>();
+        final List<Object> values = new ArrayList<Object>();
+        final PreparedStatement select = sourceDb.prepareStatement("SELECT * FROM " + change.tableName + where);
+        try {
+            bindKey(select, change.key);
+            final ResultSet rs = select.executeQuery();
+            if (rs.next()) {
+                final ResultSetMetaData metadata = rs.getMetaData();
+                for (int i = 1; i <= metadata.getColumnCount(); i++) {
+                    columns.add(metadata.getColumnName(i));
+                    types.add(metadata.getColumnType(i));
+                    values.add(materialize(rs.getObject(i)));
+                }
+            }
+            rs.close();
+        }
+        finally {
+            select.close();
+        }
+
+        if (columns.isEmpty()) {
+            final PreparedStatement delete = targetDb.prepareStatement("DELETE FROM " + change.tableName + where);
+            try {
+                bindKey(delete, change.key);
+                delete.executeUpdate();
+            }
+            finally {
+                delete.close();
+            }
+        }
+        else if (update(targetDb, change, keys, where.toString(), columns, types, values) < 1) {
+            final StringBuilder params = new StringBuilder();
+            for (int i = 0; i < columns.size(); i++) {
+                params.append(i > 0 ? ", ?" : "?");
+            }
+            final PreparedStatement insert = targetDb.prepareStatement("INSERT INTO " + change.tableName + " ("
+                                                                       + ChangeCapture.join(columns, "", "")
+                                                                       + ") VALUES (" + params + ")");
+            try {
+                for (int i = 0; i < values.size(); i++) {
+                    if (values.get(i) == null) {
+                        insert.setNull(i + 1, types.get(i));
+                    }
+                    else {
+                        insert.setObject(i + 1, values.get(i));
+                    }
+                }
+                insert.executeUpdate();
+            }
+            finally {
+                insert.close();
+            }
+        }
+        monitor.applied(change.tableName, columns.isEmpty());
+    }
+
+    /**
+     * Set the non-key columns of the target row. A table of only key columns sets the keys to themselves,
+     * which still tells whether the row exists.
+     *
+     * @return number of rows updated
+     */
+    private int update(final Connection targetDb, final Change change, final List<String> keys, final String where,
+                       final List<String> columns, final List<Integer> types, final List<Object> values) throws SQLException {
+        final List<Integer> updated = new ArrayList<Integer>();
+        for (int i = 0; i < columns.size(); i++) {
+            if (!containsIgnoreCase(keys, columns.get(i))) {
+                updated.add(i);
+            }
+        }
+        if (updated.isEmpty()) {
+            for (int i = 0; i < columns.size(); i++) {
+                updated.add(i);
+            }
+        }
+
+        final StringBuilder set = new StringBuilder();
+        for (final int i : updated) {
+            set.append(set.length() > 0 ? ", " : " SET ").append(columns.get(i)).append(" = ?");
+        }
+        final PreparedStatement update = targetDb.prepareStatement("UPDATE " + change.tableName + set + where);
+        try {
+            int parameter = 1;
+            for (final int i : updated) {
+                if (values.get(i) == null) {
+                    update.setNull(parameter++, types.get(i));
+                }
+                else {
+                    update.setObject(parameter++, values.get(i));
+                }
+            }
+            for (int i = 0; i < change.key.length; i++) {
+                update.setObject(parameter++, change.key[i]);
+            }
+            return update.executeUpdate();
+        }
+        finally {
+            update.close();
+        }
+    }
+
+    private static boolean containsIgnoreCase(final List<String> names, final String name) {
+        for (final String candidate : names) {
+            if (candidate.equalsIgnoreCase(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void consume(final Connection sourceDb, final List<Change> batch) throws SQLException {
+        execute(sourceDb, batch, "DELETE FROM %s WHERE SEQ = ?");
+    }
+
+    /**
+     * Leave changes in their change tables but stop polling them
+     */
+    private void skip(final Connection sourceDb, final List<Change> batch) throws SQLException {
+        execute(sourceDb, batch, "UPDATE %s SET OP = '" + ChangeCapture.SKIPPED + "' WHERE SEQ = ?");
+    }
+
+    /**
+     * Run a statement against the change row of every change
+     *
+     * @param sql statement with the change table as <code>%s</code> and the SEQ as its only parameter
+     */
+    private void execute(final Connection sourceDb, final List<Change> batch, final String sql) throws SQLException {
+        final Map<String, List<Long>> sequences = new LinkedHashMap<String, List<Long>>();
+        for (final Change change : batch) {
+            List<Long> tableSequences = sequences.get(change.tableName);
+            if (tableSequences == null) {
+                tableSequences = new ArrayList<Long>();
+                sequences.put(change.tableName, tableSequences);
+            }
+            tableSequences.add(change.seq);
+        }
+
+        for (final Map.Entry<String, List<Long>> table : sequences.entrySet()) {
+            final PreparedStatement statement = sourceDb.prepareStatement(String.format(sql, ChangeCapture.getChangeTableName(table.getKey())));
+            try {
+                for (final Long seq : table.getValue()) {
+                    statement.setLong(1, seq);
+                    statement.addBatch();
+                }
+                statement.executeBatch();
+            }
+            finally {
+                statement.close();
+            }
+        }
+    }
+
+    private void bindKey(final PreparedStatement statement, final Object[] key) throws SQLException {
+        for (int i = 0; i < key.length; i++) {
+            statement.setObject(i + 1, key[i]);
+        }
+    }
+
+    /**
+     * Read LOBs into memory so they outlive the source result set
+     */
+    private Object materialize(final Object value) throws SQLException {
+        if (value instanceof Clob) {
+            return ((Clob) value).getSubString(1, (int) ((Clob) value).length());
+        }
+        else if (value instanceof Blob) {
+            return ((Blob) value).getBytes(1, (int) ((Blob) value).length());
+        }
+        return value;
+    }
+
+    private Connection openConnection(final RdbmsConfig config) {
+        try {
+            Class.forName(config.getDriver());
+            final Connection retval = DriverManager.getConnection(config.getUrl(), config.getUsername(), config.getPassword());
+            retval.setAutoCommit(false);
+            return retval;
+        }
+        catch (Exception e) {
+            throw new BuildException("Could not connect to " + config.getUrl(), e);
+        }
+    }
+
+    private void rollback(final Connection connection) {
+        if (connection == null) {
+            return;
+        }
+        try {
+            connection.rollback();
+        }
+        catch (SQLException e) {
+        }
+    }
+
+    private void close(final Connection connection) {
+        if (connection == null) {
+            return;
+        }
+        try {
+            connection.close();
+        }
+        catch (SQLException e) {
+        }
+    }
+
+    /**
+     * One row of a change table
+     */
+    private static class Change {
+        final String tableName;
+        final long seq;
+        final long changed;
+        final Object[] key;
+
+        Change(final String tableName, final long seq, final long changed, final Object[] key) {
+            this.tableName = tableName;
+            this.seq       = seq;
+            this.changed   = changed;
+            this.key       = key;
+        }
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright 2005-2007 The Kuali Foundation
+ *
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.opensource.org/licenses/ecl2.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rsmart.kuali.tools.ant.tasks;
+
+import java.lang.management.ManagementFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.tools.ant.Project;
+
+/**
+ * Counters of a running {@link SyncData}, exposed over JMX under
+ * <code>com.rsmart.kuali.tools.lbcopy:type=SyncData,name=&lt;source&gt;-&lt;target&gt;</code>
+ *
+ * @author Leo Przybylski (przybyls@arizona.edu)
+ */
+public class SyncMonitor implements SyncMonitorMBean {
+    private static final String DOMAIN = "com.rsmart.kuali.tools.lbcopy";
+
+    private final SyncData task;
+    private final ConcurrentMap<String, LongAdder> tables;
+    private final LongAdder applied;
+    private final LongAdder captured;
+    private final LongAdder upserts;
+    private final LongAdder deletes;
+    private final LongAdder polls;
+    private final LongAdder errors;
+    private final LongAdder skipped;
+    private final Throughput throughput;
+    private volatile long lagMillis;
+    private volatile int lastBatchSize;
+    private ObjectName name;
+
+    public SyncMonitor(final SyncData task) {
+        this.task       = task;
+        this.tables     = new ConcurrentHashMap<String, LongAdder>();
+        this.applied    = new LongAdder();
+        this.captured   = new LongAdder();
+        this.upserts    = new LongAdder();
+        this.deletes    = new LongAdder();
+        this.polls      = new LongAdder();
+        this.errors     = new LongAdder();
+        this.skipped    = new LongAdder();
+        this.throughput = new Throughput();
+    }
+
+    /**
+     * Register on the platform MBean server. A monitor that can't be registered is only logged.
+     */
+    public void register() {
+        try {
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            final String base = DOMAIN + ":type=SyncData,name=" + ObjectName.quote(task.getSource() + "-" + task.getTarget());
+            ObjectName candidate = new ObjectName(base);
+            for (int i = 2; server.isRegistered(candidate); i++) {
+                candidate = new ObjectName(base + ",instance=" + i);
+            }
+            server.registerMBean(this, candidate);
+            name = candidate;
+            task.log("Monitoring available over JMX as " + name, Project.MSG_VERBOSE);
+        }
+        catch (Exception e) {
+            task.log("Could not register JMX monitor: " + e.getMessage(), Project.MSG_VERBOSE);
+        }
+    }
+
+    public void unregister() {
+        if (name == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+        }
+        catch (Exception e) {
+        }
+        name = null;
+    }
+
+    /**
+     * Account for one poll of the change tables
+     *
+     * @param changes change rows read
+     * @param oldest time the oldest of them was made in milliseconds, or 0 when there were none
+     */
+    public void polled(final int changes, final long oldest) {
+        polls.increment();
+        lastBatchSize = changes;
+        lagMillis     = oldest > 0 ? Math.max(0, System.currentTimeMillis() - oldest) : 0;
+        throughput.update(applied.sum(), 0, System.nanoTime());
+    }
+
+    /**
+     * Account for one change applied to the target
+     *
+     * @param deleted whether the row no longer exists in the source
+     */
+    public void applied(final String tableName, final boolean deleted) {
+        applied.increment();
+        (deleted ? deletes : upserts).increment();
+        LongAdder table = tables.get(tableName);
+        if (table == null) {
+            final LongAdder created = new LongAdder();
+            table = tables.putIfAbsent(tableName, created);
+            if (table == null) {
+                table = created;
+            }
+        }
+        table.increment();
+    }
+
+    /**
+     * Account for change rows consumed by a committed batch
+     */
+    public void captured(final int changes) {
+        captured.add(changes);
+    }
+
+    public void error() {
+        errors.increment();
+    }
+
+    /**
+     * Account for a change that kept failing and was given up on
+     */
+    public void skipped() {
+        skipped.increment();
+    }
+
+    public long getChangesApplied() {
+        return applied.sum();
+    }
+
+    public long getChangesCaptured() {
+        return captured.sum();
+    }
+
+    public long getUpserts() {
+        return upserts.sum();
+    }
+
+    public long getDeletes() {
+        return deletes.sum();
+    }
+
+    public long getPolls() {
+        return polls.sum();
+    }
+
+    public long getErrorCount() {
+        return errors.sum();
+    }
+
+    public long getSkippedChanges() {
+        return skipped.sum();
+    }
+
+    public double getChangesPerSecond() {
+        return throughput.getRowsPerSecond();
+    }
+
+    public long getLagMillis() {
+        return lagMillis;
+    }
+
+    public int getLastBatchSize() {
+        return lastBatchSize;
+    }
+
+    public String[] getTableStatus() {
+        final List<String> retval = new ArrayList<String>();
+        for (final Map.Entry<String, LongAdder> table : tables.entrySet()) {
+            retval.add(table.getKey() + " " + table.getValue().sum() + " changes");
+        }
+        return retval.toArray(new String[retval.size()]);
+    }
+
+    public String toString() {
+        return String.format("%d changes applied (%d upserts, %d deletes) %.1f changes/s lag %dms %d errors %d skipped",
+                             getChangesApplied(), getUpserts(), getDeletes(), getChangesPerSecond(),
+                             getLagMillis(), getErrorCount(), getSkippedChanges());
+    }
+}
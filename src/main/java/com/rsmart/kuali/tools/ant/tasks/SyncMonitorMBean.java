@@ -0,0 +1,68 @@
+/*
+ * Copyright 2005-2007 The Kuali Foundation
+ *
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.opensource.org/licenses/ecl2.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rsmart.kuali.tools.ant.tasks;
+
+/**
+ * Management interface of a running change sync
+ *
+ * @author Leo Przybylski (przybyls@arizona.edu)
+ */
+public interface SyncMonitorMBean {
+    /**
+     * @return changes applied to the target, after repeated changes of a key were collapsed
+     */
+    long getChangesApplied();
+
+    /**
+     * @return change rows consumed from the change tables
+     */
+    long getChangesCaptured();
+
+    long getUpserts();
+
+    long getDeletes();
+
+    long getPolls();
+
+    long getErrorCount();
+
+    /**
+     * @return changes that kept failing when applied one at a time and were skipped
+     */
+    long getSkippedChanges();
+
+    /**
+     * @return exponentially weighted changes applied per second
+     */
+    double getChangesPerSecond();
+
+    /**
+     * @return milliseconds between the oldest change of the last poll being made and being applied, 0 when
+     *         the target is caught up
+     */
+    long getLagMillis();
+
+    /**
+     * @return change rows read by the last poll
+     */
+    int getLastBatchSize();
+
+    /**
+     * @return one line per captured table with its changes applied
+     */
+    String[] getTableStatus();
+}
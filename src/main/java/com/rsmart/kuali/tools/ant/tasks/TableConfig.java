@@ -0,0 +1,133 @@
+/*
+ * Copyright 2005-2007 The Kuali Foundation
+ *
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.opensource.org/licenses/ecl2.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rsmart.kuali.tools.ant.tasks;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Ant type for per-table settings of a data migration. Both the column projection and the where clause are
+ * pushed down into the source query.
+ *
+ * <pre>
+ * &lt;migrateData source="source" target="target"&gt;
+ *   &lt;table name="GL_BALANCE_T" where="UNIV_FISCAL_YR &gt;= 2010" /&gt;
+ *   &lt;table name="KRNS_NTE_T" columns="NTE_ID,OBJ_ID,VER_NBR,NTE_TXT" /&gt;
+ * &lt;/migrateData&gt;
+ * </pre>
+ *
+ * @author Leo Przybylski (przybyls@arizona.edu)
+ */
+public class TableConfig {
+    private String name;
+    private String where;
+    private String columns;
+    private int batchSize;
+
+    /**
+     * Gets the value of name
+     *
+     * @return the value of name
+     */
+    public final String getName() {
+        return this.name;
+    }
+
+    /**
+     * Sets the value of name
+     *
+     * @param argName Value to assign to this.name
+     */
+    public final void setName(final String argName) {
+        this.name = argName;
+    }
+
+    /**
+     * Gets the value of where
+     *
+     * @return the value of where
+     */
+    public final String getWhere() {
+        return this.where;
+    }
+
+    /**
+     * Sets the condition rows have to meet to be copied, without the <code>where</code> keyword
+     *
+     * @param argWhere Value to assign to this.where
+     */
+    public final void setWhere(final String argWhere) {
+        this.where = argWhere;
+    }
+
+    /**
+     * Gets the value of columns
+     *
+     * @return the value of columns
+     */
+    public final String getColumns() {
+        return this.columns;
+    }
+
+    /**
+     * Sets a comma separated list of the only columns to copy
+     *
+     * @param argColumns Value to assign to this.columns
+     */
+    public final void setColumns(final String argColumns) {
+        this.columns = argColumns;
+    }
+
+    /**
+     * Gets the value of batchSize
+     *
+     * @return the value of batchSize
+     */
+    public final int getBatchSize() {
+        return this.batchSize;
+    }
+
+    /**
+     * Sets a batch size for this table only, e.g. one that autoBatchSize settled on in an earlier run
+     *
+     * @param argBatchSize Value to assign to this.batchSize
+     */
+    public final void setBatchSize(final int argBatchSize) {
+        this.batchSize = argBatchSize;
+    }
+
+    /**
+     * @return projected column names, or an empty list when all columns are copied
+     */
+    public List<String> getColumnNames() {
+        final List<String> retval = new ArrayList<String>();
+        if (columns == null) {
+            return retval;
+        }
+
+        for (final String column : columns.split(",")) {
+            if (column.trim().length() > 0) {
+                retval.add(column.trim());
+            }
+        }
+        return retval;
+    }
+
+    public boolean hasWhere() {
+        return where != null && where.trim().length() > 0;
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright 2005-2007 The Kuali Foundation
+ *
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.opensource.org/licenses/ecl2.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rsmart.kuali.tools.ant.tasks;
+
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Foreign key dependency graph of a set of tables. Tables referenced by a foreign key (parents) are ordered
+ * before the tables that reference them (children). Cycles are collapsed into a single node so that
+ * the result is always a DAG. The graph is grouped into waves where every table in a wave only depends
+ * on tables from earlier waves, so all tables within a wave can be copied in parallel.
+ *
+ * @author Leo Przybylski (przybyls@arizona.edu)
+ */
+public class TableDependencyGraph {
+    private final Map<String, Set<String>> parents;
+    private final Set<String> tables;
+
+    private Map<String, Integer> index;
+    private Map<String, Integer> lowlink;
+    private List<String> stack;
+    private Set<String> onStack;
+    private List<Set<String>> components;
+    private int counter;
+
+    public TableDependencyGraph(final Collection<String> tables) {
+        this.tables  = new HashSet<String>(tables);
+        this.parents = new HashMap<String, Set<String>>();
+        for (final String table : tables) {
+            parents.put(table, new HashSet<String>());
+        }
+    }
+
+    /**
+     * Read imported keys for every table in the graph from the catalog. References to tables outside of
+     * the graph and self references are ignored.
+     *
+     * @param metadata source database metadata
+     * @param catalog catalog the tables belong to
+     * @param schema schema the tables belong to
+     */
+    public void load(final DatabaseMetaData metadata, final String catalog, final String schema) throws SQLException {
+        for (final String table : tables) {
+            final ResultSet keys = metadata.getImportedKeys(catalog, schema, table);
+            try {
+                while (keys.next()) {
+                    addDependency(table, keys.getString("PKTABLE_NAME"));
+                }
+            }
+            finally {
+                keys.close();
+            }
+        }
+    }
+
+    /**
+     * Read imported keys for tables named <code>SCHEMA.TABLE</code>, which may span several schemas.
+     * Foreign keys between schemas are followed like any other.
+     *
+     * @param metadata source database metadata
+     * @param catalog catalog the tables belong to
+     */
+    public void load(final DatabaseMetaData metadata, final String catalog) throws SQLException {
+        for (final String table : tables) {
+            final int dot = table.indexOf('.');
+            final ResultSet keys = metadata.getImportedKeys(catalog, table.substring(0, dot), table.substring(dot + 1));
+            try {
+                while (keys.next()) {
+                    addDependency(table, keys.getString("PKTABLE_SCHEM") + "." + keys.getString("PKTABLE_NAME"));
+                }
+            }
+            finally {
+                keys.close();
+            }
+        }
+    }
+
+    /**
+     * Record that <code>child</code> has a foreign key referencing <code>parent</code>
+     */
+    public void addDependency(final String child, final String parent) {
+        if (parent == null || child.equals(parent) || !tables.contains(parent) || !tables.contains(child)) {
+            return;
+        }
+        parents.get(child).add(parent);
+    }
+
+    /**
+     * Groups of tables that reference each other through a foreign key cycle. Constraints between these
+     * tables have to be deferred or disabled on the target for a load to succeed.
+     *
+     * @return tables in a cycle, one set per cycle
+     */
+    public List<Set<String>> getCycles() {
+        final List<Set<String>> retval = new ArrayList<Set<String>>();
+        for (final Set<String> component : getComponents()) {
+            if (component.size() > 1) {
+                retval.add(component);
+            }
+        }
+        return retval;
+    }
+
+    /**
+     * Topological waves of the collapsed graph. Tables in the first wave reference nothing, tables in each later
+     * wave only reference tables from earlier waves. Tables in a cycle are always placed in the same wave.
+     *
+     * @return list of waves in load order
+     */
+    public List<List<String>> getWaves() {
+        final List<Set<String>> components = getComponents();
+        final Map<String, Integer> componentOf = new HashMap<String, Integer>();
+        for (int i = 0; i < components.size(); i++) {
+            for (final String table : components.get(i)) {
+                componentOf.put(table, i);
+            }
+        }
+
+        // Tarjan emits components in reverse topological order, so every parent component
+        // is already leveled by the time its children are visited.
+        final int[] level = new int[components.size()];
+        int maxLevel = -1;
+        for (int i = 0; i < components.size(); i++) {
+            for (final String table : components.get(i)) {
+                for (final String parent : parents.get(table)) {
+                    final int parentComponent = componentOf.get(parent);
+                    if (parentComponent != i) {
+                        level[i] = Math.max(level[i], level[parentComponent] + 1);
+                    }
+                }
+            }
+            maxLevel = Math.max(maxLevel, level[i]);
+        }
+
+        final List<List<String>> retval = new ArrayList<List<String>>();
+        for (int i = 0; i <= maxLevel; i++) {
+            retval.add(new ArrayList<String>());
+        }
+        for (int i = 0; i < components.size(); i++) {
+            retval.get(level[i]).addAll(components.get(i));
+        }
+        return retval;
+    }
+
+    private List<Set<String>> getComponents() {
+        if (components == null) {
+            index      = new HashMap<String, Integer>();
+            lowlink    = new HashMap<String, Integer>();
+            stack      = new ArrayList<String>();
+            onStack    = new HashSet<String>();
+            components = new ArrayList<Set<String>>();
+            counter    = 0;
+
+            for (final String table : tables) {
+                if (!index.containsKey(table)) {
+                    connect(table);
+                }
+            }
+            index   = null;
+            lowlink = null;
+            stack   = null;
+            onStack = null;
+        }
+        return components;
+    }
+
+    /**
+     * Tarjan's strongly connected components, walking from child to parent
+     */
+    private void connect(final String table) {
+        index.put(table, counter);
+        lowlink.put(table, counter);
+        counter++;
+        stack.add(table);
+        onStack.add(table);
+
+        for (final String parent : parents.get(table)) {
+            if (!index.containsKey(parent)) {
+                connect(parent);
+                lowlink.put(table, Math.min(lowlink.get(table), lowlink.get(parent)));
+            }
+            else if (onStack.contains(parent)) {
+                lowlink.put(table, Math.min(lowlink.get(table), index.get(parent)));
+            }
+        }
+
+        if (lowlink.get(table).equals(index.get(table))) {
+            final Set<String> component = new HashSet<String>();
+            String member = null;
+            do {
+                member = stack.remove(stack.size() - 1);
+                onStack.remove(member);
+                component.add(member);
+            } while (!member.equals(table));
+            components.add(component);
+        }
+    }
+}
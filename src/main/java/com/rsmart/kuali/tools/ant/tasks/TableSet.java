@@ -22,25 +22,37 @@ import java.util.regex.Pattern;
 import java.sql.Connection;
 import java.sql.DatabaseMetaData;
 import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
-import java.util.Vector;
 
 import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Project;
 
 /**
+ * Set of tables in a schema selected by nested <code>&lt;include regex="..."/&gt;</code> and
+ * <code>&lt;exclude regex="..."/&gt;</code> patterns. Without includes every table is selected. Excludes win
+ * over includes.
  *
  * @author Leo Przybylski (przybyls@arizona.edu)
  */
 public class TableSet {
-    private Vector<Include> includes;
+    private static final String REFERENCE_PREFIX = "lbcopy.tableset.";
+
+    private List<Include> includes;
+    private List<Include> excludes;
+    private List<Pattern> includePatterns;
+    private List<Pattern> excludePatterns;
     private Set<String> tables;
     private Connection connection;
     private String schema;
 
     public TableSet() {
-        includes = new Vector();
-        tables = new HashSet();
+        includes = new ArrayList<Include>();
+        excludes = new ArrayList<Include>();
+        tables = new HashSet<String>();
     }
     
 
@@ -50,6 +62,54 @@ public class TableSet {
         return retval;
     }
 
+    public Include createExclude() {
+        Include retval = new Include();
+        excludes.add(retval);
+        return retval;
+    }
+
+    /**
+     * Resolve the tables of a schema that belong to this set. The result is kept as a reference on the project,
+     * so later tasks in the same build with the same database, schema and patterns don't scan the catalog
+     * again.
+     *
+     * @param project project to cache the resolved tables on
+     * @param connection connection to read the catalog from when the tables aren't cached yet
+     * @param schema schema to read tables from
+     * @return unmodifiable set of table names
+     */
+    public Set<String> resolve(final Project project, final Connection connection, final String schema) {
+        final String referenceId = getReferenceId(connection, schema);
+        Set<String> retval = project.getReference(referenceId);
+        if (retval == null) {
+            setConnection(connection);
+            setSchema(schema);
+            tables.clear();
+            execute();
+            retval = Collections.unmodifiableSet(new HashSet<String>(tables));
+            project.addReference(referenceId, retval);
+        }
+        return retval;
+    }
+
+    private String getReferenceId(final Connection connection, final String schema) {
+        final StringBuilder retval = new StringBuilder(REFERENCE_PREFIX);
+        try {
+            retval.append(connection.getMetaData().getURL()).append("/");
+        }
+        catch (Exception e) {
+            throw new BuildException("Exception when getting the database url", e);
+        }
+        retval.append(schema);
+        for (final Include include : includes) {
+            retval.append("+").append(include.getRegex());
+        }
+        for (final Include exclude : excludes) {
+            retval.append("-").append(exclude.getRegex());
+        }
+        return retval.toString();
+    }
+
     public void execute() {
         try {
             DatabaseMetaData metadata = getConnection().getMetaData();
@@ -62,18 +122,42 @@ public class TableSet {
                     tables.add(tableName);
                 }
             }
+            rs.close();
         }
         catch (Exception e) {
             throw new BuildException("Exception when getting table names", e);
         }
     }
 
-    private boolean isTableNameValid(String tableName) {
-        boolean retval = includes.size() == 0;
-        for (Include include : includes) {
-            retval |= Pattern.compile(include.getRegex()).matcher(tableName).matches();
+    public boolean isTableNameValid(String tableName) {
+        if (includePatterns == null) {
+            includePatterns = compile(includes);
+            excludePatterns = compile(excludes);
         }
-        return retval;        
+
+        for (Pattern exclude : excludePatterns) {
+            if (exclude.matcher(tableName).matches()) {
+                return false;
+            }
+        }
+
+        if (includePatterns.size() == 0) {
+            return true;
+        }
+        for (Pattern include : includePatterns) {
+            if (include.matcher(tableName).matches()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private List<Pattern> compile(List<Include> regexes) {
+        final List<Pattern> retval = new ArrayList<Pattern>();
+        for (Include regex : regexes) {
+            retval.add(Pattern.compile(regex.getRegex()));
+        }
+        return retval;
     }
 
     public Set<String> getTables() {
@@ -0,0 +1,227 @@
+/*
+ * Copyright 2005-2007 The Kuali Foundation
+ *
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.opensource.org/licenses/ecl2.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rsmart.kuali.tools.ant.tasks;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.tools.ant.Project;
+
+/**
+ * Gathers optimizer statistics of one target's tables as each table is loaded, so the first queries against
+ * a fresh copy aren't planned for empty tables. Tables are analyzed in parallel, through the target's
+ * {@link TargetProfile}, on connections of their own while the rest of the copy goes on.
+ *
+ * Databases that can't analyze one table at a time are analyzed as a whole once the load is done. A table
+ * that can't be analyzed is only logged. Statistics never fail a load.
+ *
+ * @author Leo Przybylski (przybyls@arizona.edu)
+ */
+public class TableStatistics {
+    private final MigrateData task;
+    private final String name;
+    private final TargetProfile profile;
+    private final ConnectionPool pool;
+    private final ExecutorService executor;
+    private final Set<String> submitted;
+    private final LongAdder analyzed;
+    private final LongAdder failed;
+    private final LongAdder nanos;
+    private volatile boolean unsupported;
+
+    /**
+     * @param name name of the target in logs and the report
+     * @param threads tables analyzed at the same time
+     */
+    public TableStatistics(final MigrateData task, final String name, final RdbmsConfig target,
+                           final TargetProfile profile, final int threads) {
+        this.task      = task;
+        this.name      = name;
+        this.profile   = profile;
+        this.pool      = task.createConnectionPool(target, Math.max(1, threads));
+        this.submitted = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        this.analyzed  = new LongAdder();
+        this.failed    = new LongAdder();
+        this.nanos     = new LongAdder();
+
+        executor = Executors.newFixedThreadPool(Math.max(1, threads), new ThreadFactory() {
+                public Thread newThread(final Runnable runnable) {
+                    final Thread retval = new Thread(runnable, "Migration Statistics");
+                    retval.setDaemon(true);
+                    return retval;
+                }
+            });
+    }
+
+    /**
+     * Start analyzing a table that is fully loaded and committed. A table is only analyzed once, however
+     * many copies report it.
+     */
+    public void analyze(final String tableName) {
+        if (unsupported || !submitted.add(tableName)) {
+            return;
+        }
+        executor.execute(new Runnable() {
+                public void run() {
+                    gather(tableName);
+                }
+            });
+    }
+
+    private void gather(final String tableName) {
+        if (unsupported) {
+            return;
+        }
+
+        final Connection connection;
+        try {
+            connection = pool.acquire();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        catch (RuntimeException e) {
+            failed(tableName, e);
+            return;
+        }
+
+        boolean reusable = false;
+        final long started = System.nanoTime();
+        try {
+            if (profile.analyze(connection, tableName)) {
+                connection.commit();
+                analyzed.increment();
+                task.log("Gathered statistics of " + tableName + " on " + name, Project.MSG_VERBOSE);
+            }
+            else {
+                unsupported = true;
+            }
+            reusable = true;
+        }
+        catch (SQLException e) {
+            failed(tableName, e);
+            try {
+                connection.rollback();
+                reusable = true;
+            }
+            catch (SQLException re) {
+            }
+        }
+        finally {
+            nanos.add(System.nanoTime() - started);
+            if (reusable) {
+                pool.release(connection);
+            }
+            else {
+                pool.discard(connection);
+            }
+        }
+    }
+
+    /**
+     * Analyze the whole database after the load, when tables couldn't be analyzed one by one
+     *
+     * @return true if the database was analyzed
+     */
+    private boolean gatherAll() {
+        final Connection connection;
+        try {
+            connection = pool.acquire();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        catch (RuntimeException e) {
+            failed(name, e);
+            return false;
+        }
+
+        final long started = System.nanoTime();
+        try {
+            final boolean retval = profile.analyze(connection);
+            connection.commit();
+            pool.release(connection);
+            return retval;
+        }
+        catch (SQLException e) {
+            failed(name, e);
+            pool.discard(connection);
+            return false;
+        }
+        finally {
+            nanos.add(System.nanoTime() - started);
+        }
+    }
+
+    private void failed(final String tableName, final Exception cause) {
+        failed.increment();
+        task.log("Could not gather statistics of " + tableName + " on " + name + ": " + cause.getMessage(), Project.MSG_WARN);
+    }
+
+    /**
+     * Wait for the tables still being analyzed and add the results to the report. After a failed load
+     * the rest are abandoned.
+     */
+    public void finish(final boolean completed) {
+        executor.shutdown();
+        try {
+            if (completed) {
+                executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        finally {
+            executor.shutdownNow();
+        }
+
+        boolean whole = false;
+        if (unsupported && completed) {
+            whole = gatherAll();
+        }
+        pool.close();
+
+        if (whole) {
+            task.log(String.format("Gathered statistics of all of %s in %dms", name, nanos.sum() / 1000000));
+        }
+        else if (unsupported) {
+            task.log("Statistics can't be gathered on " + name + " (" + profile.describe() + ")");
+        }
+        else {
+            task.log(String.format("Gathered statistics of %d tables on %s in %dms, %d failed", analyzed.sum(), name,
+                                   nanos.sum() / 1000000, failed.sum()));
+        }
+        task.getReport().getSection("statistics").getSection(name)
+            .put("supported", !unsupported || whole)
+            .put("wholeDatabase", whole)
+            .put("tables", analyzed.sum())
+            .put("failed", failed.sum())
+            .put("millis", nanos.sum() / 1000000);
+    }
+}
@@ -0,0 +1,276 @@
+/*
+ * Copyright 2005-2007 The Kuali Foundation
+ *
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.opensource.org/licenses/ecl2.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rsmart.kuali.tools.ant.tasks;
+
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Bulk-load settings for a target database. Durability is traded for speed while the load runs and
+ * restored once at the end, instead of checkpointing after every table.
+ *
+ * <ul>
+ *   <li>{@link #begin(Connection)} once before the load, for database wide settings</li>
+ *   <li>{@link #prepare(Connection)} once for every connection the target pool opens, for session settings</li>
+ *   <li>{@link #finish(Connection)} once after every connection is closed, to restore durable settings and
+ *       checkpoint</li>
+ *   <li>{@link #analyze(Connection, String)} once for every loaded table when statistics are gathered, or
+ *       {@link #analyze(Connection)} once after the load where tables can't be analyzed one by one</li>
+ * </ul>
+ *
+ * @author Leo Przybylski (przybyls@arizona.edu)
+ */
+public abstract class TargetProfile {
+
+    /**
+     * Pick the profile for a target driver
+     *
+     * @param driver JDBC driver class name, or a profile name (h2, hsqldb, derby, oracle or generic)
+     */
+    public static TargetProfile getInstance(final String driver) {
+        final String name = driver.toLowerCase();
+        if (name.contains("oracle")) {
+            return new OracleProfile();
+        }
+        else if (name.contains("h2")) {
+            return new H2Profile();
+        }
+        else if (name.contains("hsql")) {
+            return new HsqldbProfile();
+        }
+        else if (name.contains("derby")) {
+            return new DerbyProfile();
+        }
+        return new GenericProfile();
+    }
+
+    /**
+     * Called once on a dedicated connection before anything is loaded
+     */
+    public void begin(final Connection connection) throws SQLException {
+    }
+
+    /**
+     * Called once on each target connection when it is opened
+     */
+    public void prepare(final Connection connection) throws SQLException {
+    }
+
+    /**
+     * Turn rollback back on for a prepared connection, or off again. Profiles that give up rollback in
+     * {@link #prepare(Connection)} turn it on for work that has to be rolled back as a unit.
+     */
+    public void setRollback(final Connection connection, final boolean rollback) throws SQLException {
+    }
+
+    /**
+     * Called once on a dedicated connection after the load, whether it succeeded or not
+     */
+    public void finish(final Connection connection) throws SQLException {
+    }
+
+    /**
+     * Gather optimizer statistics of a loaded table
+     *
+     * @param tableName name of the table, qualified when it isn't in the connection's default schema
+     * @return false when statistics can't be gathered on this database
+     */
+    public boolean analyze(final Connection connection, final String tableName) throws SQLException {
+        return false;
+    }
+
+    /**
+     * Gather optimizer statistics of the whole database, for databases that can't analyze a single table
+     *
+     * @return false when statistics can't be gathered on this database
+     */
+    public boolean analyze(final Connection connection) throws SQLException {
+        return false;
+    }
+
+    public abstract String describe();
+
+    protected static void execute(final Connection connection, final String... sql) throws SQLException {
+        final Statement st = connection.createStatement();
+        try {
+            for (final String statement : sql) {
+                st.execute(statement);
+            }
+        }
+        finally {
+            st.close();
+        }
+    }
+
+    /**
+     * @return the schema of a qualified table name, or null
+     */
+    protected static String getSchemaName(final String tableName) {
+        final int dot = tableName.lastIndexOf('.');
+        return dot < 0 ? null : tableName.substring(0, dot);
+    }
+
+    protected static String getBaseName(final String tableName) {
+        return tableName.substring(tableName.lastIndexOf('.') + 1);
+    }
+
+    /**
+     * H2 without the transaction log or the undo log. Rows written by a session can't be rolled back, which
+     * is fine since a failed load is started over.
+     */
+    static class H2Profile extends TargetProfile {
+        public void begin(final Connection connection) throws SQLException {
+            execute(connection, "SET LOG 0");
+        }
+
+        public void prepare(final Connection connection) throws SQLException {
+            execute(connection, "SET UNDO_LOG 0");
+        }
+
+        public void setRollback(final Connection connection, final boolean rollback) throws SQLException {
+            execute(connection, rollback ? "SET UNDO_LOG 1" : "SET UNDO_LOG 0");
+        }
+
+        public void finish(final Connection connection) throws SQLException {
+            execute(connection, "SET LOG 2", "CHECKPOINT SYNC");
+        }
+
+        /**
+         * <code>ANALYZE TABLE</code> only exists in newer versions. Older ones reject it as a syntax error and
+         * are analyzed as a whole instead.
+         */
+        public boolean analyze(final Connection connection, final String tableName) throws SQLException {
+            try {
+                execute(connection, "ANALYZE TABLE " + tableName);
+                return true;
+            }
+            catch (SQLException e) {
+                if (e.getSQLState() != null && e.getSQLState().startsWith("42")) {
+                    return false;
+                }
+                throw e;
+            }
+        }
+
+        public boolean analyze(final Connection connection) throws SQLException {
+            execute(connection, "ANALYZE");
+            return true;
+        }
+
+        public String describe() {
+            return "H2 with logging disabled";
+        }
+    }
+
+    /**
+     * HSQLDB without the .log file. Data files are only written on the final checkpoint.
+     */
+    static class HsqldbProfile extends TargetProfile {
+        public void begin(final Connection connection) throws SQLException {
+            execute(connection, "SET FILES LOG FALSE");
+        }
+
+        public void finish(final Connection connection) throws SQLException {
+            execute(connection, "SET FILES LOG TRUE", "CHECKPOINT");
+        }
+
+        public String describe() {
+            return "HSQLDB with logging disabled";
+        }
+    }
+
+    /**
+     * Derby can't turn its log off at runtime (derby.system.durability is a boot property), so it is only
+     * checkpointed once at the end.
+     */
+    static class DerbyProfile extends TargetProfile {
+        public void finish(final Connection connection) throws SQLException {
+            execute(connection, "CALL SYSCS_UTIL.SYSCS_CHECKPOINT_DATABASE()");
+        }
+
+        /**
+         * Statistics are updated per schema and table, so an unqualified table is looked up in the current
+         * schema
+         */
+        public boolean analyze(final Connection connection, final String tableName) throws SQLException {
+            String schemaName = getSchemaName(tableName);
+            if (schemaName == null) {
+                final Statement st = connection.createStatement();
+                try {
+                    final ResultSet rs = st.executeQuery("VALUES CURRENT SCHEMA");
+                    rs.next();
+                    schemaName = rs.getString(1);
+                    rs.close();
+                }
+                finally {
+                    st.close();
+                }
+            }
+
+            final CallableStatement call = connection.prepareCall("CALL SYSCS_UTIL.SYSCS_UPDATE_STATISTICS(?, ?, NULL)");
+            try {
+                call.setString(1, schemaName);
+                call.setString(2, getBaseName(tableName));
+                call.execute();
+            }
+            finally {
+                call.close();
+            }
+            return true;
+        }
+
+        public String describe() {
+            return "Derby";
+        }
+    }
+
+    /**
+     * Oracle is loaded with its own settings. Statistics are gathered with DBMS_STATS, in the current schema
+     * unless the table is qualified.
+     */
+    static class OracleProfile extends TargetProfile {
+        public boolean analyze(final Connection connection, final String tableName) throws SQLException {
+            final CallableStatement call = connection.prepareCall(
+                "BEGIN DBMS_STATS.GATHER_TABLE_STATS(NVL(?, SYS_CONTEXT('USERENV', 'CURRENT_SCHEMA')), ?); END;");
+            try {
+                call.setString(1, getSchemaName(tableName));
+                call.setString(2, getBaseName(tableName));
+                call.execute();
+            }
+            finally {
+                call.close();
+            }
+            return true;
+        }
+
+        public String describe() {
+            return "Oracle with default settings";
+        }
+    }
+
+    /**
+     * Any other database is loaded with its own settings
+     */
+    static class GenericProfile extends TargetProfile {
+        public String describe() {
+            return "default settings";
+        }
+    }
+}
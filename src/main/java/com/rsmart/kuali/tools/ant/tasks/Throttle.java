@@ -0,0 +1,66 @@
+/*
+ * Copyright 2005-2007 The Kuali Foundation
+ *
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.opensource.org/licenses/ecl2.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rsmart.kuali.tools.ant.tasks;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits the aggregate rate rows are written at across all copy threads. The limit can be changed while
+ * copies are running. A limit of 0 or less disables throttling.
+ *
+ * @author Leo Przybylski (przybyls@arizona.edu)
+ */
+public class Throttle {
+    private volatile long rowsPerSecond;
+    private long nextFree;
+
+    public Throttle(final long rowsPerSecond) {
+        this.rowsPerSecond = rowsPerSecond;
+    }
+
+    public long getRowsPerSecond() {
+        return rowsPerSecond;
+    }
+
+    public void setRowsPerSecond(final long rowsPerSecond) {
+        this.rowsPerSecond = rowsPerSecond;
+    }
+
+    /**
+     * Wait until writing some rows would not exceed the limit
+     */
+    public void acquire(final long rows) throws InterruptedException {
+        final long limit = rowsPerSecond;
+        if (limit <= 0) {
+            return;
+        }
+
+        long wait = 0;
+        synchronized (this) {
+            final long now = System.nanoTime();
+            if (nextFree < now) {
+                nextFree = now;
+            }
+            wait = nextFree - now;
+            nextFree += rows * 1000000000L / limit;
+        }
+
+        if (wait > 0) {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+    }
+}
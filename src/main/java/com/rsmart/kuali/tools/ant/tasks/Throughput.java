@@ -0,0 +1,121 @@
+/*
+ * Copyright 2005-2007 The Kuali Foundation
+ *
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.opensource.org/licenses/ecl2.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rsmart.kuali.tools.ant.tasks;
+
+/**
+ * Exponentially weighted rows and bytes per second, sampled from cumulative counters. Samples are weighted
+ * by the time between them, so the smoothing doesn't depend on how often it is sampled. Recent throughput
+ * dominates, but a single slow batch or a LOB-heavy stretch does not swing the estimate.
+ *
+ * @author Leo Przybylski (przybyls@arizona.edu)
+ */
+public class Throughput {
+    /**
+     * Seconds after which a sample's weight has decayed to 1/e
+     */
+    public static final double DEFAULT_WINDOW = 30d;
+
+    private final double window;
+    private long lastNanos;
+    private long lastRows;
+    private long lastBytes;
+    private double rowRate;
+    private double byteRate;
+    private boolean primed;
+
+    public Throughput() {
+        this(DEFAULT_WINDOW);
+    }
+
+    public Throughput(final double window) {
+        this.window = window;
+    }
+
+    /**
+     * Add a sample of the cumulative counters
+     *
+     * @param nanos time of the sample from {@link System#nanoTime()}
+     */
+    public synchronized void update(final long rows, final long bytes, final long nanos) {
+        if (lastNanos == 0) {
+            lastNanos = nanos;
+            lastRows  = rows;
+            lastBytes = bytes;
+            return;
+        }
+
+        final double elapsed = (nanos - lastNanos) / 1e9d;
+        if (elapsed <= 0) {
+            return;
+        }
+
+        final double rowsPerSecond  = (rows - lastRows) / elapsed;
+        final double bytesPerSecond = (bytes - lastBytes) / elapsed;
+        if (primed) {
+            final double alpha = 1d - Math.exp(-elapsed / window);
+            rowRate  += alpha * (rowsPerSecond - rowRate);
+            byteRate += alpha * (bytesPerSecond - byteRate);
+        }
+        else {
+            rowRate  = rowsPerSecond;
+            byteRate = bytesPerSecond;
+            primed   = true;
+        }
+
+        lastNanos = nanos;
+        lastRows  = rows;
+        lastBytes = bytes;
+    }
+
+    public synchronized double getRowsPerSecond() {
+        return rowRate;
+    }
+
+    public synchronized double getBytesPerSecond() {
+        return byteRate;
+    }
+
+    /**
+     * Estimate the time left. The byte rate is preferred because rows of LOB tables cost far more than
+     * rows of narrow tables. The row rate is only used while no bytes have been measured.
+     *
+     * @return seconds remaining, or -1 when there is no throughput to estimate from yet
+     */
+    public synchronized double getRemainingSeconds(final long remainingRows, final long remainingBytes) {
+        if (remainingRows <= 0) {
+            return 0;
+        }
+        if (byteRate > 0 && remainingBytes > 0) {
+            return remainingBytes / byteRate;
+        }
+        if (rowRate > 0) {
+            return remainingRows / rowRate;
+        }
+        return -1;
+    }
+
+    /**
+     * Format seconds as h:mm:ss, or <code>--:--:--</code> when unknown
+     */
+    public static String format(final double seconds) {
+        if (seconds < 0 || Double.isNaN(seconds) || Double.isInfinite(seconds)) {
+            return "--:--:--";
+        }
+        final long total = Math.round(seconds);
+        return String.format("%d:%02d:%02d", total / 3600, (total / 60) % 60, total % 60);
+    }
+}
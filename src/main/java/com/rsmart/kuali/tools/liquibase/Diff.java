@@ -30,6 +30,8 @@ public class Diff {
 	private boolean diffSequences = true;
 	private boolean diffData = false;
 
+	private Set<String> tableNames;
+
 	public Diff(Database referenceDatabase, Database targetDatabase) {
 		this.referenceDatabase = referenceDatabase;
 
@@ -60,17 +62,18 @@ public class Diff {
 	}
 
 	public DiffResult compare() throws DatabaseException {
+		final DiffEvents.Compare event = new DiffEvents.Compare();
+		event.begin();
+
 		if (referenceSnapshot == null) {
-			referenceSnapshot = DatabaseSnapshotGeneratorFactory.getInstance()
-                .createSnapshot(referenceDatabase, referenceDatabase.getDefaultSchemaName(), statusListeners);
+			referenceSnapshot = createSnapshot(referenceDatabase);
 		}
 
 		if (targetSnapshot == null) {
 			if (targetDatabase == null) {
 				targetSnapshot = new DatabaseSnapshot(referenceDatabase, null);
 			} else {
-				targetSnapshot = DatabaseSnapshotGeneratorFactory.getInstance()
-                    .createSnapshot(targetDatabase, referenceDatabase.getDefaultSchemaName(), statusListeners);
+				targetSnapshot = createSnapshot(targetDatabase);
 			}
 		}
 
@@ -109,10 +112,133 @@ public class Diff {
 		removeDuplicateIndexes( diffResult.getUnexpectedIndexes() );
 		removeDuplicateUniqueConstraints( diffResult.getMissingUniqueConstraints() );
 		removeDuplicateUniqueConstraints( diffResult.getUnexpectedUniqueConstraints() );
+
+		if (tableNames != null) {
+			retainTables(diffResult);
+		}
+
+		event.end();
+		if (event.shouldCommit()) {
+			event.schema = referenceDatabase.getDefaultSchemaName();
+			event.diffTypes = getDiffTypes();
+			event.commit();
+		}
         
 		return diffResult;
 	}
 
+	/**
+	 * Snapshot a database in the reference database's schema
+	 */
+	private DatabaseSnapshot createSnapshot(Database database) throws DatabaseException {
+		final DiffEvents.Snapshot event = new DiffEvents.Snapshot();
+		event.begin();
+		final DatabaseSnapshot retval = DatabaseSnapshotGeneratorFactory.getInstance()
+            .createSnapshot(database, referenceDatabase.getDefaultSchemaName(), statusListeners);
+		event.end();
+		if (event.shouldCommit()) {
+			event.database = database.getConnection() == null ? null : database.getConnection().getURL();
+			event.schema = referenceDatabase.getDefaultSchemaName();
+			event.tables = retval.getTables().size();
+			event.commit();
+		}
+		return retval;
+	}
+
+	/**
+	 * @return comma separated names of the enabled comparisons, in the form {@link #setDiffTypes(String)} takes
+	 */
+	private String getDiffTypes() {
+		final List<String> retval = new ArrayList<String>();
+		if (shouldDiffTables()) {
+			retval.add("tables");
+		}
+		if (shouldDiffColumns()) {
+			retval.add("columns");
+		}
+		if (shouldDiffViews()) {
+			retval.add("views");
+		}
+		if (shouldDiffPrimaryKeys()) {
+			retval.add("primaryKeys");
+		}
+		if (shouldDiffUniqueConstraints()) {
+			retval.add("uniqueConstraints");
+		}
+		if (shouldDiffIndexes()) {
+			retval.add("indexes");
+		}
+		if (shouldDiffForeignKeys()) {
+			retval.add("foreignKeys");
+		}
+		if (shouldDiffSequences()) {
+			retval.add("sequences");
+		}
+		if (shouldDiffData()) {
+			retval.add("data");
+		}
+		return StringUtils.join(retval, ",");
+	}
+
+	/**
+	 * Limit the comparison to some tables. Views and sequences are not affected. Only the result is filtered:
+	 * snapshots are still taken of the whole schema, since Liquibase's snapshot generators can't be limited to
+	 * some tables.
+	 *
+	 * @param tableNames names of the tables to compare, or null to compare all tables
+	 */
+	public void setTableNames(Set<String> tableNames) {
+		if (tableNames == null) {
+			this.tableNames = null;
+			return;
+		}
+		this.tableNames = new HashSet<String>();
+		for (String tableName : tableNames) {
+			this.tableNames.add(tableName.toUpperCase());
+		}
+	}
+
+	private boolean isIncluded(Table table) {
+		return table == null || tableNames.contains(table.getName().toUpperCase());
+	}
+
+	/**
+	 * Drop differences on tables outside of the compared table names
+	 */
+	private void retainTables(DiffResult diffResult) {
+		for (Iterator<Table> it = diffResult.getMissingTables().iterator(); it.hasNext();) {
+			if (!isIncluded(it.next())) it.remove();
+		}
+		for (Iterator<Table> it = diffResult.getUnexpectedTables().iterator(); it.hasNext();) {
+			if (!isIncluded(it.next())) it.remove();
+		}
+		for (SortedSet<Column> columns : Arrays.asList(diffResult.getMissingColumns(), diffResult.getUnexpectedColumns(), diffResult.getChangedColumns())) {
+			for (Iterator<Column> it = columns.iterator(); it.hasNext();) {
+				if (!isIncluded(it.next().getTable())) it.remove();
+			}
+		}
+		for (SortedSet<ForeignKey> foreignKeys : Arrays.asList(diffResult.getMissingForeignKeys(), diffResult.getUnexpectedForeignKeys())) {
+			for (Iterator<ForeignKey> it = foreignKeys.iterator(); it.hasNext();) {
+				if (!isIncluded(it.next().getForeignKeyTable())) it.remove();
+			}
+		}
+		for (SortedSet<Index> indexes : Arrays.asList(diffResult.getMissingIndexes(), diffResult.getUnexpectedIndexes())) {
+			for (Iterator<Index> it = indexes.iterator(); it.hasNext();) {
+				if (!isIncluded(it.next().getTable())) it.remove();
+			}
+		}
+		for (SortedSet<PrimaryKey> primaryKeys : Arrays.asList(diffResult.getMissingPrimaryKeys(), diffResult.getUnexpectedPrimaryKeys())) {
+			for (Iterator<PrimaryKey> it = primaryKeys.iterator(); it.hasNext();) {
+				if (!isIncluded(it.next().getTable())) it.remove();
+			}
+		}
+		for (SortedSet<UniqueConstraint> uniqueConstraints : Arrays.asList(diffResult.getMissingUniqueConstraints(), diffResult.getUnexpectedUniqueConstraints())) {
+			for (Iterator<UniqueConstraint> it = uniqueConstraints.iterator(); it.hasNext();) {
+				if (!isIncluded(it.next().getTable())) it.remove();
+			}
+		}
+	}
+
 	public void setDiffTypes(String diffTypes) {
 		if (StringUtils.trimToNull(diffTypes) != null) {
 			Set<String> types = new HashSet<String>(Arrays.asList(diffTypes.toLowerCase().split("\\s*,\\s*")));
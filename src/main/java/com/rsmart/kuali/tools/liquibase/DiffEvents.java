@@ -0,0 +1,83 @@
+/*
+ * Copyright 2005-2007 The Kuali Foundation
+ *
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.opensource.org/licenses/ecl2.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rsmart.kuali.tools.liquibase;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Java Flight Recorder events for schema snapshots, comparisons, changelog generation and changelog parsing.
+ * Events are only committed while a recording with them enabled is running, so they cost next to nothing
+ * otherwise.
+ */
+public final class DiffEvents {
+	private static final String CATEGORY = "lbcopy";
+
+	private DiffEvents() {
+	}
+
+	@Name("com.rsmart.kuali.tools.liquibase.Snapshot")
+	@Label("Database Snapshot")
+	@Description("Reading the structure of a database schema")
+	@Category({CATEGORY, "Diff"})
+	public static class Snapshot extends Event {
+		@Label("Database")
+		public String database;
+
+		@Label("Schema")
+		public String schema;
+
+		@Label("Tables")
+		public int tables;
+	}
+
+	@Name("com.rsmart.kuali.tools.liquibase.Compare")
+	@Label("Diff Compare")
+	@Description("Comparing two schemas, including taking any snapshot that wasn't taken yet")
+	@Category({CATEGORY, "Diff"})
+	public static class Compare extends Event {
+		@Label("Schema")
+		public String schema;
+
+		@Label("Diff Types")
+		public String diffTypes;
+	}
+
+	@Name("com.rsmart.kuali.tools.liquibase.PrintChangeLog")
+	@Label("Print ChangeLog")
+	@Description("Generating and serializing the change sets of a diff")
+	@Category({CATEGORY, "Diff"})
+	public static class PrintChangeLog extends Event {
+		@Label("Change Sets")
+		public int changeSets;
+	}
+
+	@Name("com.rsmart.kuali.tools.liquibase.ParseChangeLog")
+	@Label("Parse ChangeLog")
+	@Description("SAX parsing of an XML changelog")
+	@Category({CATEGORY, "ChangeLog"})
+	public static class ParseChangeLog extends Event {
+		@Label("Location")
+		public String location;
+
+		@Label("Change Sets")
+		public int changeSets;
+	}
+}
@@ -46,7 +46,6 @@ import liquibase.serializer.ChangeLogSerializerFactory;
 import liquibase.serializer.core.xml.XMLChangeLogSerializer;
 import liquibase.snapshot.DatabaseSnapshot;
 import liquibase.statement.DatabaseFunction;
-import liquibase.statement.core.RawSqlStatement;
 import liquibase.statement.ext.DescribeSequenceStatement;
 import liquibase.util.ISODateFormat;
 import liquibase.util.StringUtils;
@@ -61,12 +60,17 @@ import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
 import java.io.*;
 import java.math.BigInteger;
+import java.sql.Blob;
+import java.sql.Clob;
 import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.*;
 
 public class DiffResult {
 
+	private static final int DATA_FETCH_SIZE = 500;
+
 	private String idRoot = String.valueOf(new Date().getTime());
 	private int changeNumber = 1;
 
@@ -510,6 +514,8 @@ public class DiffResult {
 			ChangeLogSerializer changeLogSerializer)
 			throws ParserConfigurationException,
 			IOException, DatabaseException {
+		final DiffEvents.PrintChangeLog event = new DiffEvents.PrintChangeLog();
+		event.begin();
 		List<ChangeSet> changeSets = new ArrayList<ChangeSet>();
 		addMissingTableChanges(changeSets, targetDatabase);
 		addMissingColumnChanges(changeSets, targetDatabase);
@@ -538,6 +544,12 @@ public class DiffResult {
 		changeLogSerializer.write(changeSets, out);
 
 		out.flush();
+
+		event.end();
+		if (event.shouldCommit()) {
+			event.changeSets = changeSets.size();
+			event.commit();
+		}
 	}
 
 	private ChangeSet generateChangeSet(Change change) {
@@ -1035,9 +1047,15 @@ public class DiffResult {
 			String schema = referenceSnapshot.getSchema();
 			for (Table table : referenceSnapshot.getTables()) {
 				List<Change> changes = new ArrayList<Change>();
-				List<Map> rs = ExecutorService.getInstance().getExecutor(referenceSnapshot.getDatabase()).queryForList(new RawSqlStatement("SELECT * FROM "+ referenceSnapshot.getDatabase().escapeTableName(schema,table.getName())));
 
-				if (rs.size() == 0) {
+				// Rows are streamed rather than loaded with queryForList so a large table is never held in memory at once
+				Statement statement = ((JdbcConnection) referenceSnapshot.getDatabase().getConnection()).createStatement();
+				statement.setFetchSize(DATA_FETCH_SIZE);
+				ResultSet rs = statement.executeQuery("SELECT * FROM "+ referenceSnapshot.getDatabase().escapeTableName(schema,table.getName()));
+
+				if (!rs.next()) {
+					rs.close();
+					statement.close();
 					continue;
 				}
 
@@ -1072,11 +1090,11 @@ public class DiffResult {
 					}
 					outputFile.writeNext(line);
 
-					for (Map row : rs) {
+					do {
 						line = new String[columnNames.size()];
 
 						for (int i = 0; i < columnNames.size(); i++) {
-							Object value = row.get(columnNames.get(i).toUpperCase());
+							Object value = getDataValue(rs, columnNames.get(i));
 							if (dataTypes[i] == null && value != null) {
 								if (value instanceof Number) {
 									dataTypes[i] = "NUMERIC";
@@ -1099,7 +1117,7 @@ public class DiffResult {
                             }
 						}
 						outputFile.writeNext(line);
-					}
+					} while (rs.next());
 					outputFile.flush();
 					outputFile.close();
 
@@ -1121,7 +1139,7 @@ public class DiffResult {
 
 					changes.add(change);
 				} else { // if dataDir is null, build and use insert tags
-					for (Map row : rs) {
+					do {
 						InsertDataChange change = new InsertDataChange();
 						change.setSchemaName(schema);
 						change.setTableName(table.getName());
@@ -1131,7 +1149,7 @@ public class DiffResult {
 							ColumnConfig column = new ColumnConfig();
 							column.setName(columnNames.get(i));
 
-							Object value = row.get(columnNames.get(i).toUpperCase());
+							Object value = getDataValue(rs, columnNames.get(i));
 							if (value == null) {
 								column.setValue(null);
 							} else if (value instanceof Number) {
@@ -1151,9 +1169,11 @@ public class DiffResult {
 						// for each row, add a new change
 						// (there will be one group per table)
 						changes.add(change);
-					}
+					} while (rs.next());
 
 				}
+				rs.close();
+				statement.close();
 				if (changes.size() > 0) {
 					ChangeSet changeSet = generateChangeSet();
 					for (Change change : changes) {
@@ -1167,4 +1187,24 @@ public class DiffResult {
 			throw new RuntimeException(e);
 		}
 	}
+
+	/**
+	 * Read a column of the current row the way queryForList would have returned it. LOBs are read
+	 * into strings and bytes, and Oracle's own temporal types are converted to timestamps.
+	 */
+	private Object getDataValue(ResultSet rs, String columnName) throws SQLException {
+		Object value = rs.getObject(columnName);
+		if (value instanceof Clob) {
+			Clob clob = (Clob) value;
+			value = clob.getSubString(1, (int) clob.length());
+		} else if (value instanceof Blob) {
+			Blob blob = (Blob) value;
+			value = blob.getBytes(1, (int) blob.length());
+		} else if (value != null && value.getClass().getName().startsWith("oracle.sql.TIMESTAMP")) {
+			value = rs.getTimestamp(columnName);
+		} else if (value != null && value.getClass().getName().startsWith("oracle.sql.DATE")) {
+			value = rs.getTimestamp(columnName);
+		}
+		return value;
+	}
 }
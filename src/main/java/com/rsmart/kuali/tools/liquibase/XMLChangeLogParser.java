@@ -48,6 +48,8 @@ public class XMLChangeLogParser extends liquibase.parser.core.xml.XMLChangeLogSA
     public DatabaseChangeLog parse(String physicalChangeLogLocation, ChangeLogParameters changeLogParameters, ResourceAccessor resourceAccessor) throws ChangeLogParseException {
 
         InputStream inputStream = null;
+        final DiffEvents.ParseChangeLog event = new DiffEvents.ParseChangeLog();
+        event.begin();
         try {
             
             SAXParser parser = SAXParserFactory.newInstance().newSAXParser();
@@ -89,7 +91,14 @@ public class XMLChangeLogParser extends liquibase.parser.core.xml.XMLChangeLogSA
             xmlReader.setContentHandler(contentHandler);
             xmlReader.parse(new InputSource(inputStream));
 
-            return contentHandler.getDatabaseChangeLog();
+            final DatabaseChangeLog retval = contentHandler.getDatabaseChangeLog();
+            event.end();
+            if (event.shouldCommit()) {
+                event.location = physicalChangeLogLocation;
+                event.changeSets = retval.getChangeSets().size();
+                event.commit();
+            }
+            return retval;
         } catch (ChangeLogParseException e) {
             throw e;
         } catch (IOException e) {